@@ -0,0 +1,159 @@
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.LongConsumer;
+import javax.crypto.SecretKey;
+
+// The application lives in the unnamed package, which a named package cannot import, and JMH
+// refuses benchmarks in the unnamed package. These handles reach the application by name.
+// They are constants, so the JIT inlines them like direct calls.
+final class App {
+    private static final MethodHandle DERIVE_KEY;
+    private static final MethodHandle GENERATE_KEY;
+    private static final MethodHandle NEW_STORED_FILE;
+    private static final MethodHandle CONTENT_STREAM;
+    private static final MethodHandle CLOSE_FILE;
+    private static final MethodHandle SAVE;
+    private static final MethodHandle LOAD;
+    private static final MethodHandle OPEN_ENTRY;
+    private static final MethodHandle OPEN_APPENDER;
+    private static final MethodHandle APPEND;
+    private static final MethodHandle COMMIT;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> encryptionUtil = Class.forName("EncryptionUtil");
+            Class<?> containerKey = Class.forName("ContainerKey");
+            Class<?> containerManager = Class.forName("ContainerManager");
+            Class<?> appender = Class.forName("ContainerManager$Appender");
+            Class<?> storedFile = Class.forName("StoredFile");
+            Class<?> containerEntry = Class.forName("ContainerEntry");
+
+            DERIVE_KEY = lookup.findStatic(encryptionUtil, "deriveKey",
+                    MethodType.methodType(SecretKey.class, String.class, byte[].class));
+            GENERATE_KEY = lookup.findStatic(containerKey, "generate",
+                    MethodType.methodType(containerKey, String.class));
+            NEW_STORED_FILE = lookup.findConstructor(storedFile,
+                    MethodType.methodType(void.class, String.class, String.class, Path.class, LongConsumer.class));
+            CONTENT_STREAM = lookup.findVirtual(storedFile, "getContentStream",
+                    MethodType.methodType(InputStream.class));
+            CLOSE_FILE = lookup.findVirtual(storedFile, "close", MethodType.methodType(void.class));
+            SAVE = lookup.findStatic(containerManager, "saveContainer",
+                    MethodType.methodType(void.class, String.class, containerKey, Map.class));
+            LOAD = lookup.findStatic(containerManager, "loadContainer",
+                    MethodType.methodType(Map.class, String.class, containerKey));
+            OPEN_ENTRY = lookup.findStatic(containerManager, "openEntry",
+                    MethodType.methodType(InputStream.class, String.class, containerKey, String.class));
+            OPEN_APPENDER = lookup.findStatic(containerManager, "openAppender",
+                    MethodType.methodType(appender, String.class, containerKey));
+            APPEND = lookup.findVirtual(appender, "add",
+                    MethodType.methodType(containerEntry, String.class, String.class, InputStream.class));
+            COMMIT = lookup.findVirtual(appender, "commit", MethodType.methodType(void.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private App() {
+    }
+
+    static SecretKey deriveKey(String password, byte[] salt) throws Exception {
+        try {
+            return (SecretKey) DERIVE_KEY.invoke(password, salt);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // Returns a ContainerKey
+    static Object generateKey(String password) throws Exception {
+        try {
+            return GENERATE_KEY.invoke(password);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // Returns a StoredFile holding the compressed content of the source
+    static Object storeFile(String name, String type, Path source) throws Exception {
+        LongConsumer progress = bytes -> {};
+        try {
+            return NEW_STORED_FILE.invoke(name, type, source, progress);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static InputStream contentStream(Object storedFile) throws Exception {
+        try {
+            return (InputStream) CONTENT_STREAM.invoke(storedFile);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void close(Object storedFile) throws Exception {
+        try {
+            CLOSE_FILE.invoke(storedFile);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void closeAll(Map<String, Object> files) throws Exception {
+        for (Object file : files.values()) {
+            close(file);
+        }
+    }
+
+    static void save(String container, Object key, Map<String, Object> files) throws Exception {
+        try {
+            SAVE.invoke(container, key, files);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> load(String container, Object key) throws Exception {
+        try {
+            return (Map<String, Object>) LOAD.invoke(container, key);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static InputStream openEntry(String container, Object key, String name) throws Exception {
+        try {
+            return (InputStream) OPEN_ENTRY.invoke(container, key, name);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // Streams entries "entry-0" to "entry-<count - 1>" into an existing container and commits them at once
+    static void append(String container, Object key, int count, IntFunction<byte[]> content) throws Exception {
+        try (AutoCloseable appender = (AutoCloseable) OPEN_APPENDER.invoke(container, key)) {
+            for (int i = 0; i < count; i++) {
+                InputStream in = new ByteArrayInputStream(content.apply(i));
+                APPEND.invoke(appender, "entry-" + i, "text/plain", in);
+            }
+            COMMIT.invoke(appender);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static Exception rethrow(Throwable t) {
+        if (t instanceof Error) throw (Error) t;
+        return t instanceof Exception ? (Exception) t : new RuntimeException(t);
+    }
+}
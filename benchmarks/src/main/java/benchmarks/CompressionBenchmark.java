@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.io.InputStream;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Throughput of turning a file into a StoredFile (codec selection, compression to a temp file)
+// and of reading it back. Each operation processes SIZE bytes, so MiB/s = 16000 / score.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressionBenchmark {
+    static final int SIZE = 16 << 20;
+
+    @Param({"compressible", "random"})
+    public String content;
+
+    private Path directory;
+    private Path source;
+    private Object stored;
+    private byte[] sink;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Fixtures.createTempDirectory();
+        source = directory.resolve("source.bin");
+        byte[] data = content.equals("random") ? Fixtures.random(SIZE, 1) : Fixtures.compressible(SIZE, 1);
+        Files.write(source, data);
+        stored = App.storeFile("source.bin", "application/octet-stream", source);
+        sink = new byte[1 << 20];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        App.close(stored);
+        Fixtures.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public Object compress() throws Exception {
+        Object file = App.storeFile("source.bin", "application/octet-stream", source);
+        App.close(file); // Deletes the temp file again
+        return file;
+    }
+
+    @Benchmark
+    public long decompress() throws Exception {
+        long total = 0;
+        try (InputStream in = App.contentStream(stored)) {
+            int read;
+            while ((read = in.read(sink)) != -1) {
+                total += read;
+            }
+        }
+        return total;
+    }
+}
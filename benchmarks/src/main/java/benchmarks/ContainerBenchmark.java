@@ -0,0 +1,68 @@
+package benchmarks;
+
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Full save and load of containers with many small entries, where the table of contents and
+// per-entry overhead dominate. The key is unlocked once, so PBKDF2 is not part of the score.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContainerBenchmark {
+    static final int ENTRY_SIZE = 1024;
+
+    @Param({"1", "1000", "100000"})
+    public int entries;
+
+    private Path directory;
+    private String source;
+    private String target;
+    private Object key;
+    private Map<String, Object> files;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Fixtures.createTempDirectory();
+        source = directory.resolve("source.box").toString();
+        target = directory.resolve("target.box").toString();
+        key = App.generateKey(Fixtures.PASSWORD);
+        App.save(source, key, new HashMap<>());
+        App.append(source, key, entries, i -> Fixtures.compressible(ENTRY_SIZE, i));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Fixtures.deleteRecursively(directory);
+    }
+
+    // Entries loaded from the source container are copied into a new file on every save,
+    // so each invocation measures a complete rewrite rather than an append.
+    @Setup(Level.Invocation)
+    public void prepareSave() throws Exception {
+        Files.deleteIfExists(Paths.get(target));
+        files = App.load(source, key);
+    }
+
+    @TearDown(Level.Invocation)
+    public void finishSave() throws Exception {
+        App.closeAll(files);
+    }
+
+    @Benchmark
+    public void save() throws Exception {
+        App.save(target, key, files);
+    }
+
+    @Benchmark
+    public int load() throws Exception {
+        Map<String, Object> loaded = App.load(source, key);
+        App.closeAll(loaded);
+        return loaded.size();
+    }
+}
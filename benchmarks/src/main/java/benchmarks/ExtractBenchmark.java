@@ -0,0 +1,53 @@
+package benchmarks;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Latency of pulling one entry out of a populated container: header, table of contents,
+// one segment. Sampled, so the JSON results include percentiles as well as the mean.
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExtractBenchmark {
+    static final int ENTRIES = 1000;
+    static final int ENTRY_SIZE = 64 * 1024;
+
+    private Path directory;
+    private String container;
+    private Object key;
+    private byte[] sink;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Fixtures.createTempDirectory();
+        container = directory.resolve("extract.box").toString();
+        key = App.generateKey(Fixtures.PASSWORD);
+        App.save(container, key, new HashMap<>());
+        App.append(container, key, ENTRIES, i -> Fixtures.compressible(ENTRY_SIZE, i));
+        sink = new byte[ENTRY_SIZE];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Fixtures.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public long extractOne() throws Exception {
+        long total = 0;
+        try (InputStream in = App.openEntry(container, key, "entry-" + (ENTRIES / 2))) {
+            int read;
+            while ((read = in.read(sink)) != -1) {
+                total += read;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,50 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Deterministic test data, so runs on different releases measure the same bytes
+final class Fixtures {
+    static final String PASSWORD = "benchmark-password";
+
+    private Fixtures() {
+    }
+
+    // Log-like text: repetitive structure with varying numbers, compresses roughly 5:1
+    static byte[] compressible(int size, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(size + 128);
+        while (text.length() < size) {
+            text.append("2024-01-").append(10 + random.nextInt(20))
+                    .append(" INFO request ").append(random.nextInt(100_000))
+                    .append(" served in ").append(random.nextInt(500)).append(" ms\n");
+        }
+        byte[] data = new byte[size];
+        System.arraycopy(text.toString().getBytes(StandardCharsets.US_ASCII), 0, data, 0, size);
+        return data;
+    }
+
+    // Incompressible, like media or already compressed archives
+    static byte[] random(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    static Path createTempDirectory() throws IOException {
+        return Files.createTempDirectory("blackbox-bench");
+    }
+
+    static void deleteRecursively(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) return;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
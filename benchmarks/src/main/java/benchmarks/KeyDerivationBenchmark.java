@@ -0,0 +1,21 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import javax.crypto.SecretKey;
+import org.openjdk.jmh.annotations.*;
+
+// PBKDF2 cost paid once per unlock. Deliberately slow; a drop here means the iteration count changed.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyDerivationBenchmark {
+    private final byte[] salt = new byte[16];
+
+    @Benchmark
+    public SecretKey deriveKey() throws Exception {
+        return App.deriveKey(Fixtures.PASSWORD, salt);
+    }
+}
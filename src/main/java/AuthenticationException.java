@@ -0,0 +1,15 @@
+import java.io.IOException;
+
+// The container could not be authenticated: the password is wrong, or the key, the table of contents or
+// an entry was tampered with. Callers tell it from other I/O errors by type, never by message.
+public class AuthenticationException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public AuthenticationException() {
+        super("Incorrect password or corrupted container");
+    }
+
+    public AuthenticationException(Throwable cause) {
+        super("Incorrect password or corrupted container", cause);
+    }
+}
@@ -1,26 +1,35 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.awt.Desktop;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.UnsupportedFlavorException;
 import java.awt.dnd.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.List;
-import java.util.function.Consumer;
+import javax.swing.Timer;
+import java.util.concurrent.CancellationException;
 
 public class BlackBox {
-    private static Map<String, StoredFile> files = new HashMap<>();
-    private static String containerPath;
-    private static String password;
+    private static ContainerSession session; // The open container, null when none is open
     private static JFrame activeContainerFrame; // Track the active container window
     private static List<File> pendingFiles = new ArrayList<>(); // Track files waiting to be added
     private static DefaultListModel<String> pendingListModel; // Model for the pending files list
     private static JPanel dropPanel; // Make dropPanel accessible
     private static JPanel confirmPanel; // Panel for confirmation button
+    private static final int FRAME_MILLIS = 1000 / 30; // Progress is repainted at most this often
+    private static PreviewServer previewServer; // Streams opened entries, started on first use
 
     public static void main(String[] args) {
+        // Any arguments select the headless command line; the UI is never loaded
+        if (args.length > 0) {
+            System.exit(BlackBoxCli.run(args));
+        }
         setupLookAndFeel();
         SwingUtilities.invokeLater(BlackBox::createAndShowMainUI);
     }
@@ -64,16 +73,22 @@ public class BlackBox {
         chooser.setDialogTitle("Select location for new container");
         if (chooser.showSaveDialog(null) != JFileChooser.APPROVE_OPTION) return;
 
-        containerPath = chooser.getSelectedFile().getAbsolutePath();
-        password = getPasswordFromDialog("Enter encryption password:");
+        String containerPath = chooser.getSelectedFile().getAbsolutePath();
+        String password = getPasswordFromDialog("Enter encryption password:");
 
         if (password != null) {
-            files = new HashMap<>();
+            closeSessionOf(containerPath);
+            try {
+                replaceSession(ContainerSession.create(containerPath, password));
+            } catch (Exception e) {
+                JOptionPane.showMessageDialog(null, "Could not create container: " + e.getMessage(),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
             JOptionPane.showMessageDialog(null, "Container created successfully!");
             showContainerUI();
         } else {
             JOptionPane.showMessageDialog(null, "Container creation canceled.", "Error", JOptionPane.ERROR_MESSAGE);
-            containerPath = null; // Reset path if password was canceled
         }
     }
 
@@ -82,21 +97,47 @@ public class BlackBox {
         chooser.setDialogTitle("Select container file");
         if (chooser.showOpenDialog(null) != JFileChooser.APPROVE_OPTION) return;
 
-        containerPath = chooser.getSelectedFile().getAbsolutePath();
-        password = getPasswordFromDialog("Enter password:");
+        String containerPath = chooser.getSelectedFile().getAbsolutePath();
+        String password = getPasswordFromDialog("Enter password:");
 
         if (password != null) {
-            showLoading(progress -> {
+            closeSessionOf(containerPath);
+            showLoading(tracker -> {
                 try {
-                    files = ContainerManager.loadContainer(containerPath, password);
+                    ContainerSession opened = ContainerSession.open(containerPath, password);
                     SwingUtilities.invokeLater(() -> {
+                        replaceSession(opened);
                         JOptionPane.showMessageDialog(null, "Container unlocked successfully!");
                         showContainerUI();
                     });
                 } catch (Exception ex) {
                     throw new RuntimeException(ex.getMessage());
                 }
-            }, "Decrypting container...");
+            }, "Decrypting container...", false);
+        }
+    }
+
+    private static void replaceSession(ContainerSession newSession) {
+        // Entries of the old container must not stay reachable; the server starts again on the next preview
+        if (previewServer != null) {
+            previewServer.close();
+            previewServer = null;
+        }
+        if (session != null) {
+            try {
+                session.close();
+            } catch (IOException e) {
+                System.err.println("Could not clean up previous container: " + e.getMessage());
+            }
+        }
+        session = newSession;
+    }
+
+    // A session is the container's only writer, so reopening the same container needs the old one closed first
+    private static void closeSessionOf(String containerPath) {
+        if (session != null && Paths.get(session.getContainerPath()).toAbsolutePath().normalize()
+                .equals(Paths.get(containerPath).toAbsolutePath().normalize())) {
+            replaceSession(null);
         }
     }
 
@@ -125,7 +166,14 @@ public class BlackBox {
 
         activeContainerFrame = new JFrame("Container Management");
         activeContainerFrame.setSize(500, 300);
-        activeContainerFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        // Closing the window ends the session, so its writer lock and temp files do not outlive it
+        activeContainerFrame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        activeContainerFrame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                closeContainerWindow((JFrame) e.getWindow());
+            }
+        });
 
         JPanel mainPanel = new JPanel(new BorderLayout(10, 10));
         mainPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
@@ -225,23 +273,35 @@ public class BlackBox {
         });
 
         // Button panel
-        JPanel buttonPanel = new JPanel(new GridLayout(5, 1, 10, 10));
+        JPanel buttonPanel = new JPanel(new GridLayout(9, 1, 10, 10));
         JButton addBtn = new JButton("Add Files");
         JButton listBtn = new JButton("View Stored Files");
+        JButton searchBtn = new JButton("Search Text");
         JButton openBtn = new JButton("Open File");
         JButton extractBtn = new JButton("Extract File");
+        JButton extractAllBtn = new JButton("Extract All");
+        JButton deleteBtn = new JButton("Delete File");
+        JButton passwordBtn = new JButton("Change Password");
         JButton saveBtn = new JButton("Save and Close");
 
         addBtn.addActionListener(e -> addFiles());
         listBtn.addActionListener(e -> listFiles());
+        searchBtn.addActionListener(e -> searchText());
         openBtn.addActionListener(e -> openFile());
         extractBtn.addActionListener(e -> extractFile());
+        extractAllBtn.addActionListener(e -> extractAll());
+        deleteBtn.addActionListener(e -> deleteFile());
+        passwordBtn.addActionListener(e -> changePassword());
         saveBtn.addActionListener(e -> saveAndClose(activeContainerFrame));
 
         buttonPanel.add(addBtn);
         buttonPanel.add(listBtn);
+        buttonPanel.add(searchBtn);
         buttonPanel.add(openBtn);
         buttonPanel.add(extractBtn);
+        buttonPanel.add(extractAllBtn);
+        buttonPanel.add(deleteBtn);
+        buttonPanel.add(passwordBtn);
         buttonPanel.add(saveBtn);
 
         mainPanel.add(dropPanel, BorderLayout.CENTER);
@@ -266,22 +326,55 @@ public class BlackBox {
         }
     }
 
+    // Workers only write to the tracker; the timer samples it on the EDT at a fixed frame rate
     private static class LoadingDialogComponents {
         final JDialog dialog;
         final EncryptionVisualizer visualizer;
         final JProgressBar progressBar;
+        final JLabel statusLabel;
+        final ProgressTracker tracker = new ProgressTracker(0);
+        final Timer timer;
+        String visualizedItem = "";
 
-        LoadingDialogComponents(JDialog dialog, EncryptionVisualizer visualizer, JProgressBar progressBar) {
+        LoadingDialogComponents(JDialog dialog, EncryptionVisualizer visualizer, JProgressBar progressBar,
+                JLabel statusLabel) {
             this.dialog = dialog;
             this.visualizer = visualizer;
             this.progressBar = progressBar;
+            this.statusLabel = statusLabel;
+            this.timer = new Timer(FRAME_MILLIS, e -> refresh());
+        }
+
+        void refresh() {
+            ProgressTracker.Snapshot snapshot = tracker.snapshot();
+            progressBar.setValue(snapshot.getPercent());
+            if (snapshot.getBytesDone() > 0 && !tracker.isCancelled()) {
+                statusLabel.setText(snapshot.describe());
+            }
+            if (visualizer != null && !snapshot.getItem().isEmpty()) {
+                if (!snapshot.getItem().equals(visualizedItem)) {
+                    visualizedItem = snapshot.getItem();
+                    visualizer.startAnimation(visualizedItem);
+                }
+                visualizer.updateProgress(snapshot.getItemPercent());
+            }
+        }
+
+        void finish() {
+            timer.stop();
+            if (visualizer != null) {
+                visualizer.stopAnimation();
+            }
+            dialog.dispose();
         }
     }
 
-    private static LoadingDialogComponents createLoadingDialog(String message, boolean showAnimation) {
+    private static LoadingDialogComponents createLoadingDialog(String message, boolean showAnimation,
+            boolean cancellable) {
         JDialog dialog = new JDialog((Frame) null, "Processing", true);
         dialog.setLayout(new BorderLayout(10, 10));
         dialog.getContentPane().setBackground(Color.BLACK);
+        dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
         
         JPanel panel = new JPanel(new BorderLayout(10, 10));
         panel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
@@ -296,99 +389,97 @@ public class BlackBox {
         progressBar.setBackground(Color.BLACK);
         progressBar.setForeground(Color.GREEN);
 
+        JLabel statusLabel = new JLabel(" ");
+        statusLabel.setForeground(Color.LIGHT_GRAY);
+        statusLabel.setHorizontalAlignment(SwingConstants.CENTER);
+
         EncryptionVisualizer visualizer = null;
         if (showAnimation) {
             visualizer = new EncryptionVisualizer();
             panel.add(visualizer, BorderLayout.CENTER);
         }
+
+        JPanel progressPanel = new JPanel(new BorderLayout(5, 5));
+        progressPanel.setBackground(Color.BLACK);
+        progressPanel.add(progressBar, BorderLayout.NORTH);
+        progressPanel.add(statusLabel, BorderLayout.CENTER);
         
         panel.add(label, BorderLayout.NORTH);
-        panel.add(progressBar, BorderLayout.SOUTH);
+        panel.add(progressPanel, BorderLayout.SOUTH);
         
         dialog.add(panel);
+
+        LoadingDialogComponents components = new LoadingDialogComponents(dialog, visualizer, progressBar, statusLabel);
+        if (cancellable) {
+            // Cancelling is cooperative: the worker stops at its next progress report
+            JButton cancelButton = new JButton("Cancel");
+            cancelButton.addActionListener(e -> {
+                components.tracker.cancel();
+                cancelButton.setEnabled(false);
+                statusLabel.setText("Cancelling...");
+            });
+            progressPanel.add(cancelButton, BorderLayout.SOUTH);
+            dialog.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosing(WindowEvent e) {
+                    cancelButton.doClick();
+                }
+            });
+        }
         
         if (!showAnimation) {
             // Make the dialog smaller when no animation is shown
-            dialog.setSize(300, 120);
+            dialog.setSize(320, cancellable ? 180 : 150);
         } else {
             dialog.pack();
         }
         
         dialog.setLocationRelativeTo(null);
-        
-        return new LoadingDialogComponents(dialog, visualizer, progressBar);
+        components.timer.start();
+        return components;
     }
 
-    private static LoadingDialogComponents createLoadingDialog(String message) {
-        return createLoadingDialog(message, false);
+    // Failures arrive wrapped by SwingWorker.get(); a cancelled operation is not reported as an error
+    private static void reportFailure(Exception e) {
+        Throwable cause = e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof CancellationException) return;
+        JOptionPane.showMessageDialog(null,
+                "Operation failed: " + cause.getMessage(),
+                "Error",
+                JOptionPane.ERROR_MESSAGE
+        );
     }
 
     private static void handleDroppedFiles(File[] droppedFiles) {
-        LoadingDialogComponents dialogComponents = createLoadingDialog("Encrypting files...", true);
+        LoadingDialogComponents dialogComponents = createLoadingDialog("Encrypting files...", true, true);
+        ProgressTracker tracker = dialogComponents.tracker;
+        tracker.setTotal(0); // Grows as the walk finds files
         
-        new SwingWorker<Void, Integer>() {
-            private String currentFile = "";
-
+        new SwingWorker<Void, Void>() {
             @Override
             protected Void doInBackground() throws Exception {
-                for (int i = 0; i < droppedFiles.length; i++) {
-                    File file = droppedFiles[i];
-                    currentFile = file.getName();
-                    SwingUtilities.invokeLater(() -> {
-                        dialogComponents.visualizer.startAnimation(currentFile);
-                    });
-                    
-                    try {
-                        Path path = file.toPath();
-                        int finalI = i;
-                        files.put(
-                                path.getFileName().toString(),
-                                new StoredFile(
-                                        path.getFileName().toString(),
-                                        Files.probeContentType(path) != null ?
-                                                Files.probeContentType(path) : "unknown",
-                                        path,
-                                        p -> {
-                                            int totalProgress = (finalI * 100 + p) / droppedFiles.length;
-                                            publish(totalProgress);
-                                            SwingUtilities.invokeLater(() -> dialogComponents.visualizer.updateProgress(p));
-                                        }
-                                )
-                        );
-                        ContainerManager.saveContainer(containerPath, password, files);
-                    } catch (Exception e) {
-                        throw new RuntimeException("Error adding file: " + e.getMessage());
-                    }
+                // All files go into the session first and are written with a single commit
+                try {
+                    List<Path> roots = Arrays.stream(droppedFiles).map(File::toPath).toList();
+                    new DirectoryImporter(session.getChunkStore(), tracker).importAll(roots, session::put);
+                } catch (CancellationException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException("Error adding files: " + e.getMessage(), e);
+                } finally {
+                    // Keep whatever was added before a failure or a cancel
+                    commitSession();
                 }
                 return null;
             }
 
-            @Override
-            protected void process(List<Integer> chunks) {
-                int latestProgress = chunks.get(chunks.size() - 1);
-                dialogComponents.progressBar.setValue(latestProgress);
-            }
-
             @Override
             protected void done() {
-                if (dialogComponents.visualizer != null) {
-                    dialogComponents.visualizer.stopAnimation();
-                }
-                dialogComponents.dialog.dispose();
+                dialogComponents.finish();
                 try {
                     get();
                 } catch (Exception e) {
-                    String errorMessage = "Operation failed: ";
-                    if (e.getCause() != null) {
-                        errorMessage += e.getCause().getMessage();
-                    } else {
-                        errorMessage += e.getMessage();
-                    }
-                    JOptionPane.showMessageDialog(null,
-                            errorMessage,
-                            "Error",
-                            JOptionPane.ERROR_MESSAGE
-                    );
+                    reportFailure(e);
                 }
             }
         }.execute();
@@ -398,176 +489,197 @@ public class BlackBox {
     private static void addFiles() {
         JFileChooser chooser = new JFileChooser();
         chooser.setMultiSelectionEnabled(true);
-        chooser.setDialogTitle("Select files to encrypt");
+        chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        chooser.setDialogTitle("Select files or folders to encrypt");
         if (chooser.showOpenDialog(null) != JFileChooser.APPROVE_OPTION) return;
 
-        File[] selectedFiles = chooser.getSelectedFiles();
-        LoadingDialogComponents dialogComponents = createLoadingDialog("Encrypting files...", true);
-        
-        new SwingWorker<Void, Integer>() {
-            private String currentFile = "";
-
-            @Override
-            protected Void doInBackground() throws Exception {
-                for (int i = 0; i < selectedFiles.length; i++) {
-                    File file = selectedFiles[i];
-                    currentFile = file.getName();
-                    SwingUtilities.invokeLater(() -> dialogComponents.visualizer.startAnimation(currentFile));
-                    
-                    try {
-                        Path path = file.toPath();
-                        int finalI = i;
-                        files.put(
-                                path.getFileName().toString(),
-                                new StoredFile(
-                                        path.getFileName().toString(),
-                                        Files.probeContentType(path) != null ?
-                                                Files.probeContentType(path) : "unknown",
-                                        path,
-                                        p -> {
-                                            int totalProgress = (finalI * 100 + p) / selectedFiles.length;
-                                            publish(totalProgress);
-                                            SwingUtilities.invokeLater(() -> dialogComponents.visualizer.updateProgress(p));
-                                        }
-                                )
-                        );
-                        ContainerManager.saveContainer(containerPath, password, files);
-                    } catch (Exception e) {
-                        throw new RuntimeException("Error adding file: " + e.getMessage());
-                    }
-                }
-                return null;
-            }
-
-            @Override
-            protected void process(List<Integer> chunks) {
-                int latestProgress = chunks.get(chunks.size() - 1);
-                dialogComponents.progressBar.setValue(latestProgress);
-            }
+        handleDroppedFiles(chooser.getSelectedFiles());
+    }
 
-            @Override
-            protected void done() {
-                if (dialogComponents.visualizer != null) {
-                    dialogComponents.visualizer.stopAnimation();
-                }
-                dialogComponents.dialog.dispose();
-                try {
-                    get();
-                } catch (Exception e) {
-                    String errorMessage = "Operation failed: ";
-                    if (e.getCause() != null) {
-                        errorMessage += e.getCause().getMessage();
-                    } else {
-                        errorMessage += e.getMessage();
-                    }
-                    JOptionPane.showMessageDialog(null,
-                            errorMessage,
-                            "Error",
-                            JOptionPane.ERROR_MESSAGE
-                    );
-                }
-            }
-        }.execute();
-        dialogComponents.dialog.setVisible(true);
+    private static void commitSession() {
+        try {
+            session.commit();
+        } catch (Exception e) {
+            throw new RuntimeException("Error saving container: " + e.getMessage(), e);
+        }
     }
 
     private static void listFiles() {
         JFrame listFrame = new JFrame("Stored Files");
-        listFrame.setSize(400, 300);
+        listFrame.setSize(500, 400);
 
-        DefaultListModel<String> listModel = new DefaultListModel<>();
-        for (StoredFile file : files.values()) {
-            listModel.addElement(file.getName() + " (" + file.getType() + ")");
+        // Rows are only built as they scroll into view, so this opens as fast for 100,000 entries as for ten
+        listFrame.add(new EntryBrowser(session.getIndex()));
+        try {
+            listFrame.add(new JLabel(String.format(" Deduplication ratio: %.2fx", session.getDedupRatio())),
+                    BorderLayout.SOUTH);
+        } catch (IOException e) {
+            // The ratio is informational only
         }
-
-        JList<String> fileList = new JList<>(listModel);
-        
-        JScrollPane scrollPane = new JScrollPane(fileList);
-        
-        listFrame.add(scrollPane);
         listFrame.setLocationRelativeTo(null);
         listFrame.setVisible(true);
     }
 
-    private static void extractFile() {
-        List<StoredFile> fileList = new ArrayList<>(files.values());
-        if (fileList.isEmpty()) {
-            JOptionPane.showMessageDialog(null, "No files in container");
+    // Entries mentioning every word asked for, found in the text index without decrypting any of them
+    private static void searchText() {
+        String query = JOptionPane.showInputDialog(null, "Words to search for:", "Search Text",
+                JOptionPane.PLAIN_MESSAGE);
+        if (query == null || query.isBlank()) return;
+        List<StoredFile> hits = new ArrayList<>();
+        for (String name : session.search(query)) {
+            hits.add(session.get(name));
+        }
+        if (hits.isEmpty()) {
+            JOptionPane.showMessageDialog(null, "No text entries mention \"" + query.trim() + "\"");
             return;
         }
+        JFrame resultFrame = new JFrame("Entries mentioning \"" + query.trim() + "\"");
+        resultFrame.setSize(500, 400);
+        resultFrame.add(new EntryBrowser(new EntryIndex(hits)));
+        resultFrame.setLocationRelativeTo(null);
+        resultFrame.setVisible(true);
+    }
+
+    // Lets the user pick one entry, narrowing the list by name or type; null if cancelled
+    private static StoredFile chooseEntry(String title) {
+        EntryIndex index = session.getIndex();
+        if (index.size() == 0) {
+            JOptionPane.showMessageDialog(null, "No files in container");
+            return null;
+        }
+        EntryBrowser browser = new EntryBrowser(index);
+        browser.setPreferredSize(new Dimension(500, 350));
+        if (JOptionPane.showConfirmDialog(null, browser, title, JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) {
+            return null;
+        }
+        return browser.getSelected();
+    }
 
-        String[] options = fileList.stream()
-                .map(f -> f.getName() + " (" + f.getType() + ")")
-                .toArray(String[]::new);
+    // Filter field, type choice and a list that only materializes the rows on screen
+    private static class EntryBrowser extends JPanel {
+        private static final long serialVersionUID = 1L;
+        private static final String ALL_TYPES = "All types";
+        private final JTextField filter = new JTextField();
+        private final JComboBox<String> type = new JComboBox<>();
+        private final JLabel count = new JLabel();
+        private final EntryListModel model;
+        private final JList<String> list;
+        private final int total;
+
+        EntryBrowser(EntryIndex index) {
+            super(new BorderLayout(4, 4));
+            model = new EntryListModel(index);
+            total = index.size();
+            list = new JList<>(model);
+            list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+            // Without a fixed cell size the list would measure every row to lay itself out
+            list.setPrototypeCellValue("M".repeat(48));
+
+            type.addItem(ALL_TYPES);
+            for (String name : index.getTypes()) {
+                type.addItem(name);
+            }
+            filter.setToolTipText("Name prefix such as a folder, or a glob: * and ? within a folder, ** across folders");
+            filter.getDocument().addDocumentListener(new DocumentListener() {
+                @Override
+                public void insertUpdate(DocumentEvent e) {
+                    refilter();
+                }
 
-        String selection = (String) JOptionPane.showInputDialog(
-                null, "Select file to extract:", "Extract File",
-                JOptionPane.PLAIN_MESSAGE, null, options, options[0]
-        );
+                @Override
+                public void removeUpdate(DocumentEvent e) {
+                    refilter();
+                }
+
+                @Override
+                public void changedUpdate(DocumentEvent e) {
+                    refilter();
+                }
+            });
+            type.addActionListener(e -> refilter());
+
+            JPanel controls = new JPanel(new BorderLayout(4, 4));
+            controls.add(new JLabel("Filter:"), BorderLayout.WEST);
+            controls.add(filter, BorderLayout.CENTER);
+            controls.add(type, BorderLayout.EAST);
+            add(controls, BorderLayout.NORTH);
+            add(new JScrollPane(list), BorderLayout.CENTER);
+            add(count, BorderLayout.SOUTH);
+            refilter();
+        }
+
+        private void refilter() {
+            String selectedType = (String) type.getSelectedItem();
+            model.setFilter(filter.getText().trim(), ALL_TYPES.equals(selectedType) ? null : selectedType);
+            if (model.getSize() > 0) list.setSelectedIndex(0);
+            count.setText(" " + model.getSize() + " of " + total + " entries");
+        }
+
+        StoredFile getSelected() {
+            int selected = list.getSelectedIndex();
+            return selected >= 0 ? model.getFile(selected) : null;
+        }
+    }
+
+    private static void deleteFile() {
+        StoredFile selected = chooseEntry("Delete File");
+        if (selected == null) return;
+        String name = selected.getName();
+        if (JOptionPane.showConfirmDialog(null, "Delete " + name + " from the container?", "Delete File",
+                JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        // Committed at once, as imports are; the space is reclaimed by a background compaction
+        showLoading(tracker -> {
+            try {
+                session.remove(name);
+                session.commit();
+            } catch (Exception ex) {
+                throw new RuntimeException("Could not delete file: " + ex.getMessage(), ex);
+            }
+        }, "Deleting file...", false);
+    }
 
-        if (selection == null) return;
-        int index = Arrays.asList(options).indexOf(selection);
+    private static void extractFile() {
+        StoredFile storedFile = chooseEntry("Extract File");
+        if (storedFile == null) return;
 
         JFileChooser chooser = new JFileChooser();
         chooser.setDialogTitle("Select save location");
-        chooser.setSelectedFile(new File(fileList.get(index).getName()));
+        chooser.setSelectedFile(new File(storedFile.getName()));
         if (chooser.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) {
-            LoadingDialogComponents dialogComponents = createLoadingDialog("Decrypting file...", true);
+            LoadingDialogComponents dialogComponents = createLoadingDialog("Decrypting file...", true, true);
+            Path target = chooser.getSelectedFile().toPath();
+            ProgressTracker tracker = dialogComponents.tracker;
+            tracker.setTotal(storedFile.getOriginalSize());
             
-            new SwingWorker<Void, Integer>() {
+            new SwingWorker<Void, Void>() {
                 @Override
                 protected Void doInBackground() throws Exception {
-                    try (InputStream in = fileList.get(index).getContentStream();
-                         OutputStream out = Files.newOutputStream(chooser.getSelectedFile().toPath())) {
-
-                        String fileName = fileList.get(index).getName();
-                        SwingUtilities.invokeLater(() -> dialogComponents.visualizer.startAnimation(fileName));
-
-                        long fileSize = fileList.get(index).getTempFileSize();
-                        byte[] buffer = new byte[8192];
-                        int bytesRead;
-                        long totalRead = 0;
-
-                        while ((bytesRead = in.read(buffer)) != -1) {
-                            out.write(buffer, 0, bytesRead);
-                            totalRead += bytesRead;
-                            int progressPercent = (int) ((totalRead * 100) / fileSize);
-                            final int progress = progressPercent;
-                            publish(progress);
-                            SwingUtilities.invokeLater(() -> dialogComponents.visualizer.updateProgress(progress));
-                        }
+                    tracker.beginItem(storedFile.getName(), storedFile.getOriginalSize());
+                    boolean complete = false;
+                    try (OutputStream out = Files.newOutputStream(target)) {
+                        storedFile.copyContentTo(out, tracker.itemProgress());
+                        complete = true;
                     } catch (IOException ex) {
                         throw new RuntimeException("Extraction failed: " + ex.getMessage());
+                    } finally {
+                        if (!complete) {
+                            Files.deleteIfExists(target); // No half-written file is left behind
+                        }
                     }
                     return null;
                 }
 
-                @Override
-                protected void process(List<Integer> chunks) {
-                    int latestProgress = chunks.get(chunks.size() - 1);
-                    dialogComponents.progressBar.setValue(latestProgress);
-                }
-
                 @Override
                 protected void done() {
-                    if (dialogComponents.visualizer != null) {
-                        dialogComponents.visualizer.stopAnimation();
-                    }
-                    dialogComponents.dialog.dispose();
+                    dialogComponents.finish();
                     try {
                         get();
                     } catch (Exception e) {
-                        String errorMessage = "Operation failed: ";
-                        if (e.getCause() != null) {
-                            errorMessage += e.getCause().getMessage();
-                        } else {
-                            errorMessage += e.getMessage();
-                        }
-                        JOptionPane.showMessageDialog(null,
-                                errorMessage,
-                                "Error",
-                                JOptionPane.ERROR_MESSAGE
-                        );
+                        reportFailure(e);
                     }
                 }
             }.execute();
@@ -575,48 +687,85 @@ public class BlackBox {
         }
     }
 
-    private static void openFile() {
-        List<StoredFile> fileList = new ArrayList<>(files.values());
+    private static void extractAll() {
+        List<StoredFile> fileList = session.getFiles();
         if (fileList.isEmpty()) {
             JOptionPane.showMessageDialog(null, "No files in container");
             return;
         }
 
-        String[] options = fileList.stream()
-                .map(f -> f.getName() + " (" + f.getType() + ")")
-                .toArray(String[]::new);
-
-        String selection = (String) JOptionPane.showInputDialog(
-                null, "Select file to open:", "Open File",
-                JOptionPane.PLAIN_MESSAGE, null, options, options[0]
+        String pattern = (String) JOptionPane.showInputDialog(
+                null, "Entries to extract (* matches within a folder, ** across folders):", "Extract All",
+                JOptionPane.PLAIN_MESSAGE, null, null, "**"
         );
+        if (pattern == null) return;
+
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Select target folder");
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (chooser.showSaveDialog(null) != JFileChooser.APPROVE_OPTION) return;
+
+        // Several entries are written at once, so there is no single file to animate
+        LoadingDialogComponents dialogComponents = createLoadingDialog("Decrypting files...", false, true);
+        Path directory = chooser.getSelectedFile().toPath();
+        ProgressTracker tracker = dialogComponents.tracker;
+
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                try {
+                    new Extractor(tracker).extractAll(fileList, Extractor.matcher(pattern.isBlank() ? "**" : pattern),
+                            directory);
+                } catch (IOException ex) {
+                    throw new RuntimeException("Extraction failed: " + ex.getMessage());
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                dialogComponents.finish();
+                try {
+                    get();
+                } catch (Exception e) {
+                    reportFailure(e);
+                }
+            }
+        }.execute();
+        dialogComponents.dialog.setVisible(true);
+    }
 
-        if (selection == null) return;
-        int index = Arrays.asList(options).indexOf(selection);
+    private static void openFile() {
+        StoredFile selected = chooseEntry("Open File");
+        if (selected == null) return;
 
-        showLoading(progress -> {
+        // Media, images, text and PDFs open in the browser at once, decrypted only as the viewer reads
+        if (isStreamable(selected.getType()) && Desktop.getDesktop().isSupported(Desktop.Action.BROWSE)) {
+            try {
+                if (previewServer == null) previewServer = new PreviewServer();
+                Desktop.getDesktop().browse(previewServer.publish(selected));
+                return;
+            } catch (IOException ex) {
+                System.err.println("Could not stream preview, copying instead: " + ex.getMessage());
+            }
+        }
+
+        showLoading(tracker -> {
             try {
                 // Create a temporary file with the original file extension
-                String fileName = fileList.get(index).getName();
+                String fileName = selected.getName();
                 String extension = fileName.contains(".") ? fileName.substring(fileName.lastIndexOf(".")) : "";
                 Path tempFile = Files.createTempFile("blackbox_preview_", extension);
                 tempFile.toFile().deleteOnExit(); // Ensure cleanup on JVM exit
 
                 // Extract the file content to the temp file
-                try (InputStream in = fileList.get(index).getContentStream();
-                     OutputStream out = Files.newOutputStream(tempFile)) {
-
-                    long fileSize = fileList.get(index).getTempFileSize();
-                    byte[] buffer = new byte[8192];
-                    int bytesRead;
-                    long totalRead = 0;
-
-                    while ((bytesRead = in.read(buffer)) != -1) {
-                        out.write(buffer, 0, bytesRead);
-                        totalRead += bytesRead;
-                        int progressPercent = (int) ((totalRead * 100) / fileSize);
-                        progress.accept(progressPercent);
-                    }
+                tracker.setTotal(selected.getOriginalSize());
+                tracker.beginItem(fileName, selected.getOriginalSize());
+                try (OutputStream out = Files.newOutputStream(tempFile)) {
+                    selected.copyContentTo(out, tracker.itemProgress());
+                } catch (CancellationException ex) {
+                    Files.deleteIfExists(tempFile);
+                    throw ex;
                 }
 
                 // Open the file with the system's default application
@@ -633,68 +782,84 @@ public class BlackBox {
             } catch (IOException ex) {
                 throw new RuntimeException("Failed to open file: " + ex.getMessage());
             }
-        }, "Opening file...");
+        }, "Opening file...", true);
+    }
+
+    private static boolean isStreamable(String type) {
+        return type.startsWith("video/") || type.startsWith("audio/") || type.startsWith("image/")
+                || type.startsWith("text/") || type.equals("application/pdf");
+    }
+
+    private static void changePassword() {
+        String newPassword = getPasswordFromDialog("Enter new password:");
+        if (newPassword == null) return;
+        if (!newPassword.equals(getPasswordFromDialog("Confirm new password:"))) {
+            JOptionPane.showMessageDialog(null, "Passwords do not match.", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        showLoading(tracker -> {
+            try {
+                // Only the wrapped key in the header is rewritten
+                session.changePassword(newPassword);
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null, "Password changed."));
+            } catch (Exception ex) {
+                throw new RuntimeException("Password change failed: " + ex.getMessage(), ex);
+            }
+        }, "Changing password...", false);
+    }
+
+    // Changes not written yet are saved or discarded as the user chooses; cancelling keeps the window open
+    private static void closeContainerWindow(JFrame containerFrame) {
+        if (session != null && session.isDirty()) {
+            int choice = JOptionPane.showConfirmDialog(containerFrame, "Save changes to the container?",
+                    "Close Container", JOptionPane.YES_NO_CANCEL_OPTION);
+            if (choice == JOptionPane.YES_OPTION) {
+                saveAndClose(containerFrame);
+                return;
+            }
+            if (choice != JOptionPane.NO_OPTION) return;
+        }
+        replaceSession(null);
+        containerFrame.dispose();
     }
 
     private static void saveAndClose(JFrame containerFrame) {
-        showLoading(progress -> {
+        showLoading(tracker -> {
             try {
-                // Detailed null checks
-                if (containerPath == null) {
-                    throw new IllegalStateException("Container path is null. Create or open a container first.");
-                }
-                if (password == null) {
-                    throw new IllegalStateException("Password is null. Authentication failed.");
+                if (session == null) {
+                    throw new IllegalStateException("No container is open. Create or open a container first.");
                 }
 
-                ContainerManager.saveContainer(containerPath, password, files);
+                // Skips the write entirely when nothing changed since the last commit
+                session.commit();
                 SwingUtilities.invokeLater(() -> {
-                    files.clear();
-                    containerPath = null;
-                    password = null;
+                    replaceSession(null);
                     containerFrame.dispose(); // Close the window
                 });
             } catch (Exception ex) {
                 throw new RuntimeException("Save failed: " + ex.getMessage(), ex);
             }
-        }, "Saving container...");
+        }, "Saving container...", false);
     }
 
-    private static void showLoading(ProgressTask task, String message) {
-        LoadingDialogComponents dialogComponents = createLoadingDialog(message);
+    private static void showLoading(ProgressTask task, String message, boolean cancellable) {
+        LoadingDialogComponents dialogComponents = createLoadingDialog(message, false, cancellable);
 
-        new SwingWorker<Void, Integer>() {
+        new SwingWorker<Void, Void>() {
             @Override
             protected Void doInBackground() throws Exception {
-                task.run(progress -> {
-                    publish(progress);
-                });
+                task.run(dialogComponents.tracker);
                 return null;
             }
 
-            @Override
-            protected void process(List<Integer> chunks) {
-                int latestProgress = chunks.get(chunks.size() - 1);
-                dialogComponents.progressBar.setValue(latestProgress);
-            }
-
             @Override
             protected void done() {
-                dialogComponents.dialog.dispose();
+                dialogComponents.finish();
                 try {
                     get();
                 } catch (Exception e) {
-                    String errorMessage = "Operation failed: ";
-                    if (e.getCause() != null) {
-                        errorMessage += e.getCause().getMessage();
-                    } else {
-                        errorMessage += e.getMessage();
-                    }
-                    JOptionPane.showMessageDialog(null,
-                            errorMessage,
-                            "Error",
-                            JOptionPane.ERROR_MESSAGE
-                    );
+                    reportFailure(e);
                 }
             }
         }.execute();
@@ -702,6 +867,6 @@ public class BlackBox {
     }
 
     interface ProgressTask {
-        void run(Consumer<Integer> progressCallback) throws Exception;
+        void run(ProgressTracker tracker) throws Exception;
     }
-}
\ No newline at end of file
+}
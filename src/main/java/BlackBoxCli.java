@@ -0,0 +1,376 @@
+import javax.crypto.AEADBadTagException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+
+// Headless entry point for scripts and servers:
+//   blackbox create <container>
+//   blackbox add <container> <file|->... [--name NAME] [--type TYPE]
+//   blackbox list <container>
+//   blackbox search <container> <word>...
+//   blackbox extract <container> <entry> [output|-]
+//   blackbox extract-all <container> <directory> [pattern]
+//   blackbox remove <container> <entry>...
+//   blackbox compact <container>
+//   blackbox verify <container> [pattern]
+// The password comes from BLACKBOX_PASSWORD, --password-file, or the console.
+// Content is streamed: "-" reads an entry from stdin, and extract writes to stdout by default.
+// --metrics prints the phase timings and byte counts collected by Metrics to stderr when done.
+// --progress prints the progress of extract-all and verify to stderr every second, and their throughput at the end.
+// verify prints the names of damaged entries and exits with EXIT_AUTH if there are any.
+public class BlackBoxCli {
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_ERROR = 1;
+    public static final int EXIT_USAGE = 2;
+    public static final int EXIT_AUTH = 3;      // Wrong password or tampered container
+    public static final int EXIT_NOT_FOUND = 4; // Missing container or entry
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: blackbox <command> [options]",
+            "  create <container>",
+            "  add <container> <file|->... [--name NAME] [--type TYPE]",
+            "  list <container>",
+            "  search <container> <word>...   (entries whose text holds every word, from the text index)",
+            "  extract <container> <entry> [output|-]",
+            "  extract-all <container> <directory> [pattern]   (pattern: glob over entry names, e.g. 'docs/**.pdf')",
+            "  remove <container> <entry>...",
+            "  compact <container>   (reclaim the space of removed and replaced entries)",
+            "  verify <container> [pattern]   (check entries against their recorded hashes)",
+            "Options: --password-file FILE (otherwise BLACKBOX_PASSWORD or a console prompt)",
+            "         --metrics (print timings and byte counts to stderr)",
+            "         --progress (print extract-all and verify progress and throughput to stderr)");
+
+    private final InputStream stdin;
+    private final OutputStream stdout;
+    private final PrintStream stderr;
+    private final Map<String, String> env;
+    private String passwordFile;
+    private String name;
+    private String type;
+    private boolean metrics;
+    private boolean progress;
+
+    BlackBoxCli(InputStream stdin, OutputStream stdout, PrintStream stderr, Map<String, String> env) {
+        this.stdin = stdin;
+        this.stdout = stdout;
+        this.stderr = stderr;
+        this.env = env;
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    public static int run(String[] args) {
+        BlackBoxCli cli = new BlackBoxCli(new FileInputStream(FileDescriptor.in),
+                new FileOutputStream(FileDescriptor.out), System.err, System.getenv());
+        return cli.execute(args);
+    }
+
+    // The container lock is a try resource only to be held for the command and released after it
+    @SuppressWarnings("try")
+    int execute(String[] args) {
+        List<String> operands = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--password-file" -> passwordFile = option(args, ++i);
+                    case "--name" -> name = option(args, ++i);
+                    case "--type" -> type = option(args, ++i);
+                    case "--metrics" -> metrics = true;
+                    case "--progress" -> progress = true;
+                    case "-h", "--help" -> {
+                        stderr.println(USAGE);
+                        return EXIT_OK;
+                    }
+                    default -> operands.add(args[i]);
+                }
+            }
+            if (operands.size() < 2) throw new IllegalArgumentException("Missing command or container");
+
+            String command = operands.get(0);
+            String container = operands.get(1);
+            List<String> rest = operands.subList(2, operands.size());
+            try (ContainerLock lock = lock(command, container)) {
+                switch (command) {
+                    case "create" -> create(container, rest);
+                    case "add" -> add(container, rest);
+                    case "list" -> list(container, rest);
+                    case "search" -> search(container, rest);
+                    case "extract" -> extract(container, rest);
+                    case "extract-all" -> extractAll(container, rest);
+                    case "remove" -> remove(container, rest);
+                    case "compact" -> compact(container, rest);
+                    case "verify" -> {
+                        if (!verify(container, rest)) {
+                            stdout.flush();
+                            return EXIT_AUTH;
+                        }
+                    }
+                    default -> throw new IllegalArgumentException("Unknown command: " + command);
+                }
+            }
+            stdout.flush();
+            return EXIT_OK;
+        } catch (IllegalArgumentException e) {
+            stderr.println("blackbox: " + e.getMessage());
+            stderr.println(USAGE);
+            return EXIT_USAGE;
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            stderr.println("blackbox: not found: " + e.getMessage());
+            return EXIT_NOT_FOUND;
+        } catch (Exception e) {
+            if (isAuthenticationFailure(e)) {
+                stderr.println("blackbox: incorrect password or corrupted container");
+                return EXIT_AUTH;
+            }
+            stderr.println("blackbox: " + e.getMessage());
+            return EXIT_ERROR;
+        } finally {
+            if (metrics) Metrics.dump(stderr);
+        }
+    }
+
+    // Commands that read hold the container open against replacement; commands that write are its one
+    // writer. Missing containers are left for the command to report.
+    private static ContainerLock lock(String command, String container) throws IOException {
+        Path path = Paths.get(container);
+        return switch (command) {
+            case "list", "search", "extract", "extract-all", "verify" -> Files.exists(path) ? ContainerLock.reader(path) : null;
+            case "add", "remove", "compact" -> Files.exists(path) ? ContainerLock.writer(path) : null;
+            case "create" -> ContainerLock.writer(path);
+            default -> null;
+        };
+    }
+
+    private static String option(String[] args, int index) {
+        if (index >= args.length) throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        return args[index];
+    }
+
+    private void create(String container, List<String> rest) throws Exception {
+        expect(rest, 0, 0);
+        if (Files.exists(Paths.get(container))) throw new IOException("Container already exists: " + container);
+        ContainerManager.saveContainer(container, ContainerKey.generate(readPassword()), new HashMap<>());
+    }
+
+    private void add(String container, List<String> rest) throws Exception {
+        if (rest.isEmpty()) throw new IllegalArgumentException("Nothing to add");
+        if (name != null && rest.size() != 1) throw new IllegalArgumentException("--name needs exactly one input");
+        for (String source : rest) {
+            if (source.equals("-") && name == null) throw new IllegalArgumentException("Reading stdin needs --name");
+            if (!source.equals("-") && !Files.isRegularFile(Paths.get(source))) throw new NoSuchFileException(source);
+        }
+
+        ContainerKey key = unlock(container);
+        if (!ContainerManager.isCurrentFormat(container, key)) {
+            key = upgrade(container, key);
+        }
+        // All inputs are appended first and published with a single table of contents
+        try (ContainerManager.Appender appender = ContainerManager.openAppender(container, key)) {
+            for (String source : rest) {
+                if (source.equals("-")) {
+                    appender.add(name, type != null ? type : "unknown", stdin);
+                    continue;
+                }
+                Path path = Paths.get(source);
+                String entryType = type != null ? type : Optional.ofNullable(Files.probeContentType(path)).orElse("unknown");
+                try (InputStream in = Files.newInputStream(path)) {
+                    appender.add(name != null ? name : path.getFileName().toString(), entryType, in);
+                }
+            }
+            appender.commit();
+        }
+    }
+
+    // Only a new table of contents is appended; the entries' space is reclaimed by compact
+    private void remove(String container, List<String> rest) throws Exception {
+        if (rest.isEmpty()) throw new IllegalArgumentException("Nothing to remove");
+        ContainerKey key = unlock(container);
+        if (!ContainerManager.isCurrentFormat(container, key)) {
+            key = upgrade(container, key);
+        }
+        try (ContainerManager.Appender appender = ContainerManager.openAppender(container, key)) {
+            for (String entry : rest) {
+                if (!appender.remove(entry)) throw new FileNotFoundException("No such entry: " + entry);
+            }
+            appender.commit();
+        }
+    }
+
+    private void compact(String container, List<String> rest) throws Exception {
+        expect(rest, 0, 0);
+        ContainerKey key = unlock(container);
+        long before = Files.size(Paths.get(container));
+        if (ContainerManager.compact(container, key, new ProgressTracker(0))) {
+            long after = Files.size(Paths.get(container));
+            stderr.println("Compacted " + ProgressTracker.formatBytes(before) + " to " + ProgressTracker.formatBytes(after));
+        }
+    }
+
+    // Older containers are rewritten once in the current format so entries can be appended
+    private static ContainerKey upgrade(String container, ContainerKey key) throws Exception {
+        Map<String, StoredFile> files = ContainerManager.loadContainer(container, key);
+        try {
+            ContainerKey upgraded = key.upgraded();
+            ContainerManager.saveContainer(container, upgraded, files);
+            return upgraded;
+        } finally {
+            for (StoredFile file : files.values()) {
+                file.close();
+            }
+        }
+    }
+
+    private void list(String container, List<String> rest) throws Exception {
+        expect(rest, 0, 0);
+        PrintStream out = new PrintStream(stdout, false, StandardCharsets.UTF_8);
+        for (ContainerEntry entry : ContainerManager.listEntries(container, unlock(container))) {
+            out.println(entry.getName() + "\t" + entry.getType() + "\t" + entry.getOriginalSize()
+                    + "\t" + entry.getStoredSize());
+        }
+        out.flush();
+    }
+
+    // Only the text index is decrypted, never the entries themselves
+    private void search(String container, List<String> rest) throws Exception {
+        if (rest.isEmpty()) throw new IllegalArgumentException("Nothing to search for");
+        PrintStream out = new PrintStream(stdout, false, StandardCharsets.UTF_8);
+        for (String name : ContainerManager.search(container, unlock(container), String.join(" ", rest))) {
+            out.println(name);
+        }
+        out.flush();
+    }
+
+    private void extract(String container, List<String> rest) throws Exception {
+        expect(rest, 1, 2);
+        String output = rest.size() > 1 ? rest.get(1) : "-";
+        try (InputStream in = ContainerManager.openEntry(container, unlock(container), rest.get(0))) {
+            if (output.equals("-")) {
+                copy(in, stdout);
+            } else {
+                try (OutputStream out = Files.newOutputStream(Paths.get(output))) {
+                    copy(in, out);
+                }
+            }
+        }
+    }
+
+    private void extractAll(String container, List<String> rest) throws Exception {
+        expect(rest, 1, 2);
+        Path directory = Paths.get(rest.get(0));
+        Predicate<String> filter = rest.size() > 1 ? Extractor.matcher(rest.get(1)) : entry -> true;
+
+        Map<String, StoredFile> files = ContainerManager.loadContainer(container, unlock(container));
+        ProgressTracker tracker = new ProgressTracker(0);
+        ScheduledExecutorService reporter = startReporter(tracker);
+        try {
+            long start = System.nanoTime();
+            long count = new Extractor(tracker).extractAll(files.values(), filter, directory);
+            report(reporter, tracker, start, "Extracted " + count + " entries");
+        } finally {
+            if (reporter != null) reporter.shutdownNow();
+            for (StoredFile file : files.values()) {
+                file.close();
+            }
+        }
+    }
+
+    // Returns whether every selected entry is intact; damaged ones are listed on stdout
+    private boolean verify(String container, List<String> rest) throws Exception {
+        expect(rest, 0, 1);
+        Predicate<String> filter = rest.size() > 0 ? Extractor.matcher(rest.get(0)) : entry -> true;
+        ContainerKey key = unlock(container);
+        ProgressTracker tracker = new ProgressTracker(0);
+        ScheduledExecutorService reporter = startReporter(tracker);
+        try {
+            long start = System.nanoTime();
+            List<String> damaged = new Verifier(tracker).verify(container, key, filter);
+            report(reporter, tracker, start, "Verified");
+            PrintStream out = new PrintStream(stdout, false, StandardCharsets.UTF_8);
+            for (String entry : damaged) {
+                out.println(entry);
+            }
+            out.flush();
+            if (!damaged.isEmpty()) stderr.println("blackbox: " + damaged.size() + " damaged entries");
+            return damaged.isEmpty();
+        } finally {
+            if (reporter != null) reporter.shutdownNow();
+        }
+    }
+
+    // With --progress, prints the tracker to stderr every second
+    private ScheduledExecutorService startReporter(ProgressTracker tracker) {
+        if (!progress) return null;
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "blackbox-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> stderr.println(tracker.snapshot().describe()), 1, 1, TimeUnit.SECONDS);
+        return reporter;
+    }
+
+    private void report(ScheduledExecutorService reporter, ProgressTracker tracker, long start, String done) {
+        if (reporter == null) return;
+        reporter.shutdownNow();
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        long bytes = tracker.snapshot().getBytesDone();
+        stderr.println(String.format(Locale.ROOT, "%s, %s in %.1f s (%s/s)", done,
+                ProgressTracker.formatBytes(bytes), seconds, ProgressTracker.formatBytes((long) (bytes / seconds))));
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = BufferPool.acquireArray(BufferPool.IO_BUFFER_SIZE);
+        try (Phase phase = Phase.start(Phase.EXTRACT)) {
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                total += read;
+            }
+            out.flush();
+            phase.bytesOut(total);
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    private static void expect(List<String> rest, int min, int max) {
+        if (rest.size() < min || rest.size() > max) throw new IllegalArgumentException("Wrong number of arguments");
+    }
+
+    private ContainerKey unlock(String container) throws Exception {
+        if (!Files.exists(Paths.get(container))) throw new NoSuchFileException(container);
+        return ContainerManager.unlock(container, readPassword());
+    }
+
+    private String readPassword() throws IOException {
+        if (passwordFile != null) {
+            String password = Files.readString(Paths.get(passwordFile), StandardCharsets.UTF_8).strip();
+            if (password.isEmpty()) throw new IllegalArgumentException("Password file is empty");
+            return password;
+        }
+        String password = env.get("BLACKBOX_PASSWORD");
+        if (password != null && !password.isEmpty()) return password;
+
+        Console console = System.console();
+        if (console == null) {
+            throw new IllegalArgumentException("No password: set BLACKBOX_PASSWORD or use --password-file");
+        }
+        char[] entered = console.readPassword("Password: ");
+        if (entered == null || entered.length == 0) throw new IllegalArgumentException("No password entered");
+        return new String(entered);
+    }
+
+    // Anywhere along the cause chain, as entry reads wrap what they fail with
+    private static boolean isAuthenticationFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof AuthenticationException || cause instanceof AEADBadTagException) return true;
+        }
+        return false;
+    }
+}
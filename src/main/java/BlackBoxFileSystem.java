@@ -0,0 +1,254 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+// A container mounted read-only, opened through BlackBoxFileSystemProvider. The table of contents is
+// read once when mounting; entry names become paths under "/" and every name prefix a directory.
+// Content is decrypted only as it is read, and seeking in a channel decrypts only the compressed
+// block or chunks holding the new position. The container is held as a reader while mounted, so it is
+// appended to but never replaced under the mount.
+public class BlackBoxFileSystem extends FileSystem {
+    private final BlackBoxFileSystemProvider provider;
+    private final Path container;
+    private final ChunkStore chunkStore = new ChunkStore();
+    private final ContainerLock lock;
+    private final Map<String, StoredFile> files = new HashMap<>();            // By absolute path
+    private final Map<String, SortedSet<String>> directories = new HashMap<>(); // Absolute path -> child names
+    private final FileTime mounted;  // Time of directories, and of entries saved without one, from the container
+    private volatile boolean open = true;
+
+    BlackBoxFileSystem(BlackBoxFileSystemProvider provider, Path container, ContainerKey key) throws Exception {
+        this.provider = provider;
+        this.container = container;
+        this.mounted = Files.getLastModifiedTime(container);
+        directories.put("/", new TreeSet<>());
+        lock = ContainerLock.reader(container);
+        Map<String, StoredFile> entries;
+        try {
+            entries = ContainerManager.loadContainer(container.toString(), key, chunkStore);
+        } catch (Exception e) {
+            lock.close();
+            throw e;
+        }
+        for (StoredFile file : entries.values()) {
+            String path = ((BlackBoxPath) getPath("/" + file.getName()).normalize()).toString();
+            if (path.equals("/")) continue;
+            files.put(path, file);
+            addToParents(path);
+        }
+    }
+
+    private void addToParents(String path) {
+        int slash = path.lastIndexOf('/');
+        String parent = slash == 0 ? "/" : path.substring(0, slash);
+        boolean known = directories.containsKey(parent);
+        directories.computeIfAbsent(parent, p -> new TreeSet<>()).add(path.substring(slash + 1));
+        if (!known && !parent.equals("/")) addToParents(parent);
+    }
+
+    Path getContainer() {
+        return container;
+    }
+
+    private static String key(Path path) {
+        return ((BlackBoxPath) path).toAbsolutePath().normalize().toString();
+    }
+
+    private void checkOpen() {
+        if (!open) throw new ClosedFileSystemException();
+    }
+
+    // An entry's content wins over a directory of the same name
+    StoredFile getFile(Path path) throws IOException {
+        checkOpen();
+        StoredFile file = files.get(key(path));
+        if (file != null) return file;
+        if (directories.containsKey(key(path))) throw new FileSystemException(path.toString(), null, "Is a directory");
+        throw new NoSuchFileException(path.toString());
+    }
+
+    SortedSet<String> getChildren(Path directory) throws IOException {
+        checkOpen();
+        SortedSet<String> children = directories.get(key(directory));
+        if (children != null && !files.containsKey(key(directory))) return children;
+        if (files.containsKey(key(directory))) throw new NotDirectoryException(directory.toString());
+        throw new NoSuchFileException(directory.toString());
+    }
+
+    void checkExists(Path path) throws IOException {
+        checkOpen();
+        if (!files.containsKey(key(path)) && !directories.containsKey(key(path))) {
+            throw new NoSuchFileException(path.toString());
+        }
+    }
+
+    BasicFileAttributes readAttributes(Path path) throws IOException {
+        checkExists(path);
+        StoredFile file = files.get(key(path));
+        if (file == null) return new Attributes(0, true, mounted);
+        return new Attributes(file.getOriginalSize(), false,
+                file.getModified() != 0 ? FileTime.fromMillis(file.getModified()) : mounted);
+    }
+
+    SeekableByteChannel newChannel(Path path) throws IOException {
+        return getFile(path).openChannel();
+    }
+
+    InputStream newInputStream(Path path) throws IOException {
+        return getFile(path).getContentStream();
+    }
+
+    @Override
+    public FileSystemProvider provider() {
+        return provider;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open) return;
+        open = false;
+        provider.remove(container);
+        for (StoredFile file : files.values()) {
+            file.close();
+        }
+        try {
+            chunkStore.close();
+        } finally {
+            lock.close();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public String getSeparator() {
+        return "/";
+    }
+
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        return List.of(getPath("/"));
+    }
+
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        return List.of();
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return Set.of("basic");
+    }
+
+    @Override
+    public Path getPath(String first, String... more) {
+        StringBuilder path = new StringBuilder(first);
+        for (String name : more) {
+            if (name.isEmpty()) continue;
+            if (path.length() > 0) path.append('/');
+            path.append(name);
+        }
+        return new BlackBoxPath(this, path.toString());
+    }
+
+    // "glob:" uses the same syntax as extract-all patterns ('*' within a name, '**' across); "regex:" is a Pattern
+    @Override
+    public PathMatcher getPathMatcher(String syntaxAndPattern) {
+        int colon = syntaxAndPattern.indexOf(':');
+        if (colon <= 0) throw new IllegalArgumentException("Expected syntax:pattern, got " + syntaxAndPattern);
+        String syntax = syntaxAndPattern.substring(0, colon);
+        String pattern = syntaxAndPattern.substring(colon + 1);
+        Predicate<String> matcher;
+        if (syntax.equalsIgnoreCase("glob")) {
+            matcher = Extractor.matcher(pattern);
+        } else if (syntax.equalsIgnoreCase("regex")) {
+            matcher = Pattern.compile(pattern).asMatchPredicate();
+        } else {
+            throw new UnsupportedOperationException("Unsupported path matcher syntax: " + syntax);
+        }
+        return path -> matcher.test(path.toString());
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        throw new UnsupportedOperationException("Containers have no owners");
+    }
+
+    @Override
+    public WatchService newWatchService() {
+        throw new UnsupportedOperationException("Containers cannot be watched");
+    }
+
+    private static class Attributes implements BasicFileAttributes {
+        private final long size;
+        private final boolean directory;
+        private final FileTime time;
+
+        Attributes(long size, boolean directory, FileTime time) {
+            this.size = size;
+            this.directory = directory;
+            this.time = time;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return time;
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return time;
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return time;
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return !directory;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// "blackbox" URI scheme, so other JVM code can read containers with java.nio.file, like zipfs for jars:
+//   try (FileSystem fs = FileSystems.newFileSystem(URI.create("blackbox:" + container.toUri()),
+//           Map.of("password", password))) {
+//       Files.copy(fs.getPath("/docs/report.pdf"), target);
+//   }
+// The environment holds either "password" (a String or char[]) or an already unlocked "key" (a ContainerKey).
+// Containers are mounted read-only; adding entries still goes through ContainerManager or ContainerSession.
+public class BlackBoxFileSystemProvider extends FileSystemProvider {
+    public static final String SCHEME = "blackbox";
+
+    private final Map<Path, BlackBoxFileSystem> fileSystems = new ConcurrentHashMap<>();
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    // blackbox:file:///path/to/container.box, optionally followed by !/entry/path
+    private static Path containerOf(URI uri) {
+        if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("Not a " + SCHEME + " URI: " + uri);
+        }
+        String spec = uri.getRawSchemeSpecificPart();
+        int separator = spec.indexOf("!/");
+        if (separator >= 0) spec = spec.substring(0, separator);
+        return Paths.get(URI.create(spec)).toAbsolutePath().normalize();
+    }
+
+    private static String entryOf(URI uri) {
+        String spec = uri.getRawSchemeSpecificPart();
+        int separator = spec.indexOf("!/");
+        return separator >= 0 ? URI.create(spec.substring(separator + 1)).getPath() : "/";
+    }
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
+        return mount(containerOf(uri), env);
+    }
+
+    @Override
+    public FileSystem newFileSystem(Path path, Map<String, ?> env) throws IOException {
+        return mount(path.toAbsolutePath().normalize(), env);
+    }
+
+    private synchronized FileSystem mount(Path container, Map<String, ?> env) throws IOException {
+        if (fileSystems.containsKey(container)) throw new FileSystemAlreadyExistsException(container.toString());
+        if (!Files.isRegularFile(container)) throw new NoSuchFileException(container.toString());
+        try {
+            BlackBoxFileSystem fileSystem = new BlackBoxFileSystem(this, container, unlock(container, env));
+            fileSystems.put(container, fileSystem);
+            return fileSystem;
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Could not open container: " + e.getMessage(), e);
+        }
+    }
+
+    private static ContainerKey unlock(Path container, Map<String, ?> env) throws Exception {
+        Object key = env.get("key");
+        if (key instanceof ContainerKey) return (ContainerKey) key;
+        Object password = env.get("password");
+        if (password instanceof char[]) password = new String((char[]) password);
+        if (!(password instanceof String)) {
+            throw new IllegalArgumentException("Mounting a container needs a \"password\" or a \"key\"");
+        }
+        return ContainerManager.unlock(container.toString(), (String) password);
+    }
+
+    void remove(Path container) {
+        fileSystems.remove(container);
+    }
+
+    @Override
+    public FileSystem getFileSystem(URI uri) {
+        BlackBoxFileSystem fileSystem = fileSystems.get(containerOf(uri));
+        if (fileSystem == null) throw new FileSystemNotFoundException(uri.toString());
+        return fileSystem;
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        return getFileSystem(uri).getPath(entryOf(uri));
+    }
+
+    private static BlackBoxPath check(Path path) {
+        if (!(path instanceof BlackBoxPath)) throw new ProviderMismatchException();
+        return (BlackBoxPath) path;
+    }
+
+    private static void checkReadOnly(Set<? extends OpenOption> options) {
+        for (OpenOption option : options) {
+            if (option != StandardOpenOption.READ && option instanceof StandardOpenOption) {
+                throw new ReadOnlyFileSystemException();
+            }
+        }
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options,
+            FileAttribute<?>... attrs) throws IOException {
+        checkReadOnly(options);
+        return check(path).getFileSystem().newChannel(path);
+    }
+
+    // Plain sequential reads skip the channel's position tracking
+    @Override
+    public InputStream newInputStream(Path path, OpenOption... options) throws IOException {
+        checkReadOnly(Set.of(options));
+        return check(path).getFileSystem().newInputStream(path);
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter)
+            throws IOException {
+        List<String> children = new ArrayList<>(check(dir).getFileSystem().getChildren(dir));
+        return new DirectoryStream<>() {
+            private boolean iterated;
+
+            @Override
+            public Iterator<Path> iterator() {
+                if (iterated) throw new IllegalStateException("Directory stream can only be iterated once");
+                iterated = true;
+                List<Path> accepted = new ArrayList<>();
+                for (String name : children) {
+                    Path child = dir.resolve(name);
+                    try {
+                        if (filter.accept(child)) accepted.add(child);
+                    } catch (IOException e) {
+                        throw new DirectoryIteratorException(e);
+                    }
+                }
+                return accepted.iterator();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void delete(Path path) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path other) throws IOException {
+        if (path.equals(other)) return true;
+        if (!(other instanceof BlackBoxPath) || path.getFileSystem() != other.getFileSystem()) return false;
+        return path.toRealPath().equals(other.toRealPath());
+    }
+
+    @Override
+    public boolean isHidden(Path path) {
+        return false;
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) {
+        throw new UnsupportedOperationException("Containers have no file store");
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        BasicFileAttributes attributes = check(path).getFileSystem().readAttributes(path);
+        for (AccessMode mode : modes) {
+            if (mode == AccessMode.WRITE || (mode == AccessMode.EXECUTE && !attributes.isDirectory())) {
+                throw new AccessDeniedException(path.toString());
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        BlackBoxPath entry = check(path);
+        if (type != BasicFileAttributeView.class) return null;
+        return (V) new BasicFileAttributeView() {
+            @Override
+            public String name() {
+                return "basic";
+            }
+
+            @Override
+            public BasicFileAttributes readAttributes() throws IOException {
+                return entry.getFileSystem().readAttributes(entry);
+            }
+
+            @Override
+            public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+                throw new ReadOnlyFileSystemException();
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+            throws IOException {
+        if (type != BasicFileAttributes.class) {
+            throw new UnsupportedOperationException("Only basic attributes are supported");
+        }
+        return (A) check(path).getFileSystem().readAttributes(path);
+    }
+
+    // Attribute names as in Files.readAttributes: "size,lastModifiedTime", "basic:*" and so on
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options)
+            throws IOException {
+        String names = attributes;
+        int colon = attributes.indexOf(':');
+        if (colon >= 0) {
+            if (!attributes.substring(0, colon).equals("basic")) {
+                throw new UnsupportedOperationException("Only basic attributes are supported");
+            }
+            names = attributes.substring(colon + 1);
+        }
+
+        BasicFileAttributes basic = check(path).getFileSystem().readAttributes(path);
+        Map<String, Object> all = new LinkedHashMap<>();
+        all.put("lastModifiedTime", basic.lastModifiedTime());
+        all.put("lastAccessTime", basic.lastAccessTime());
+        all.put("creationTime", basic.creationTime());
+        all.put("size", basic.size());
+        all.put("isRegularFile", basic.isRegularFile());
+        all.put("isDirectory", basic.isDirectory());
+        all.put("isSymbolicLink", basic.isSymbolicLink());
+        all.put("isOther", basic.isOther());
+        all.put("fileKey", basic.fileKey());
+        if (names.equals("*")) return all;
+
+        Map<String, Object> selected = new LinkedHashMap<>();
+        for (String name : names.split(",")) {
+            if (!all.containsKey(name)) throw new IllegalArgumentException("Unknown attribute: " + name);
+            selected.put(name, all.get(name));
+        }
+        return selected;
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+}
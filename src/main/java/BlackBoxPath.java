@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Path inside a mounted container. Entry names are '/'-separated, so paths are plain strings with '/'
+// as the only separator; the root "/" is the working directory, so relative paths resolve against it.
+public class BlackBoxPath implements Path {
+    private final BlackBoxFileSystem fileSystem;
+    private final String path;  // No repeated or trailing '/', except for the root itself
+    private String[] names;     // Computed on first use
+
+    BlackBoxPath(BlackBoxFileSystem fileSystem, String path) {
+        if (path.indexOf('\0') >= 0) throw new InvalidPathException(path, "Nul character not allowed");
+        this.fileSystem = fileSystem;
+        this.path = clean(path);
+    }
+
+    private static String clean(String path) {
+        StringBuilder cleaned = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '/' && cleaned.length() > 0 && cleaned.charAt(cleaned.length() - 1) == '/') continue;
+            cleaned.append(c);
+        }
+        if (cleaned.length() > 1 && cleaned.charAt(cleaned.length() - 1) == '/') {
+            cleaned.setLength(cleaned.length() - 1);
+        }
+        return cleaned.toString();
+    }
+
+    private String[] names() {
+        if (names == null) {
+            if (path.isEmpty()) {
+                names = new String[]{""}; // The empty path has one empty name, as on the default file system
+            } else if (path.equals("/")) {
+                names = new String[0];
+            } else {
+                names = (isAbsolute() ? path.substring(1) : path).split("/");
+            }
+        }
+        return names;
+    }
+
+    private BlackBoxPath of(boolean absolute, List<String> parts) {
+        return new BlackBoxPath(fileSystem, (absolute ? "/" : "") + String.join("/", parts));
+    }
+
+    private static BlackBoxPath check(Path other) {
+        if (!(other instanceof BlackBoxPath)) throw new ProviderMismatchException();
+        return (BlackBoxPath) other;
+    }
+
+    @Override
+    public BlackBoxFileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    @Override
+    public boolean isAbsolute() {
+        return path.startsWith("/");
+    }
+
+    @Override
+    public Path getRoot() {
+        return isAbsolute() ? new BlackBoxPath(fileSystem, "/") : null;
+    }
+
+    @Override
+    public Path getFileName() {
+        String[] parts = names();
+        if (parts.length == 0) return null;
+        if (path.isEmpty()) return this;
+        return new BlackBoxPath(fileSystem, parts[parts.length - 1]);
+    }
+
+    @Override
+    public Path getParent() {
+        String[] parts = names();
+        if (parts.length == 0 || (parts.length == 1 && !isAbsolute())) return null;
+        return of(isAbsolute(), Arrays.asList(parts).subList(0, parts.length - 1));
+    }
+
+    @Override
+    public int getNameCount() {
+        return names().length;
+    }
+
+    @Override
+    public Path getName(int index) {
+        String[] parts = names();
+        if (index < 0 || index >= parts.length) throw new IllegalArgumentException("No name at " + index);
+        return new BlackBoxPath(fileSystem, parts[index]);
+    }
+
+    @Override
+    public Path subpath(int beginIndex, int endIndex) {
+        String[] parts = names();
+        if (beginIndex < 0 || endIndex > parts.length || beginIndex >= endIndex) {
+            throw new IllegalArgumentException("Invalid subpath " + beginIndex + ".." + endIndex);
+        }
+        return of(false, Arrays.asList(parts).subList(beginIndex, endIndex));
+    }
+
+    @Override
+    public boolean startsWith(Path other) {
+        if (!(other instanceof BlackBoxPath) || other.getFileSystem() != fileSystem) return false;
+        BlackBoxPath prefix = (BlackBoxPath) other;
+        if (prefix.isAbsolute() != isAbsolute()) return false;
+        String[] parts = names();
+        String[] start = prefix.names();
+        if (start.length > parts.length) return false;
+        return Arrays.equals(start, Arrays.copyOf(parts, start.length));
+    }
+
+    @Override
+    public boolean endsWith(Path other) {
+        if (!(other instanceof BlackBoxPath) || other.getFileSystem() != fileSystem) return false;
+        BlackBoxPath suffix = (BlackBoxPath) other;
+        if (suffix.isAbsolute()) return equals(suffix);
+        if (suffix.path.isEmpty()) return path.isEmpty();
+        String[] parts = names();
+        String[] end = suffix.names();
+        if (end.length > parts.length) return false;
+        return Arrays.equals(end, Arrays.copyOfRange(parts, parts.length - end.length, parts.length));
+    }
+
+    @Override
+    public Path normalize() {
+        List<String> parts = new ArrayList<>();
+        for (String name : names()) {
+            if (name.equals(".") || name.isEmpty()) continue;
+            if (name.equals("..")) {
+                if (!parts.isEmpty() && !parts.get(parts.size() - 1).equals("..")) {
+                    parts.remove(parts.size() - 1);
+                    continue;
+                }
+                if (isAbsolute()) continue; // Nothing above the root
+            }
+            parts.add(name);
+        }
+        return of(isAbsolute(), parts);
+    }
+
+    @Override
+    public Path resolve(Path other) {
+        BlackBoxPath child = check(other);
+        if (child.isAbsolute()) return child;
+        if (child.path.isEmpty()) return this;
+        if (path.isEmpty()) return child;
+        return new BlackBoxPath(fileSystem, path + "/" + child.path);
+    }
+
+    @Override
+    public Path relativize(Path other) {
+        BlackBoxPath target = check(other);
+        if (target.isAbsolute() != isAbsolute()) {
+            throw new IllegalArgumentException("Only paths of the same kind can be relativized");
+        }
+        String[] from = ((BlackBoxPath) normalize()).names();
+        String[] to = ((BlackBoxPath) target.normalize()).names();
+        if (from.length == 1 && from[0].isEmpty()) from = new String[0];
+        if (to.length == 1 && to[0].isEmpty()) to = new String[0];
+        int common = 0;
+        while (common < from.length && common < to.length && from[common].equals(to[common])) {
+            common++;
+        }
+        List<String> parts = new ArrayList<>();
+        for (int i = common; i < from.length; i++) {
+            parts.add("..");
+        }
+        parts.addAll(Arrays.asList(to).subList(common, to.length));
+        return of(false, parts);
+    }
+
+    // blackbox:<container file URI>!<entry path>, e.g. blackbox:file:///home/me/backup.box!/docs/report.pdf
+    @Override
+    public URI toUri() {
+        try {
+            String entry = new URI(null, null, toAbsolutePath().toString(), null).getRawPath();
+            return URI.create(BlackBoxFileSystemProvider.SCHEME + ":" + fileSystem.getContainer().toUri() + "!" + entry);
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("Cannot build a URI for " + path, e);
+        }
+    }
+
+    @Override
+    public BlackBoxPath toAbsolutePath() {
+        return isAbsolute() ? this : new BlackBoxPath(fileSystem, "/" + path);
+    }
+
+    @Override
+    public Path toRealPath(LinkOption... options) throws IOException {
+        BlackBoxPath real = (BlackBoxPath) toAbsolutePath().normalize();
+        fileSystem.checkExists(real);
+        return real;
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+        throw new UnsupportedOperationException("Containers cannot be watched");
+    }
+
+    @Override
+    public int compareTo(Path other) {
+        return path.compareTo(check(other).path);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof BlackBoxPath)) return false;
+        BlackBoxPath that = (BlackBoxPath) other;
+        return that.fileSystem == fileSystem && that.path.equals(path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
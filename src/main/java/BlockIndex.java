@@ -0,0 +1,79 @@
+import java.io.*;
+import java.util.Arrays;
+
+// Where each compressed block of an entry starts. ParallelCompressor cuts the content into blocks of
+// blockSize bytes that decompress on their own, so with this index a read at any position only has to
+// decrypt and decompress the block that holds it instead of everything before it.
+public class BlockIndex {
+    private final int blockSize;
+    private final long[] offsets; // Compressed offset of every block, plus the total compressed length
+
+    private BlockIndex(int blockSize, long[] offsets) {
+        this.blockSize = blockSize;
+        this.offsets = offsets;
+    }
+
+    // Receives compressed block lengths in order, as ParallelCompressor writes them
+    public static class Builder {
+        private final int blockSize;
+        private long[] offsets = new long[8];
+        private int count;
+
+        public Builder(int blockSize) {
+            this.blockSize = blockSize;
+        }
+
+        public synchronized void add(int compressedLength) {
+            if (count + 1 >= offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            offsets[count + 1] = offsets[count] + compressedLength;
+            count++;
+        }
+
+        public synchronized BlockIndex build() {
+            return new BlockIndex(blockSize, Arrays.copyOf(offsets, count + 1));
+        }
+    }
+
+    public int getBlockCount() {
+        return offsets.length - 1;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    // Block holding the given uncompressed position; positions past the end map to the last block
+    public int blockAt(long position) {
+        return (int) Math.max(0, Math.min(position / blockSize, getBlockCount() - 1));
+    }
+
+    public long getRawOffset(int block) {
+        return (long) block * blockSize;
+    }
+
+    public long getCompressedOffset(int block) {
+        return offsets[block];
+    }
+
+    // Stored as the block size followed by every block's compressed length
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(blockSize);
+        for (int i = 0; i < getBlockCount(); i++) {
+            out.writeInt((int) (offsets[i + 1] - offsets[i]));
+        }
+    }
+
+    int getEncodedSize() {
+        return Integer.BYTES * (1 + getBlockCount());
+    }
+
+    static BlockIndex readFrom(DataInputStream in, int size) throws IOException {
+        if (size < Integer.BYTES || size % Integer.BYTES != 0) throw new IOException("Corrupt block index");
+        Builder builder = new Builder(in.readInt());
+        if (builder.blockSize <= 0) throw new IOException("Corrupt block index");
+        for (int i = Integer.BYTES; i < size; i += Integer.BYTES) {
+            builder.add(in.readInt());
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,45 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.*;
+
+// Reusable buffers for the compress / encrypt / write pipeline, so long imports and extracts
+// run without allocating per block. Buffers are pooled by exact capacity; a full pool drops
+// released buffers, so memory stays bounded by the peak number in use.
+//   blackbox.buffer.size  size of the copy buffers used for extracting (default 1 MiB)
+//   blackbox.buffer.pool  buffers kept per size (default 8 per core)
+public class BufferPool {
+    public static final int IO_BUFFER_SIZE = Integer.getInteger("blackbox.buffer.size", 1 << 20);
+    private static final int MAX_POOLED = Integer.getInteger("blackbox.buffer.pool",
+            Runtime.getRuntime().availableProcessors() * 8);
+
+    private static final ConcurrentMap<Integer, BlockingQueue<ByteBuffer>> DIRECT = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Integer, BlockingQueue<byte[]>> ARRAYS = new ConcurrentHashMap<>();
+
+    // Direct buffers are used where data goes straight to a channel or the cipher
+    public static ByteBuffer acquireDirect(int capacity) {
+        ByteBuffer buffer = DIRECT.computeIfAbsent(capacity, BufferPool::newQueue).poll();
+        if (buffer == null) return ByteBuffer.allocateDirect(capacity);
+        return buffer.clear();
+    }
+
+    public static void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.isDirect()) {
+            DIRECT.computeIfAbsent(buffer.capacity(), BufferPool::newQueue).offer(buffer);
+        }
+    }
+
+    // Heap arrays are used where Java code works on the bytes, like the codecs
+    public static byte[] acquireArray(int length) {
+        byte[] array = ARRAYS.computeIfAbsent(length, BufferPool::newQueue).poll();
+        return array != null ? array : new byte[length];
+    }
+
+    public static void release(byte[] array) {
+        if (array != null) {
+            ARRAYS.computeIfAbsent(array.length, BufferPool::newQueue).offer(array);
+        }
+    }
+
+    private static <T> BlockingQueue<T> newQueue(int capacity) {
+        return new ArrayBlockingQueue<>(Math.max(1, MAX_POOLED));
+    }
+}
@@ -0,0 +1,92 @@
+import java.io.*;
+import java.util.HexFormat;
+
+// Row of the container's chunk table: where a deduplicated chunk is stored
+public class ChunkRecord {
+    public static final int HASH_LENGTH = 32;
+
+    private final String hash;   // Hex SHA-256 of the uncompressed chunk
+    private final long offset;
+    private final long length;
+    private final long rawSize;
+    private final long storedSize;
+    private final int codec;
+    private final byte[] root;   // MerkleTree root of the encrypted segment, or null when not recorded
+
+    public ChunkRecord(String hash, long offset, long length, long rawSize, long storedSize, int codec) {
+        this(hash, offset, length, rawSize, storedSize, codec, null);
+    }
+
+    public ChunkRecord(String hash, long offset, long length, long rawSize, long storedSize, int codec, byte[] root) {
+        this.hash = hash;
+        this.offset = offset;
+        this.length = length;
+        this.rawSize = rawSize;
+        this.storedSize = storedSize;
+        this.codec = codec;
+        this.root = root;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.write(HexFormat.of().parseHex(hash));
+        out.writeLong(offset);
+        out.writeLong(length);
+        out.writeLong(rawSize);
+        out.writeLong(storedSize);
+        out.writeByte(codec);
+    }
+
+    // The chunk table has fixed columns, so roots are written after it, one per row in the same order;
+    // all zeros where none was recorded
+    void writeRootTo(DataOutputStream out) throws IOException {
+        out.write(root != null ? root : new byte[MerkleTree.HASH_LENGTH]);
+    }
+
+    ChunkRecord withRoot(byte[] root) {
+        boolean recorded = false;
+        for (byte b : root) {
+            recorded |= b != 0;
+        }
+        return new ChunkRecord(hash, offset, length, rawSize, storedSize, codec, recorded ? root : null);
+    }
+
+    // Chunk tables before version 6 have no codec column: every chunk is gzip
+    static ChunkRecord readFrom(DataInputStream in, int version) throws IOException {
+        byte[] hash = new byte[HASH_LENGTH];
+        in.readFully(hash);
+        long offset = in.readLong();
+        long length = in.readLong();
+        long rawSize = in.readLong();
+        long storedSize = in.readLong();
+        int codec = version >= ContainerHeader.VERSION ? in.readUnsignedByte() : Codec.DEFLATE;
+        return new ChunkRecord(HexFormat.of().formatHex(hash), offset, length, rawSize, storedSize, codec);
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getRawSize() {
+        return rawSize;
+    }
+
+    public long getStoredSize() {
+        return storedSize;
+    }
+
+    public int getCodec() {
+        return codec;
+    }
+
+    public byte[] getRoot() {
+        return root;
+    }
+}
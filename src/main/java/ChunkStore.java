@@ -0,0 +1,274 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.LongConsumer;
+
+// Deduplicated chunks of one container, addressed by the SHA-256 of their content. Each chunk is
+// compressed on its own, with the codec of the entry that first stored it. New chunks wait in a
+// staging file until the next save writes them.
+public class ChunkStore implements AutoCloseable {
+    private static final int MAX_IN_FLIGHT = Runtime.getRuntime().availableProcessors() * 2;
+
+    public static class Chunk {
+        private final String hash;
+        private final long rawSize;
+        private final long storedSize;
+        private final Codec codec;
+        private StoredSegment segment;  // Copy inside a container
+        private long stagedOffset = -1; // Copy in the staging file
+
+        Chunk(String hash, long rawSize, long storedSize, Codec codec) {
+            this.hash = hash;
+            this.rawSize = rawSize;
+            this.storedSize = storedSize;
+            this.codec = codec;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public long getRawSize() {
+            return rawSize;
+        }
+
+        public long getStoredSize() {
+            return storedSize;
+        }
+
+        public Codec getCodec() {
+            return codec;
+        }
+    }
+
+    private final Map<String, Chunk> chunks = new HashMap<>();
+    private Path staging;
+    private FileChannel stagingChannel;
+    private int stagedCount;
+
+    // Splits the input into content-defined chunks and keeps the ones not seen before.
+    // Returns the hashes of all chunks of the input, in order.
+    public List<String> importStream(InputStream in, Codec codec, LongConsumer progress) throws IOException {
+        ContentChunker chunker = new ContentChunker(in);
+        List<String> hashes = new ArrayList<>();
+        Deque<Future<byte[][]>> inFlight = new ArrayDeque<>();
+        long totalRead = 0;
+        try {
+            byte[] data;
+            while ((data = chunker.next()) != null) {
+                if (inFlight.size() >= MAX_IN_FLIGHT) {
+                    hashes.add(stage(await(inFlight.removeFirst()), codec));
+                }
+                // Hashing and compression run on the compression pool; staging stays in order
+                byte[] chunk = data;
+                inFlight.addLast(ParallelCompressor.POOL.submit(() -> prepare(chunk, codec)));
+                totalRead += data.length;
+                progress.accept(totalRead);
+            }
+            while (!inFlight.isEmpty()) {
+                hashes.add(stage(await(inFlight.removeFirst()), codec));
+            }
+            if (hashes.isEmpty()) {
+                hashes.add(stage(prepare(new byte[0], codec), codec)); // Empty input still needs a valid gzip member
+            }
+            return hashes;
+        } finally {
+            for (Future<byte[][]> pending : inFlight) {
+                pending.cancel(true);
+            }
+        }
+    }
+
+    // Returns {hash, raw data, compressed data or null when the chunk is already stored}
+    private byte[][] prepare(byte[] data, Codec codec) {
+        byte[] hash = sha256(data);
+        boolean known;
+        synchronized (this) {
+            known = chunks.containsKey(HexFormat.of().formatHex(hash));
+        }
+        byte[] compressed = known ? null : codec.compressBlock(data, data.length);
+        return new byte[][]{hash, data, compressed};
+    }
+
+    private synchronized String stage(byte[][] prepared, Codec codec) throws IOException {
+        String hash = HexFormat.of().formatHex(prepared[0]);
+        if (chunks.containsKey(hash)) return hash;
+
+        byte[] compressed = prepared[2] != null
+                ? prepared[2]
+                : codec.compressBlock(prepared[1], prepared[1].length);
+        FileChannel channel = stagingChannel();
+
+        Chunk chunk = new Chunk(hash, prepared[1].length, compressed.length, codec);
+        chunk.stagedOffset = channel.size();
+        ByteBuffer buffer = ByteBuffer.wrap(compressed);
+        long position = chunk.stagedOffset;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        chunks.put(hash, chunk);
+        stagedCount++;
+        return hash;
+    }
+
+    // A FileChannel closes itself when a thread using it is interrupted, which would break the store for every
+    // other user; the staged bytes are still in the file, so it is simply opened again
+    private FileChannel stagingChannel() throws IOException {
+        if (staging == null) staging = Files.createTempFile("blackbox_chunks_", ".tmp");
+        if (stagingChannel == null || !stagingChannel.isOpen()) {
+            stagingChannel = FileChannel.open(staging, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return stagingChannel;
+    }
+
+    // Registers a chunk that is already stored in a container
+    synchronized void addStored(ChunkRecord record, StoredSegment segment) throws IOException {
+        Codec codec = Codecs.forId(record.getCodec());
+        Chunk chunk = chunks.computeIfAbsent(record.getHash(),
+                hash -> new Chunk(hash, record.getRawSize(), record.getStoredSize(), codec));
+        if (chunk.segment == null && chunk.stagedOffset < 0) {
+            chunk.segment = segment;
+        }
+    }
+
+    public synchronized Chunk get(String hash) throws IOException {
+        Chunk chunk = chunks.get(hash);
+        if (chunk == null) throw new IOException("Missing chunk " + hash);
+        return chunk;
+    }
+
+    synchronized long getContainerOffset(String hash) throws IOException {
+        Chunk chunk = get(hash);
+        return chunk.stagedOffset < 0 && chunk.segment != null ? chunk.segment.getOffset() : Long.MAX_VALUE;
+    }
+
+    synchronized void markPersisted(String hash, StoredSegment segment) throws IOException {
+        Chunk chunk = get(hash);
+        chunk.segment = segment;
+        if (chunk.stagedOffset >= 0) {
+            chunk.stagedOffset = -1;
+            stagedCount--;
+        }
+        truncateStagingIfEmpty();
+    }
+
+    // After a compaction: stored chunks move to their new locations, and those left out of the compacted
+    // container are dropped, since their old locations are gone. Staged chunks are kept for the next save.
+    synchronized void relocate(Map<String, StoredSegment> moved) {
+        Iterator<Chunk> iterator = chunks.values().iterator();
+        while (iterator.hasNext()) {
+            Chunk chunk = iterator.next();
+            if (chunk.stagedOffset >= 0) continue;
+            StoredSegment segment = moved.get(chunk.hash);
+            if (segment != null) {
+                chunk.segment = segment;
+            } else {
+                iterator.remove();
+            }
+        }
+    }
+
+    // Drops chunks no entry refers to any more, so stale container locations are never reused
+    synchronized void retainOnly(Set<String> referenced) throws IOException {
+        Iterator<Chunk> iterator = chunks.values().iterator();
+        while (iterator.hasNext()) {
+            Chunk chunk = iterator.next();
+            if (!referenced.contains(chunk.hash)) {
+                if (chunk.stagedOffset >= 0) stagedCount--;
+                iterator.remove();
+            }
+        }
+        truncateStagingIfEmpty();
+    }
+
+    private void truncateStagingIfEmpty() throws IOException {
+        if (stagedCount == 0 && staging != null) {
+            stagingChannel().truncate(0);
+        }
+    }
+
+    // One chunk's compressed bytes
+    synchronized InputStream openCompressed(String hash) throws IOException {
+        Chunk chunk = get(hash);
+        if (chunk.stagedOffset >= 0) {
+            return new RegionInputStream(stagingChannel(), chunk.stagedOffset, chunk.storedSize);
+        }
+        if (chunk.segment == null) throw new IOException("Chunk " + hash + " has no stored copy");
+        return chunk.segment.open();
+    }
+
+    // Decompressed content of the chunks in order; each chunk is decoded with its own codec
+    public InputStream open(List<String> hashes) {
+        return new SequenceInputStream(new Enumeration<>() {
+            private int next;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < hashes.size();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    String hash = hashes.get(next++);
+                    return get(hash).codec.decompress(openCompressed(hash));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    // Logical bytes referenced by the entries divided by the bytes of the distinct chunks they use
+    public synchronized double getDedupRatio(Collection<List<String>> entries) throws IOException {
+        long logical = 0;
+        long unique = 0;
+        Set<String> seen = new HashSet<>();
+        for (List<String> hashes : entries) {
+            for (String hash : hashes) {
+                long size = get(hash).rawSize;
+                logical += size;
+                if (seen.add(hash)) unique += size;
+            }
+        }
+        return unique == 0 ? 1.0 : (double) logical / unique;
+    }
+
+    static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static byte[][] await(Future<byte[][]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Chunking failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        chunks.clear();
+        stagedCount = 0;
+        if (stagingChannel != null) {
+            stagingChannel.close();
+            stagingChannel = null;
+        }
+        if (staging != null) {
+            Files.deleteIfExists(staging);
+            staging = null;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+// Chunked AES-GCM segment format:
+//   [8-byte random nonce prefix][chunk 0][chunk 1]...[last chunk]
+// Each chunk is at most CHUNK_SIZE bytes of plaintext followed by its 16-byte tag. The nonce of
+// chunk i is the prefix followed by i as a big-endian int, and the last chunk is authenticated
+// with a final flag, so chunks can be encrypted, decrypted and verified independently and in
+// parallel while reordering or truncation is still detected.
+public class ChunkedCipher {
+    public static final int CHUNK_SIZE = 64 * 1024;
+    public static final int NONCE_PREFIX_LENGTH = 8;
+    static final int ENCRYPTED_CHUNK_SIZE = CHUNK_SIZE + EncryptionUtil.GCM_TAG_LENGTH;
+
+    private static final int THREADS = Integer.getInteger("blackbox.crypto.threads",
+            Runtime.getRuntime().availableProcessors());
+    private static final int MAX_IN_FLIGHT = THREADS * 4;
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, THREADS));
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final byte[] FINAL = {1};
+    private static final byte[] NOT_FINAL = {0};
+
+    // Encrypts the whole input as one segment and returns the number of bytes written
+    public static long encrypt(SecretKey key, InputStream in, WritableByteChannel out) throws IOException {
+        return encrypt(key, Channels.newChannel(in), out);
+    }
+
+    public static long encrypt(SecretKey key, ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        return encrypt(key, in, out, null);
+    }
+
+    // Chunks move through pooled direct buffers: read, encrypt on the worker pool, write, release.
+    // With root given, the workers also hash each encrypted chunk, and root receives the segment's
+    // MerkleTree root once it is written. Leaf hashes are folded into the tree as their chunks are
+    // written, so memory stays bounded by the chunks in flight however long the input is.
+    public static long encrypt(SecretKey key, ReadableByteChannel in, WritableByteChannel out,
+            Consumer<byte[]> root) throws IOException {
+        Map<Long, byte[]> leaves = root != null ? new ConcurrentHashMap<>() : null;
+        MerkleTree.Builder tree = root != null ? new MerkleTree.Builder() : null;
+        long hashed = 0; // Leaves added to the tree, which are those of the chunks written
+        byte[] prefix = new byte[NONCE_PREFIX_LENGTH];
+        RANDOM.nextBytes(prefix);
+        Phase phase = Phase.start(Phase.ENCRYPT);
+        long written = writeFully(out, ByteBuffer.wrap(prefix));
+        long plaintextBytes = 0;
+
+        Deque<Future<ByteBuffer>> inFlight = new ArrayDeque<>();
+        ByteBuffer chunk = null;
+        ByteBuffer next = null;
+        try {
+            // Read one chunk ahead so the last chunk can be flagged as final
+            chunk = readChunk(in);
+            long index = 0;
+            while (true) {
+                next = chunk.limit() == CHUNK_SIZE ? readChunk(in) : null;
+                boolean last = next == null || !next.hasRemaining();
+
+                if (inFlight.size() >= MAX_IN_FLIGHT) {
+                    written += writeAndRelease(out, await(inFlight.removeFirst()));
+                    if (tree != null) tree.add(leaves.remove(hashed++));
+                }
+                ByteBuffer plaintext = chunk;
+                plaintextBytes += plaintext.remaining();
+                long chunkIndex = index++;
+                chunk = null;
+                inFlight.addLast(POOL.submit(() -> {
+                    ByteBuffer encrypted = encryptChunk(key, prefix, chunkIndex, last, plaintext);
+                    if (leaves != null) {
+                        leaves.put(chunkIndex, chunkIndex == 0
+                                ? MerkleTree.leaf(ByteBuffer.wrap(prefix), encrypted) : MerkleTree.leaf(encrypted));
+                    }
+                    return encrypted;
+                }));
+
+                if (last) break;
+                chunk = next;
+                next = null;
+            }
+            while (!inFlight.isEmpty()) {
+                written += writeAndRelease(out, await(inFlight.removeFirst()));
+                if (tree != null) tree.add(leaves.remove(hashed++));
+            }
+            if (root != null) root.accept(tree.build());
+            phase.bytesIn(plaintextBytes).bytesOut(written);
+            return written;
+        } finally {
+            phase.close();
+            BufferPool.release(chunk);
+            BufferPool.release(next);
+            for (Future<ByteBuffer> pending : inFlight) {
+                pending.cancel(true);
+            }
+        }
+    }
+
+    private static ByteBuffer readChunk(ReadableByteChannel in) throws IOException {
+        ByteBuffer buffer = BufferPool.acquireDirect(CHUNK_SIZE);
+        try {
+            while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+                // Channels over streams may return short reads
+            }
+            return buffer.flip();
+        } catch (IOException e) {
+            BufferPool.release(buffer);
+            throw e;
+        }
+    }
+
+    private static ByteBuffer encryptChunk(SecretKey key, byte[] prefix, long index, boolean last,
+            ByteBuffer plaintext) throws Exception {
+        ByteBuffer encrypted = BufferPool.acquireDirect(ENCRYPTED_CHUNK_SIZE);
+        try {
+            crypt(Cipher.ENCRYPT_MODE, key, prefix, index, last, plaintext, encrypted);
+            return encrypted.flip();
+        } catch (Exception e) {
+            BufferPool.release(encrypted);
+            throw e;
+        } finally {
+            BufferPool.release(plaintext);
+        }
+    }
+
+    // Decrypts a segment stored in the channel, decrypting chunks ahead of the reader on the worker pool
+    public static InputStream decrypt(SecretKey key, FileChannel channel, long offset, long length) throws IOException {
+        return decrypt(key, channel, offset, length, 0, MAX_IN_FLIGHT);
+    }
+
+    // Same from the given plaintext position on, for random access: chunks before the one holding it are
+    // not read at all, and read-ahead starts at one chunk and only grows while the reader keeps reading
+    public static InputStream decrypt(SecretKey key, FileChannel channel, long offset, long length, long from)
+            throws IOException {
+        return decrypt(key, channel, offset, length, from, 1);
+    }
+
+    private static InputStream decrypt(SecretKey key, FileChannel channel, long offset, long length, long from,
+            int readAhead) throws IOException {
+        if (length < NONCE_PREFIX_LENGTH + EncryptionUtil.GCM_TAG_LENGTH) {
+            throw new IOException("Container segment is truncated");
+        }
+        ByteBuffer prefix = ByteBuffer.allocate(NONCE_PREFIX_LENGTH);
+        ContainerHeader.readFully(channel, prefix, offset);
+        DecryptingInputStream in = new DecryptingInputStream(key, channel, prefix.array(), offset + NONCE_PREFIX_LENGTH,
+                length - NONCE_PREFIX_LENGTH, from / CHUNK_SIZE, readAhead);
+        try {
+            in.skipNBytes(from % CHUNK_SIZE);
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    static int crypt(int mode, SecretKey key, byte[] prefix, long index, boolean last,
+            ByteBuffer input, ByteBuffer output) throws Exception {
+        if (index > 0xFFFFFFFFL) throw new IOException("Segment has too many chunks");
+        byte[] nonce = new byte[EncryptionUtil.GCM_NONCE_LENGTH];
+        System.arraycopy(prefix, 0, nonce, 0, NONCE_PREFIX_LENGTH);
+        ByteBuffer.wrap(nonce, NONCE_PREFIX_LENGTH, 4).putInt((int) index);
+
+        Cipher cipher = EncryptionUtil.getChunkCipher(mode, key, nonce);
+        cipher.updateAAD(last ? FINAL : NOT_FINAL);
+        return cipher.doFinal(input, output);
+    }
+
+    private static long writeAndRelease(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        try {
+            return writeFully(out, buffer);
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    private static long writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        long written = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        return written;
+    }
+
+    private static ByteBuffer await(Future<ByteBuffer> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Encryption interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof AEADBadTagException) {
+                throw new AuthenticationException(cause);
+            }
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException("Encryption failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    private static class DecryptingInputStream extends InputStream {
+        private final SecretKey key;
+        private final FileChannel channel;
+        private final byte[] prefix;
+        private final long start;
+        private final long length;
+        private final long chunkCount;
+        private final Deque<Future<ByteBuffer>> inFlight = new ArrayDeque<>();
+        private final long firstChunk;
+        private final Phase phase = Phase.start(Phase.DECRYPT); // Ends when the stream is closed
+        private long nextChunk;
+        private int readAhead;       // Chunks decrypted ahead of the reader, at most MAX_IN_FLIGHT
+        private long plaintextBytes;
+        private ByteBuffer current;  // Decrypted chunk being read, a pooled direct buffer
+
+        DecryptingInputStream(SecretKey key, FileChannel channel, byte[] prefix, long start, long length,
+                long firstChunk, int readAhead) {
+            this.key = key;
+            this.channel = channel;
+            this.prefix = prefix;
+            this.start = start;
+            this.length = length;
+            this.chunkCount = (length + ENCRYPTED_CHUNK_SIZE - 1) / ENCRYPTED_CHUNK_SIZE;
+            this.firstChunk = Math.min(firstChunk, chunkCount);
+            this.nextChunk = this.firstChunk;
+            this.readAhead = readAhead;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (current == null || !current.hasRemaining()) {
+                if (!fill()) return -1;
+            }
+            int count = Math.min(len, current.remaining());
+            current.get(b, off, count);
+            plaintextBytes += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return current != null ? current.remaining() : 0;
+        }
+
+        private boolean fill() throws IOException {
+            BufferPool.release(current);
+            current = null;
+            while (nextChunk < chunkCount && inFlight.size() < readAhead) {
+                long index = nextChunk++;
+                inFlight.addLast(POOL.submit(() -> decryptChunk(index)));
+            }
+            if (inFlight.isEmpty()) return false;
+            current = await(inFlight.removeFirst());
+            readAhead = Math.min(MAX_IN_FLIGHT, readAhead * 2);
+            return true;
+        }
+
+        private ByteBuffer decryptChunk(long index) throws Exception {
+            long chunkOffset = index * ENCRYPTED_CHUNK_SIZE;
+            int chunkLength = (int) Math.min(ENCRYPTED_CHUNK_SIZE, length - chunkOffset);
+            ByteBuffer encrypted = BufferPool.acquireDirect(ENCRYPTED_CHUNK_SIZE);
+            ByteBuffer plaintext = BufferPool.acquireDirect(CHUNK_SIZE);
+            try {
+                encrypted.limit(chunkLength);
+                ContainerHeader.readFully(channel, encrypted, start + chunkOffset);
+                encrypted.flip();
+                crypt(Cipher.DECRYPT_MODE, key, prefix, index, index == chunkCount - 1, encrypted, plaintext);
+                return plaintext.flip();
+            } catch (Exception e) {
+                BufferPool.release(plaintext);
+                throw e;
+            } finally {
+                BufferPool.release(encrypted);
+            }
+        }
+
+        @Override
+        public void close() {
+            // Chunks still being decrypted are left to the garbage collector rather than returned to the pool
+            for (Future<ByteBuffer> pending : inFlight) {
+                pending.cancel(true);
+            }
+            inFlight.clear();
+            BufferPool.release(current);
+            current = null;
+            phase.bytesIn(Math.max(0, Math.min(length, nextChunk * ENCRYPTED_CHUNK_SIZE) - firstChunk * ENCRYPTED_CHUNK_SIZE))
+                    .bytesOut(plaintextBytes).close();
+        }
+    }
+}
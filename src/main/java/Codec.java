@@ -0,0 +1,28 @@
+import java.io.*;
+import java.util.Arrays;
+
+// Block compression format. Compressed blocks are self-delimiting, so the blocks of one
+// stream are simply written one after another and decompress() reads them all back.
+public interface Codec {
+    // Ids are stored in the container, so they must never be reused
+    int STORE = 0;
+    int DEFLATE = 1;
+    int LZ = 2;
+
+    int getId();
+
+    String getName();
+
+    // Upper bound of the compressed size of a block, for sizing reusable output buffers
+    int maxCompressedLength(int length);
+
+    // Compresses into out, which holds at least maxCompressedLength(length) bytes; returns the compressed length
+    int compressBlock(byte[] block, int length, byte[] out);
+
+    default byte[] compressBlock(byte[] block, int length) {
+        byte[] out = new byte[maxCompressedLength(length)];
+        return Arrays.copyOf(out, compressBlock(block, length, out));
+    }
+
+    InputStream decompress(InputStream in) throws IOException;
+}
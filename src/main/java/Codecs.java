@@ -0,0 +1,109 @@
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+
+// Codec registry and the automatic policy. Set blackbox.compression.codec to auto (default),
+// store, lz, deflate or deflate:<1-9> to choose how new entries are compressed.
+public class Codecs {
+    public static final Codec STORE = new StoreCodec();
+    public static final Codec DEFLATE = new DeflateCodec(6);
+    public static final Codec LZ = new LzCodec();
+
+    // How much of each entry the automatic policy looks at
+    public static final int SAMPLE_SIZE = 256 * 1024;
+    private static final int WINDOW_SIZE = 32 * 1024;
+    private static final double RANDOM_ENTROPY = 7.95;   // Bits per byte above which data is not worth a trial
+    private static final double STORE_RATIO = 0.97;
+    private static final double LZ_RATIO = 0.80;          // Barely compressible: not worth Deflate's time
+
+    // Formats that are compressed already; recompressing them gains nothing
+    private static final List<String> COMPRESSED_TYPES = List.of(
+            "image/jpeg", "image/png", "image/gif", "image/webp", "image/heic", "image/avif",
+            "video/", "audio/mpeg", "audio/mp4", "audio/aac", "audio/ogg", "audio/flac", "audio/opus",
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-bzip2",
+            "application/x-xz", "application/zstd", "application/x-7z-compressed", "application/x-rar-compressed",
+            "application/vnd.rar", "application/java-archive", "application/epub+zip",
+            "application/vnd.openxmlformats-", "application/vnd.oasis.opendocument.");
+
+    public static Codec forId(int id) throws IOException {
+        return switch (id) {
+            case Codec.STORE -> STORE;
+            case Codec.DEFLATE -> DEFLATE; // The level only matters when compressing
+            case Codec.LZ -> LZ;
+            default -> throw new IOException("Unsupported compression codec: " + id);
+        };
+    }
+
+    // Parses a codec name; returns null for "auto"
+    public static Codec forName(String name) {
+        String lower = name.trim().toLowerCase();
+        if (lower.equals("auto")) return null;
+        if (lower.equals("store")) return STORE;
+        if (lower.equals("lz")) return LZ;
+        if (lower.equals("deflate")) return DEFLATE;
+        if (lower.startsWith("deflate:")) {
+            try {
+                return new DeflateCodec(Integer.parseInt(lower.substring("deflate:".length())));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid deflate level: " + name);
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression codec: " + name);
+    }
+
+    // Picks the codec for an entry from the start of its content. The sampled bytes are
+    // pushed back, so the stream still yields the whole input afterwards.
+    public static Codec select(PushbackInputStream in, String contentType) throws IOException {
+        Codec configured = forName(System.getProperty("blackbox.compression.codec", "auto"));
+        if (configured != null) return configured;
+
+        byte[] sample = in.readNBytes(SAMPLE_SIZE);
+        in.unread(sample);
+        return choose(sample, sample.length, contentType);
+    }
+
+    static Codec choose(byte[] sample, int length, String contentType) {
+        if (contentType != null) {
+            String type = contentType.toLowerCase();
+            for (String compressed : COMPRESSED_TYPES) {
+                if (type.startsWith(compressed)) return STORE;
+            }
+        }
+        if (length < 64) return DEFLATE; // Too little to judge
+
+        // Windows from the start, middle and end of the sample catch files with a compressible header only
+        long raw = 0;
+        long compressed = 0;
+        for (int start : new int[]{0, (length - WINDOW_SIZE) / 2, length - WINDOW_SIZE}) {
+            int from = Math.max(0, start);
+            int windowLength = Math.min(WINDOW_SIZE, length - from);
+            raw += windowLength;
+            if (entropy(sample, from, windowLength) > RANDOM_ENTROPY) {
+                compressed += windowLength;
+                continue;
+            }
+            byte[] window = Arrays.copyOfRange(sample, from, from + windowLength);
+            compressed += Math.min(windowLength, LZ.compressBlock(window, windowLength).length);
+        }
+
+        double ratio = (double) compressed / raw;
+        if (ratio >= STORE_RATIO) return STORE;
+        if (ratio >= LZ_RATIO) return LZ;
+        return DEFLATE;
+    }
+
+    // Shannon entropy in bits per byte
+    static double entropy(byte[] data, int offset, int length) {
+        int[] counts = new int[256];
+        for (int i = offset; i < offset + length; i++) {
+            counts[data[i] & 0xFF]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count == 0) continue;
+            double p = (double) count / length;
+            entropy -= p * Math.log(p) / Math.log(2);
+        }
+        return entropy;
+    }
+}
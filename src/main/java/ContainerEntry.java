@@ -0,0 +1,217 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// One row of the container's table of contents. Fields are written as tagged,
+// length-prefixed values so newer fields can be added without breaking older readers.
+public class ContainerEntry {
+    private static final int TAG_END = 0;
+    private static final int TAG_NAME = 1;
+    private static final int TAG_TYPE = 2;
+    private static final int TAG_OFFSET = 3;
+    private static final int TAG_LENGTH = 4;
+    private static final int TAG_ORIGINAL_SIZE = 5;
+    private static final int TAG_STORED_SIZE = 6;
+    private static final int TAG_CHUNKS = 7;
+    private static final int TAG_CODEC = 8;
+    private static final int TAG_BLOCKS = 9;
+    private static final int TAG_ROOT = 10;
+    private static final int TAG_MODIFIED = 11;
+
+    private final String name;
+    private final String type;
+    private final long offset;      // Start of the encrypted segment in the container
+    private final long length;      // Length of the encrypted segment
+    private final long originalSize;
+    private final long storedSize;  // Size of the compressed data before encryption
+    private final int codec;        // Codec id of the segment; chunks record their own
+    private final List<String> chunks; // Deduplicated content: chunk hashes in order, or null for a segment
+    private final BlockIndex blocks;   // Compressed blocks of a segment, or null when not recorded
+    private final byte[] root;         // MerkleTree root of the encrypted segment, or null when not recorded
+    private final long modified;       // Last modification of the source in epoch milliseconds, 0 when unknown
+
+    public ContainerEntry(String name, String type, long offset, long length, long originalSize, long storedSize) {
+        this(name, type, offset, length, originalSize, storedSize, Codec.DEFLATE, null);
+    }
+
+    public ContainerEntry(String name, String type, long offset, long length, long originalSize, long storedSize,
+            int codec, List<String> chunks) {
+        this(name, type, offset, length, originalSize, storedSize, codec, chunks, null);
+    }
+
+    public ContainerEntry(String name, String type, long offset, long length, long originalSize, long storedSize,
+            int codec, List<String> chunks, BlockIndex blocks) {
+        this(name, type, offset, length, originalSize, storedSize, codec, chunks, blocks, null);
+    }
+
+    public ContainerEntry(String name, String type, long offset, long length, long originalSize, long storedSize,
+            int codec, List<String> chunks, BlockIndex blocks, byte[] root) {
+        this(name, type, offset, length, originalSize, storedSize, codec, chunks, blocks, root, 0);
+    }
+
+    private ContainerEntry(String name, String type, long offset, long length, long originalSize, long storedSize,
+            int codec, List<String> chunks, BlockIndex blocks, byte[] root, long modified) {
+        this.name = name;
+        this.type = type;
+        this.offset = offset;
+        this.length = length;
+        this.originalSize = originalSize;
+        this.storedSize = storedSize;
+        this.codec = codec;
+        this.chunks = chunks;
+        this.blocks = blocks;
+        this.root = root;
+        this.modified = modified;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        writeString(out, TAG_NAME, name);
+        writeString(out, TAG_TYPE, type);
+        writeLong(out, TAG_OFFSET, offset);
+        writeLong(out, TAG_LENGTH, length);
+        writeLong(out, TAG_ORIGINAL_SIZE, originalSize);
+        writeLong(out, TAG_STORED_SIZE, storedSize);
+        out.writeByte(TAG_CODEC);
+        out.writeInt(Integer.BYTES);
+        out.writeInt(codec);
+        if (chunks != null) {
+            out.writeByte(TAG_CHUNKS);
+            out.writeInt(chunks.size() * ChunkRecord.HASH_LENGTH);
+            for (String hash : chunks) {
+                out.write(HexFormat.of().parseHex(hash));
+            }
+        }
+        if (blocks != null) {
+            out.writeByte(TAG_BLOCKS);
+            out.writeInt(blocks.getEncodedSize());
+            blocks.writeTo(out);
+        }
+        if (root != null) {
+            out.writeByte(TAG_ROOT);
+            out.writeInt(root.length);
+            out.write(root);
+        }
+        if (modified != 0) writeLong(out, TAG_MODIFIED, modified);
+        out.writeByte(TAG_END);
+    }
+
+    static ContainerEntry readFrom(DataInputStream in) throws IOException {
+        String name = null;
+        String type = "unknown";
+        long offset = -1;
+        long length = -1;
+        long originalSize = 0;
+        long storedSize = 0;
+        int codec = Codec.DEFLATE; // Entries from before codecs were selectable are gzip
+        List<String> chunks = null;
+        BlockIndex blocks = null;
+        byte[] root = null;
+        long modified = 0;
+
+        int tag;
+        while ((tag = in.readUnsignedByte()) != TAG_END) {
+            int size = in.readInt();
+            switch (tag) {
+                case TAG_NAME -> name = readString(in, size);
+                case TAG_TYPE -> type = readString(in, size);
+                case TAG_OFFSET -> offset = in.readLong();
+                case TAG_LENGTH -> length = in.readLong();
+                case TAG_ORIGINAL_SIZE -> originalSize = in.readLong();
+                case TAG_STORED_SIZE -> storedSize = in.readLong();
+                case TAG_CHUNKS -> chunks = readHashes(in, size);
+                case TAG_CODEC -> codec = in.readInt();
+                case TAG_BLOCKS -> blocks = BlockIndex.readFrom(in, size);
+                case TAG_ROOT -> root = in.readNBytes(size);
+                case TAG_MODIFIED -> modified = in.readLong();
+                default -> in.skipNBytes(size); // Field from a newer version
+            }
+        }
+
+        if (name == null || offset < 0 || length < 0) {
+            throw new IOException("Corrupt table of contents entry");
+        }
+        return new ContainerEntry(name, type, offset, length, originalSize, storedSize, codec, chunks, blocks, root)
+                .withModified(modified);
+    }
+
+    ContainerEntry withModified(long modified) {
+        return new ContainerEntry(name, type, offset, length, originalSize, storedSize, codec, chunks, blocks, root,
+                modified);
+    }
+
+    private static List<String> readHashes(DataInputStream in, int size) throws IOException {
+        if (size % ChunkRecord.HASH_LENGTH != 0) throw new IOException("Corrupt chunk list");
+        List<String> hashes = new ArrayList<>(size / ChunkRecord.HASH_LENGTH);
+        byte[] hash = new byte[ChunkRecord.HASH_LENGTH];
+        for (int i = 0; i < size; i += hash.length) {
+            in.readFully(hash);
+            hashes.add(HexFormat.of().formatHex(hash));
+        }
+        return hashes;
+    }
+
+    private static void writeString(DataOutputStream out, int tag, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(tag);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeLong(DataOutputStream out, int tag, long value) throws IOException {
+        out.writeByte(tag);
+        out.writeInt(Long.BYTES);
+        out.writeLong(value);
+    }
+
+    private static String readString(DataInputStream in, int size) throws IOException {
+        return new String(in.readNBytes(size), StandardCharsets.UTF_8);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getOriginalSize() {
+        return originalSize;
+    }
+
+    public long getStoredSize() {
+        return storedSize;
+    }
+
+    public int getCodec() {
+        return codec;
+    }
+
+    public boolean isChunked() {
+        return chunks != null;
+    }
+
+    public List<String> getChunks() {
+        return chunks;
+    }
+
+    public BlockIndex getBlocks() {
+        return blocks;
+    }
+
+    public byte[] getRoot() {
+        return root;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+}
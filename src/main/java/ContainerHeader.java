@@ -0,0 +1,159 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+public class ContainerHeader {
+    public static final int MAGIC = 0x424C4B58; // "BLKX"
+    public static final int VERSION = 6;
+    public static final int VERSION_GZIP = 5;      // Every entry and chunk compressed as gzip
+    public static final int VERSION_WRAPPED = 4;   // No chunk table: every entry is a segment of its own
+    public static final int VERSION_UNWRAPPED = 3; // Data encrypted directly with the password-derived key
+    public static final int VERSION_CBC = 2;       // ...and segments encrypted as a single AES-CBC stream
+    // Space reserved at the start of the file so the header can grow without moving entry data
+    public static final int SIZE = 512;
+    private static final int SLOT_SIZE = SIZE / 2;           // Primary copy, then the shadow copy
+    private static final int CHECKSUM_OFFSET = SLOT_SIZE - 4; // CRC-32 of the bytes of the copy before it
+
+    private final int version;
+    private byte[] salt;
+    private byte[] wrappedKey;
+    private long tocOffset;
+    private long tocLength;
+
+    public ContainerHeader(ContainerKey key) {
+        this(VERSION, key.getSalt(), key.getWrappedKey(), 0, 0);
+    }
+
+    private ContainerHeader(int version, byte[] salt, byte[] wrappedKey, long tocOffset, long tocLength) {
+        this.version = version;
+        this.salt = salt;
+        this.wrappedKey = wrappedKey;
+        this.tocOffset = tocOffset;
+        this.tocLength = tocLength;
+    }
+
+    // Legacy containers start straight with the random salt, so a missing magic means the old format.
+    // A primary copy torn by a crash still leaves the shadow copy to go by.
+    public static boolean isIndexed(FileChannel channel) throws IOException {
+        if (channel.size() < SIZE) return false;
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        readFully(channel, buffer, 0);
+        return buffer.getInt(0) == MAGIC || isIntact(buffer, SLOT_SIZE);
+    }
+
+    // The header is kept twice: the primary copy at the start and a shadow copy in the second half of the
+    // reserved space, each ending in a CRC-32. Readers take the primary copy unless it fails its checksum.
+    // Headers written before the shadow copy existed have no checksum and are read as they are.
+    public static ContainerHeader read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        readFully(channel, buffer, 0);
+
+        if (isIntact(buffer, 0)) return parse(buffer, 0, channel.size());
+        if (isIntact(buffer, SLOT_SIZE)) return parse(buffer, SLOT_SIZE, channel.size());
+        if (buffer.getInt(CHECKSUM_OFFSET) == 0 && buffer.getInt(0) == MAGIC) return parse(buffer, 0, channel.size());
+        throw new IOException(buffer.getInt(0) == MAGIC ? "Corrupt container header" : "Not a BlackBox container");
+    }
+
+    private static boolean isIntact(ByteBuffer buffer, int slot) {
+        int checksum = buffer.getInt(slot + CHECKSUM_OFFSET);
+        return checksum != 0 && checksum == checksum(buffer, slot) && buffer.getInt(slot) == MAGIC;
+    }
+
+    private static int checksum(ByteBuffer buffer, int slot) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(slot, CHECKSUM_OFFSET));
+        return (int) crc.getValue();
+    }
+
+    private static ContainerHeader parse(ByteBuffer header, int slot, long fileSize) throws IOException {
+        ByteBuffer buffer = header.slice(slot, SLOT_SIZE);
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a BlackBox container");
+        }
+        int version = buffer.getInt();
+        if (version < VERSION_CBC || version > VERSION) {
+            throw new IOException("Unsupported container version: " + version);
+        }
+
+        byte[] salt = new byte[EncryptionUtil.SALT_LENGTH];
+        buffer.get(salt);
+        byte[] wrappedKey = null;
+        if (version >= VERSION_WRAPPED) {
+            int length = buffer.getShort();
+            if (length <= 0 || length > 64) throw new IOException("Corrupt container header");
+            wrappedKey = new byte[length];
+            buffer.get(wrappedKey);
+        }
+        long tocOffset = buffer.getLong();
+        long tocLength = buffer.getLong();
+        if (tocOffset < SIZE || tocLength < 0 || tocOffset + tocLength > fileSize) {
+            throw new IOException("Container table of contents is out of bounds");
+        }
+        return new ContainerHeader(version, salt, wrappedKey, tocOffset, tocLength);
+    }
+
+    // The shadow copy is written and forced first, so a crash while writing either copy leaves one intact.
+    // A reader that catches the primary copy half written takes the shadow copy, which is already complete.
+    public void write(FileChannel channel) throws IOException {
+        // The header layout is the same since wrapped keys were added, so older files can get a new password in place
+        if (version < VERSION_WRAPPED) throw new IOException("Only containers with a wrapped key can be written");
+        ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(version);
+        buffer.put(salt);
+        buffer.putShort((short) wrappedKey.length);
+        buffer.put(wrappedKey);
+        buffer.putLong(tocOffset);
+        buffer.putLong(tocLength);
+        buffer.putInt(CHECKSUM_OFFSET, checksum(buffer, 0));
+
+        writeFully(channel, buffer.clear(), SLOT_SIZE);
+        channel.force(false);
+        writeFully(channel, buffer.clear(), 0);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException("Unexpected end of container");
+            position += read;
+        }
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    public byte[] getWrappedKey() {
+        return wrappedKey;
+    }
+
+    public long getTocOffset() {
+        return tocOffset;
+    }
+
+    public long getTocLength() {
+        return tocLength;
+    }
+
+    public void setKey(ContainerKey key) {
+        this.salt = key.getSalt();
+        this.wrappedKey = key.getWrappedKey();
+    }
+
+    public void setToc(long offset, long length) {
+        this.tocOffset = offset;
+        this.tocLength = length;
+    }
+}
@@ -0,0 +1,75 @@
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+// The unlocked key material of a container. Entry data is encrypted with a random data key, which is
+// stored in the header wrapped by a key derived from the password. PBKDF2 therefore runs once when
+// the container is unlocked, and changing the password only rewrites the wrapped key.
+public class ContainerKey {
+    private final byte[] salt;
+    private final byte[] wrappedKey; // null for containers written before key wrapping
+    private final SecretKey dataKey;
+
+    private ContainerKey(byte[] salt, byte[] wrappedKey, SecretKey dataKey) {
+        this.salt = salt;
+        this.wrappedKey = wrappedKey;
+        this.dataKey = dataKey;
+    }
+
+    public static ContainerKey generate(String password) throws Exception {
+        byte[] salt = EncryptionUtil.generateSalt();
+        SecretKey dataKey = EncryptionUtil.generateDataKey();
+        SecretKey keyEncryptionKey = EncryptionUtil.deriveKey(password, salt);
+        return new ContainerKey(salt, EncryptionUtil.wrapKey(keyEncryptionKey, dataKey), dataKey);
+    }
+
+    // Older formats encrypted the data directly with the password-derived key
+    static ContainerKey derive(String password, byte[] salt) throws Exception {
+        return new ContainerKey(salt, null, EncryptionUtil.deriveKey(password, salt));
+    }
+
+    static ContainerKey unlock(String password, byte[] salt, byte[] wrappedKey) throws Exception {
+        SecretKey keyEncryptionKey = EncryptionUtil.deriveKey(password, salt);
+        try {
+            return new ContainerKey(salt, wrappedKey, EncryptionUtil.unwrapKey(keyEncryptionKey, wrappedKey));
+        } catch (GeneralSecurityException e) {
+            throw new AuthenticationException(e);
+        }
+    }
+
+    public boolean isLegacy() {
+        return wrappedKey == null;
+    }
+
+    // A key for rewriting a legacy container: a fresh data key wrapped by the same password-derived key
+    public ContainerKey upgraded() throws Exception {
+        if (!isLegacy()) return this;
+        SecretKey newDataKey = EncryptionUtil.generateDataKey();
+        return new ContainerKey(salt, EncryptionUtil.wrapKey(dataKey, newDataKey), newDataKey);
+    }
+
+    // Same data key, wrapped for a new password
+    public ContainerKey rewrap(String newPassword) throws Exception {
+        if (isLegacy()) throw new IllegalStateException("Legacy keys must be upgraded first");
+        byte[] newSalt = EncryptionUtil.generateSalt();
+        SecretKey keyEncryptionKey = EncryptionUtil.deriveKey(newPassword, newSalt);
+        return new ContainerKey(newSalt, EncryptionUtil.wrapKey(keyEncryptionKey, dataKey), dataKey);
+    }
+
+    boolean matches(ContainerHeader header) {
+        return Arrays.equals(salt, header.getSalt()) && Arrays.equals(wrappedKey, header.getWrappedKey());
+    }
+
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    public byte[] getWrappedKey() {
+        return wrappedKey;
+    }
+
+    public SecretKey getDataKey() {
+        return dataKey;
+    }
+}
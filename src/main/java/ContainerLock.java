@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Map;
+
+// Multi-reader, single-writer protocol for a container shared by threads and processes. The locks are
+// byte-range locks on a "<container>.lock" file next to the container rather than on the container
+// itself, because rewriting a container replaces its file and a lock on the old file would not be seen
+// by anyone opening the new one. The lock file is never deleted, as that would race with its users.
+// Readers hold the first byte shared for as long as they are open: they read segments by offset, so
+// the file may only be replaced while none holds it. The one writer holds the second byte. Writers
+// only append and switch the header last, so readers need no lock to see a consistent commit.
+// The JVM allows one FileLock per file region, so holders within this JVM are counted here and share it.
+public class ContainerLock implements AutoCloseable {
+    private static final int READERS = 0;
+    private static final int WRITER = 1;
+
+    private static final Map<Path, LockFile> LOCK_FILES = new HashMap<>();
+
+    interface IOAction<T> {
+        T run() throws Exception;
+    }
+
+    private final LockFile file;
+    private final int region;
+    private final boolean shared;
+    private boolean closed;
+
+    private ContainerLock(LockFile file, int region, boolean shared) {
+        this.file = file;
+        this.region = region;
+        this.shared = shared;
+    }
+
+    // Waits while the container is being replaced
+    public static ContainerLock reader(Path container) throws IOException {
+        return acquire(container, READERS, true, true);
+    }
+
+    // Fails at once when another thread or process is writing to the container
+    public static ContainerLock writer(Path container) throws IOException {
+        ContainerLock lock = acquire(container, WRITER, false, false);
+        if (lock == null) throw new IOException("Container is open for writing elsewhere: " + container);
+        return lock;
+    }
+
+    // Runs action, which replaces the container's file, if no reader has it open; otherwise returns false
+    static boolean replacing(Path container, IOAction<?> action) throws Exception {
+        try (ContainerLock lock = acquire(container, READERS, false, false)) {
+            if (lock == null) return false;
+            action.run();
+            return true;
+        }
+    }
+
+    // Null when wait is false and the lock is taken
+    private static ContainerLock acquire(Path container, int region, boolean shared, boolean wait) throws IOException {
+        LockFile file = open(container);
+        try {
+            if (file.acquire(region, shared, wait)) return new ContainerLock(file, region, shared);
+        } catch (IOException | RuntimeException e) {
+            release(file);
+            throw e;
+        }
+        release(file);
+        return null;
+    }
+
+    private static LockFile open(Path container) throws IOException {
+        Path path = container.toAbsolutePath().normalize();
+        synchronized (LOCK_FILES) {
+            LockFile file = LOCK_FILES.get(path);
+            if (file == null) {
+                Path lockPath = path.resolveSibling(path.getFileName() + ".lock");
+                file = new LockFile(path, FileChannel.open(lockPath, StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE));
+                LOCK_FILES.put(path, file);
+            }
+            file.users++;
+            return file;
+        }
+    }
+
+    private static void release(LockFile file) throws IOException {
+        synchronized (LOCK_FILES) {
+            if (--file.users == 0) {
+                LOCK_FILES.remove(file.container);
+                file.channel.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        try {
+            file.release(region, shared);
+        } finally {
+            release(file);
+        }
+    }
+
+    private static class LockFile {
+        final Path container;
+        final FileChannel channel;
+        final int[] sharers = new int[2];            // Holders of each shared lock in this JVM
+        final boolean[] exclusive = new boolean[2];
+        final FileLock[] locks = new FileLock[2];    // Held for this JVM while anyone here holds the region
+        int users;                                   // Guarded by LOCK_FILES
+
+        LockFile(Path container, FileChannel channel) {
+            this.container = container;
+            this.channel = channel;
+        }
+
+        // Threads of this JVM queue on the monitor; other processes through the file lock
+        synchronized boolean acquire(int region, boolean shared, boolean wait) throws IOException {
+            while (exclusive[region] || (!shared && sharers[region] > 0)) {
+                if (!wait) return false;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for the container lock");
+                }
+            }
+            if (locks[region] == null) {
+                FileLock lock = wait ? channel.lock(region, 1, shared) : channel.tryLock(region, 1, shared);
+                if (lock == null) return false;
+                locks[region] = lock;
+            }
+            if (shared) {
+                sharers[region]++;
+            } else {
+                exclusive[region] = true;
+            }
+            return true;
+        }
+
+        synchronized void release(int region, boolean shared) throws IOException {
+            if (shared) {
+                sharers[region]--;
+            } else {
+                exclusive[region] = false;
+            }
+            if (sharers[region] == 0 && !exclusive[region]) {
+                FileLock lock = locks[region];
+                locks[region] = null;
+                if (lock != null && lock.isValid()) lock.release();
+            }
+            notifyAll();
+        }
+    }
+}
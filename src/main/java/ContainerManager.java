@@ -1,50 +1,913 @@
 import javax.crypto.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
 import java.nio.file.*;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+// Container layout (version 6):
+//   [header, ContainerHeader.SIZE bytes][entry or chunk segment]...[table of contents segment]...
+// Every segment is encrypted on its own in the ChunkedCipher format (version 2 used one IV followed
+// by AES-CBC ciphertext), and the header points at the latest table of contents, so entries can be
+// listed or read without touching the others. The header also holds the wrapped data key (see ContainerKey).
+// Saves append new segments and a new table of contents; superseded segments are left behind as dead space
+// until a compaction copies the live segments into a new file and swaps it in.
+// Deduplicated entries have no segment of their own: they list chunks from the chunk table at the end of the
+// table of contents, and every distinct chunk is stored once.
 public class ContainerManager {
+    // Runs PBKDF2 once: the returned key is kept for the rest of the session
+    public static ContainerKey unlock(String containerPath, String password) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(containerPath, "r");
+             FileChannel channel = file.getChannel()) {
+            if (!ContainerHeader.isIndexed(channel)) {
+                byte[] salt = new byte[EncryptionUtil.SALT_LENGTH];
+                if (file.read(salt) != salt.length) throw new IOException("Invalid salt");
+                return ContainerKey.derive(password, salt);
+            }
+
+            ContainerHeader header = ContainerHeader.read(channel);
+            if (header.getWrappedKey() == null) {
+                return ContainerKey.derive(password, header.getSalt());
+            }
+            return ContainerKey.unlock(password, header.getSalt(), header.getWrappedKey());
+        }
+    }
+
     public static void saveContainer(String containerPath, String password, Map<String, StoredFile> files) throws Exception {
-        try {
+        // A wrong password fails here and leaves the container alone; changePassword is the way to re-key
+        ContainerKey key = Files.exists(Paths.get(containerPath))
+                ? unlock(containerPath, password).upgraded()
+                : ContainerKey.generate(password);
+        saveContainer(containerPath, key, files);
+    }
+
+    public static void saveContainer(String containerPath, ContainerKey key, Map<String, StoredFile> files) throws Exception {
+        saveContainer(containerPath, key, files, null);
+    }
+
+    // textIndex is stored along with the entries when it changed since it was last saved; without one, an
+    // appending save keeps the stored text index as it is and a full rewrite leaves it out
+    public static void saveContainer(String containerPath, ContainerKey key, Map<String, StoredFile> files,
+            TextIndex textIndex) throws Exception {
+        try (Phase phase = Phase.start(Phase.SAVE)) {
+            phase.bytesIn(files.values().stream().mapToLong(StoredFile::getOriginalSize).sum());
+            if (key.isLegacy()) {
+                throw new IllegalArgumentException("Legacy keys must be upgraded before saving");
+            }
             // Validate path accessibility
-            Path container = Paths.get(containerPath);
+            Path container = Paths.get(containerPath).toAbsolutePath().normalize();
             if (!Files.isWritable(container.getParent())) {
                 throw new IOException("No write permission for directory: " + container.getParent());
             }
 
-            byte[] salt = Files.exists(Paths.get(containerPath))
-                    ? readExistingSalt(containerPath)
-                    : EncryptionUtil.generateSalt();
+            if (Files.exists(container) && appendToContainer(container, key, files, textIndex)) {
+                phase.bytesOut(Files.size(container));
+                return;
+            }
 
-            byte[] iv = EncryptionUtil.generateIV();
-            SecretKey key = EncryptionUtil.deriveKey(password, salt);
+            // Entries may still be read from the old file, so the new one is built next to it and moved over
+            ContainerHeader header = new ContainerHeader(key);
+            Path temp = Files.createTempFile(container.getParent(), container.getFileName().toString(), ".tmp");
+            try {
+                Toc written;
+                try (RandomAccessFile file = new RandomAccessFile(temp.toFile(), "rw");
+                     FileChannel channel = file.getChannel()) {
+                    channel.position(ContainerHeader.SIZE);
+                    written = writeEntries(channel, key.getDataKey(), files, new Toc(), container);
+                    writeTextIndex(channel, key.getDataKey(), textIndex, new Toc(), written);
+                    commitToc(channel, key.getDataKey(), header, written);
+                }
+                // Readers of the old file would find the new one's segments at their old offsets
+                if (!ContainerLock.replacing(container, () -> Files.move(temp, container,
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE))) {
+                    throw new IOException("Container is open for reading elsewhere: " + container);
+                }
+                phase.bytesOut(Files.size(container));
+                markPersisted(container, key, files, written);
+                if (textIndex != null) textIndex.markSaved();
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (Exception e) {
+            throw new Exception("Save error: " + e.getMessage(), e);
+        }
+    }
+
+    // Re-wraps the data key for the new password; only the header is rewritten
+    public static ContainerKey changePassword(String containerPath, ContainerKey key, String newPassword) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(containerPath, "rw");
+             FileChannel channel = file.getChannel()) {
+            ContainerHeader header = ContainerHeader.read(channel);
+            if (header.getVersion() < ContainerHeader.VERSION_WRAPPED || !key.matches(header)) {
+                throw new IOException("Container must be saved in the current format before changing its password");
+            }
+            ContainerKey newKey = key.rewrap(newPassword);
+            header.setKey(newKey);
+            header.write(channel);
+            channel.force(false);
+            return newKey;
+        }
+    }
 
-            try (OutputStream os = new FileOutputStream(containerPath);
-                 CipherOutputStream cipherOut = new CipherOutputStream(os,
-                         EncryptionUtil.getEncryptCipher(key, iv))) {
+    // True when entries can be streamed into the container with openAppender
+    public static boolean isCurrentFormat(String containerPath, ContainerKey key) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(containerPath, "r");
+             FileChannel channel = file.getChannel()) {
+            if (!ContainerHeader.isIndexed(channel)) return false;
+            ContainerHeader header = ContainerHeader.read(channel);
+            return header.getVersion() == ContainerHeader.VERSION && key.matches(header);
+        }
+    }
 
-                os.write(salt);
-                os.write(iv);
+    public static Appender openAppender(String containerPath, ContainerKey key) throws Exception {
+        return new Appender(containerPath, key);
+    }
+
+    // Streams entries straight into an existing container: content is compressed and encrypted on the
+    // way in and never staged on disk. Nothing becomes visible until commit(); closing without it leaves
+    // the container as it was, apart from dead space at the end.
+    public static class Appender implements AutoCloseable {
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final ContainerHeader header;
+        private final SecretKey key;
+        private final Map<String, ContainerEntry> entries = new LinkedHashMap<>();
+        private final Toc stored;
+        private TextIndex textIndex;  // Read when an entry first has to be indexed or dropped from it
 
-                try (ObjectOutputStream oos = new ObjectOutputStream(cipherOut)) {
-                    oos.writeObject(files);
+        private Appender(String containerPath, ContainerKey containerKey) throws Exception {
+            file = new RandomAccessFile(containerPath, "rw");
+            try {
+                channel = file.getChannel();
+                if (!ContainerHeader.isIndexed(channel)) throw new IOException("Not a BlackBox container");
+                header = ContainerHeader.read(channel);
+                if (header.getVersion() != ContainerHeader.VERSION || !containerKey.matches(header)) {
+                    throw new IOException("Container must be saved in the current format first");
+                }
+                key = containerKey.getDataKey();
+                stored = readToc(channel, header, key);
+                for (ContainerEntry entry : stored.entries) {
+                    entries.put(entry.getName(), entry);
                 }
+                channel.position(channel.size());
+            } catch (Exception e) {
+                file.close();
+                throw e;
             }
+        }
+
+        // Adds or replaces an entry. Compression runs on its own thread and feeds the cipher through a pipe.
+        public ContainerEntry add(String name, String type, InputStream in) throws Exception {
+            TextIndex.Terms indexed = TextIndex.isIndexable(type) ? new TextIndex.Terms(in) : null;
+            PushbackInputStream source = new PushbackInputStream(indexed != null ? indexed : in, Codecs.SAMPLE_SIZE);
+            Codec codec = Codecs.select(source, type);
+            PipedInputStream compressed = new PipedInputStream(BufferPool.IO_BUFFER_SIZE);
+            long[] storedSize = new long[1];
+            BlockIndex.Builder blocks = new BlockIndex.Builder(ParallelCompressor.DEFAULT_BLOCK_SIZE);
+            OutputStream sink = new FilterOutputStream(new PipedOutputStream(compressed)) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    storedSize[0] += len;
+                }
+            };
+            FutureTask<Long> compressor = new FutureTask<>(() -> {
+                try (sink) {
+                    return ParallelCompressor.compress(codec, source, sink, ParallelCompressor.DEFAULT_BLOCK_SIZE,
+                            totalRead -> {}, blocks::add);
+                }
+            });
+            Thread thread = new Thread(compressor, "blackbox-compress");
+            thread.setDaemon(true);
+            thread.start();
+
+            long offset = channel.position();
+            long length;
+            byte[][] root = new byte[1][];
+            try {
+                length = writeSegment(channel, key, compressed, r -> root[0] = r);
+            } finally {
+                compressed.close(); // Unblocks the compressor if the write failed
+            }
+            long originalSize;
+            try {
+                originalSize = compressor.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+
+            ContainerEntry entry = new ContainerEntry(name, type, offset, length, originalSize, storedSize[0],
+                    codec.getId(), null, blocks.build(), root[0]).withModified(System.currentTimeMillis());
+            entries.remove(name);
+            entries.put(name, entry);
+            if (indexed != null) {
+                getTextIndex().add(name, indexed.get());
+            } else {
+                unindex(name);
+            }
+            return entry;
+        }
+
+        // Leaves the entry out of the next table of contents; its segment becomes dead space
+        public boolean remove(String name) throws Exception {
+            if (entries.remove(name) == null) return false;
+            unindex(name);
+            return true;
+        }
+
+        private TextIndex getTextIndex() throws Exception {
+            if (textIndex == null) textIndex = readTextIndex(channel, header, key, stored);
+            return textIndex;
+        }
+
+        // A container without a stored index has nothing to drop
+        private void unindex(String name) throws Exception {
+            if (textIndex != null || stored.textIndexLength > 0) getTextIndex().remove(name);
+        }
+
+        public void commit() throws Exception {
+            Toc toc = new Toc();
+            toc.entries.addAll(entries.values());
+            for (ContainerEntry entry : toc.entries) {
+                if (!entry.isChunked()) continue;
+                for (String hash : entry.getChunks()) {
+                    toc.chunks.putIfAbsent(hash, stored.chunks.get(hash));
+                }
+            }
+            writeTextIndex(channel, key, textIndex, stored, toc);
+            commitToc(channel, key, header, toc);
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    // Bytes of the file no longer referenced by the table of contents: segments of removed or replaced
+    // entries, chunks no entry uses, and superseded tables of contents. 0 for formats that are not appended to.
+    public static long getDeadSpace(String containerPath, ContainerKey key) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(containerPath, "r");
+             FileChannel channel = file.getChannel()) {
+            if (!ContainerHeader.isIndexed(channel)) return 0;
+            ContainerHeader header = readHeader(channel, key);
+            if (header.getVersion() != ContainerHeader.VERSION) return 0;
+            return channel.size() - getLiveBytes(header, readToc(channel, header, key.getDataKey()));
+        }
+    }
+
+    private static long getLiveBytes(ContainerHeader header, Toc toc) {
+        long live = ContainerHeader.SIZE + header.getTocLength();
+        for (ContainerEntry entry : toc.entries) {
+            if (!entry.isChunked()) live += entry.getLength();
+        }
+        for (ChunkRecord record : toc.chunks.values()) {
+            live += record.getLength();
+        }
+        return live + toc.textIndexLength;
+    }
+
+    // Compacts a container no one else has open, at full speed. Returns false if there was nothing to compact.
+    public static boolean compact(String containerPath, ContainerKey key, ProgressTracker tracker) throws Exception {
+        Compaction compaction = prepareCompaction(Paths.get(containerPath).toAbsolutePath().normalize(), key,
+                tracker, Long.MAX_VALUE);
+        return compaction != null && compaction.install(List.of(), null);
+    }
+
+    // Copies the live segments, in file order, into a new file next to the container. The container stays in
+    // use meanwhile: appends only add to its end, and install() refuses the copy if one happened. Segments
+    // are encrypted on their own, so they are copied as they are, without being decrypted. The copy is paced
+    // to bytesPerSecond so foreground reads keep most of the disk. Returns null for formats that are not
+    // appended to; they are rewritten in full on their next save anyway.
+    static Compaction prepareCompaction(Path container, ContainerKey containerKey, ProgressTracker tracker,
+            long bytesPerSecond) throws Exception {
+        Path temp = null;
+        try (RandomAccessFile file = new RandomAccessFile(container.toFile(), "r");
+             FileChannel channel = file.getChannel()) {
+            if (!ContainerHeader.isIndexed(channel)) return null;
+            ContainerHeader header = ContainerHeader.read(channel);
+            if (header.getVersion() != ContainerHeader.VERSION || !containerKey.matches(header)) return null;
+            SecretKey key = containerKey.getDataKey();
+            Toc toc = readToc(channel, header, key);
+            Compaction compaction = new Compaction(container, header, channel.size());
+
+            // Entries and chunks are copied in the order they are stored, so the old file is read front to back
+            List<Object> segments = new ArrayList<>();
+            for (ContainerEntry entry : toc.entries) {
+                if (!entry.isChunked()) segments.add(entry);
+            }
+            segments.addAll(toc.chunks.values());
+            segments.sort(Comparator.comparingLong(segment -> segment instanceof ContainerEntry
+                    ? ((ContainerEntry) segment).getOffset() : ((ChunkRecord) segment).getOffset()));
+            tracker.setTotal(getLiveBytes(header, toc) - ContainerHeader.SIZE - header.getTocLength());
+
+            temp = Files.createTempFile(container.getParent(), container.getFileName().toString(), ".tmp");
+            Throttle throttle = new Throttle(bytesPerSecond);
+            Map<String, ChunkRecord> chunks = new HashMap<>();
+            try (RandomAccessFile copy = new RandomAccessFile(temp.toFile(), "rw");
+                 FileChannel out = copy.getChannel()) {
+                out.position(ContainerHeader.SIZE);
+                for (Object segment : segments) {
+                    long offset = out.position();
+                    if (segment instanceof ContainerEntry) {
+                        ContainerEntry entry = (ContainerEntry) segment;
+                        copySegment(channel, entry.getOffset(), entry.getLength(), out, tracker, throttle);
+                        compaction.entries.put(entry.getOffset(), new ContainerEntry(entry.getName(), entry.getType(),
+                                offset, entry.getLength(), entry.getOriginalSize(), entry.getStoredSize(),
+                                entry.getCodec(), null, entry.getBlocks(), entry.getRoot()).withModified(entry.getModified()));
+                    } else {
+                        ChunkRecord record = (ChunkRecord) segment;
+                        copySegment(channel, record.getOffset(), record.getLength(), out, tracker, throttle);
+                        chunks.put(record.getHash(), new ChunkRecord(record.getHash(), offset, record.getLength(),
+                                record.getRawSize(), record.getStoredSize(), record.getCodec(), record.getRoot()));
+                    }
+                }
+                long textIndexOffset = out.position();
+                copySegment(channel, toc.textIndexOffset, toc.textIndexLength, out, tracker, throttle);
+
+                // Same table of contents, in the same order, with the new locations
+                Toc compacted = new Toc();
+                for (ContainerEntry entry : toc.entries) {
+                    compacted.entries.add(entry.isChunked() ? entry : compaction.entries.get(entry.getOffset()));
+                }
+                for (String hash : toc.chunks.keySet()) {
+                    compacted.chunks.put(hash, chunks.get(hash));
+                }
+                if (toc.textIndexLength > 0) {
+                    compacted.textIndexOffset = textIndexOffset;
+                    compacted.textIndexLength = toc.textIndexLength;
+                }
+                commitToc(out, key, header, compacted);
+                compaction.toc = compacted;
+            }
+            compaction.temp = temp;
+            compaction.dataKey = key;
+            return compaction;
         } catch (Exception e) {
-            throw new Exception("Save error: " + e.getMessage(), e);
+            if (temp != null) Files.deleteIfExists(temp);
+            throw e;
         }
     }
 
-    private static byte[] readExistingSalt(String path) throws IOException {
-        try (InputStream is = new FileInputStream(path)) {
-            byte[] salt = new byte[EncryptionUtil.SALT_LENGTH];
-            if (is.read(salt) != salt.length) throw new IOException("Invalid salt");
-            return salt;
+    private static void copySegment(FileChannel in, long offset, long length, FileChannel out,
+            ProgressTracker tracker, Throttle throttle) throws IOException {
+        long copied = 0;
+        while (copied < length) {
+            long slice = Math.min(BufferPool.IO_BUFFER_SIZE, length - copied);
+            long transferred = in.transferTo(offset + copied, slice, out);
+            if (transferred <= 0) throw new IOException("Container ends inside a segment at " + offset);
+            copied += transferred;
+            tracker.addDone(transferred);
+            throttle.acquire(transferred);
         }
     }
 
-    @SuppressWarnings("unchecked")
+    // Keeps the average rate since the first byte at or below the limit
+    private static class Throttle {
+        private final long bytesPerSecond;
+        private final long startNanos = System.nanoTime();
+        private long bytes;
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(long count) throws IOException {
+            if (bytesPerSecond == Long.MAX_VALUE) return;
+            bytes += count;
+            long due = startNanos + (long) (bytes * 1e9 / bytesPerSecond);
+            long wait = due - System.nanoTime();
+            if (wait <= 0) return;
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Compaction interrupted");
+            }
+        }
+    }
+
+    // A compacted copy waiting to replace its container
+    static class Compaction {
+        private final Path container;
+        private final long size;       // Of the container when the copy was started,
+        private final long tocOffset;  // and where its table of contents was then
+        private final long tocLength;
+        private final Map<Long, ContainerEntry> entries = new HashMap<>(); // By their old offset
+        private Path temp;
+        private Toc toc;
+        private SecretKey dataKey;
+
+        private Compaction(Path container, ContainerHeader header, long size) {
+            this.container = container;
+            this.size = size;
+            this.tocOffset = header.getTocOffset();
+            this.tocLength = header.getTocLength();
+        }
+
+        // Moves the copy over the container and points the given entries and chunk store, which must not be
+        // written to meanwhile, at their new locations. Streams opened before keep reading the old file.
+        // Returns false, dropping the copy, if the container was saved since the copy was started or
+        // another reader has it open.
+        boolean install(Collection<StoredFile> files, ChunkStore chunkStore) throws Exception {
+            try {
+                try (RandomAccessFile file = new RandomAccessFile(container.toFile(), "r");
+                     FileChannel channel = file.getChannel()) {
+                    ContainerHeader current = ContainerHeader.read(channel);
+                    if (current.getTocOffset() != tocOffset || current.getTocLength() != tocLength
+                            || channel.size() != size) {
+                        return false;
+                    }
+                    // The current header, in case the password was changed while copying
+                    try (RandomAccessFile copy = new RandomAccessFile(temp.toFile(), "rw");
+                         FileChannel out = copy.getChannel()) {
+                        ContainerHeader compacted = ContainerHeader.read(out);
+                        current.setToc(compacted.getTocOffset(), compacted.getTocLength());
+                        current.write(out);
+                        out.force(false);
+                    }
+                }
+                if (!ContainerLock.replacing(container, () -> Files.move(temp, container,
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE))) {
+                    return false;
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+
+            for (StoredFile file : files) {
+                ContainerEntry location = file.isDeduplicated() ? null : file.getLocationIn(container);
+                ContainerEntry moved = location != null ? entries.get(location.getOffset()) : null;
+                if (moved != null) {
+                    file.markPersisted(container, moved, new StoredSegment(container, ContainerHeader.VERSION,
+                            dataKey, moved.getOffset(), moved.getLength()));
+                }
+            }
+            if (chunkStore != null) {
+                Map<String, StoredSegment> moved = new HashMap<>();
+                for (ChunkRecord record : toc.chunks.values()) {
+                    moved.put(record.getHash(), new StoredSegment(container, ContainerHeader.VERSION, dataKey,
+                            record.getOffset(), record.getLength()));
+                }
+                chunkStore.relocate(moved);
+            }
+            return true;
+        }
+    }
+
+    // Log-structured save: entries already stored in this container keep their segments, only new or
+    // replaced entries are appended, then a fresh table of contents is written and the header switched
+    // over to it. Returns false when the file cannot be appended to and has to be rewritten instead.
+    private static boolean appendToContainer(Path container, ContainerKey containerKey, Map<String, StoredFile> files,
+            TextIndex textIndex) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(container.toFile(), "rw");
+             FileChannel channel = file.getChannel()) {
+            if (!ContainerHeader.isIndexed(channel)) return false;
+
+            ContainerHeader header = ContainerHeader.read(channel);
+            if (header.getVersion() != ContainerHeader.VERSION || !containerKey.matches(header)) {
+                return false; // Older format or a different key: rewritten from scratch
+            }
+            SecretKey key = containerKey.getDataKey();
+            Toc existing = readToc(channel, header, key);
+
+            long end = channel.size();
+            channel.position(end);
+            Toc written = writeEntries(channel, key, files, existing, container);
+            writeTextIndex(channel, key, textIndex, existing, written);
+            if (channel.position() == end && isUnchanged(existing, written)) {
+                return true;
+            }
+            commitToc(channel, key, header, written);
+            markPersisted(container, containerKey, files, written);
+            if (textIndex != null) textIndex.markSaved();
+            return true;
+        }
+    }
+
+    private static Toc writeEntries(FileChannel channel, SecretKey key,
+            Map<String, StoredFile> files, Toc existing, Path container) throws Exception {
+        Map<Long, ContainerEntry> segments = new HashMap<>();
+        for (ContainerEntry entry : existing.entries) {
+            if (!entry.isChunked()) segments.put(entry.getOffset(), entry);
+        }
+
+        Toc written = new Toc();
+        for (Map.Entry<String, StoredFile> entry : files.entrySet()) {
+            StoredFile storedFile = entry.getValue();
+            if (storedFile.isDeduplicated()) {
+                writeChunks(channel, key, storedFile, existing.chunks, written.chunks);
+                written.entries.add(new ContainerEntry(entry.getKey(), storedFile.getType(), 0, 0,
+                        storedFile.getOriginalSize(), storedFile.getTempFileSize(),
+                        storedFile.getCodec().getId(), storedFile.getChunks()).withModified(storedFile.getModified()));
+                continue;
+            }
+
+            ContainerEntry location = storedFile.getLocationIn(container);
+            ContainerEntry current = location != null ? segments.get(location.getOffset()) : null;
+
+            if (current != null && current.getLength() == location.getLength()) {
+                written.entries.add(new ContainerEntry(entry.getKey(), storedFile.getType(), current.getOffset(),
+                        current.getLength(), current.getOriginalSize(), current.getStoredSize(), current.getCodec(), null,
+                        current.getBlocks(), current.getRoot()).withModified(storedFile.getModified()));
+                continue;
+            }
+
+            long offset = channel.position();
+            try (ReadableByteChannel in = storedFile.openCompressedChannel()) {
+                byte[][] root = new byte[1][];
+                long length = writeSegment(channel, key, in, r -> root[0] = r);
+                written.entries.add(new ContainerEntry(entry.getKey(), storedFile.getType(), offset, length,
+                        storedFile.getOriginalSize(), storedFile.getTempFileSize(), storedFile.getCodec().getId(), null,
+                        storedFile.getBlocks(), root[0]).withModified(storedFile.getModified()));
+            }
+        }
+        return written;
+    }
+
+    // Each distinct chunk is written once; chunks already in this container's chunk table are reused
+    private static void writeChunks(FileChannel channel, SecretKey key, StoredFile storedFile,
+            Map<String, ChunkRecord> existing, Map<String, ChunkRecord> written) throws Exception {
+        ChunkStore store = storedFile.getChunkStore();
+        for (String hash : storedFile.getChunks()) {
+            if (written.containsKey(hash)) continue;
+            ChunkRecord current = existing.get(hash);
+            if (current != null) {
+                written.put(hash, current);
+                continue;
+            }
+
+            ChunkStore.Chunk chunk = store.get(hash);
+            long offset = channel.position();
+            try (InputStream in = store.openCompressed(hash)) {
+                byte[][] root = new byte[1][];
+                long length = writeSegment(channel, key, in, r -> root[0] = r);
+                written.put(hash, new ChunkRecord(hash, offset, length, chunk.getRawSize(), chunk.getStoredSize(),
+                        chunk.getCodec().getId(), root[0]));
+            }
+        }
+    }
+
+    private static boolean isUnchanged(Toc existing, Toc written) {
+        if (existing.entries.size() != written.entries.size()
+                || !existing.chunks.keySet().equals(written.chunks.keySet())
+                || existing.textIndexLength != written.textIndexLength) {
+            return false;
+        }
+        Map<String, ContainerEntry> byName = new HashMap<>();
+        for (ContainerEntry entry : existing.entries) {
+            byName.put(entry.getName(), entry);
+        }
+        for (ContainerEntry entry : written.entries) {
+            ContainerEntry current = byName.get(entry.getName());
+            if (current == null || current.getOffset() != entry.getOffset()
+                    || !Objects.equals(current.getChunks(), entry.getChunks())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void markPersisted(Path container, ContainerKey key, Map<String, StoredFile> files,
+            Toc written) throws IOException {
+        SecretKey dataKey = key.getDataKey();
+        Map<ChunkStore, Set<String>> referenced = new IdentityHashMap<>();
+        for (ContainerEntry entry : written.entries) {
+            StoredFile storedFile = files.get(entry.getName());
+            if (!entry.isChunked()) {
+                storedFile.markPersisted(container, entry,
+                        new StoredSegment(container, ContainerHeader.VERSION, dataKey, entry.getOffset(), entry.getLength()));
+                continue;
+            }
+            ChunkStore store = storedFile.getChunkStore();
+            for (String hash : entry.getChunks()) {
+                ChunkRecord record = written.chunks.get(hash);
+                store.markPersisted(hash,
+                        new StoredSegment(container, ContainerHeader.VERSION, dataKey, record.getOffset(), record.getLength()));
+            }
+            referenced.computeIfAbsent(store, s -> new HashSet<>()).addAll(entry.getChunks());
+            storedFile.markPersisted(container, entry, null);
+        }
+        // Chunks nothing refers to are not in the new chunk table, so their stored locations may be gone
+        for (Map.Entry<ChunkStore, Set<String>> entry : referenced.entrySet()) {
+            entry.getKey().retainOnly(entry.getValue());
+        }
+    }
+
+    // The text index gets a new segment only when it changed; otherwise the new table of contents points at
+    // the stored one. An empty index is not stored at all.
+    private static void writeTextIndex(FileChannel channel, SecretKey key, TextIndex textIndex, Toc existing,
+            Toc written) throws IOException {
+        if (textIndex == null || (!textIndex.isChanged() && existing.textIndexLength > 0)) {
+            written.textIndexOffset = existing.textIndexOffset;
+            written.textIndexLength = existing.textIndexLength;
+            return;
+        }
+        if (textIndex.size() == 0) return;
+        written.textIndexOffset = channel.position();
+        written.textIndexLength = writeSegment(channel, key, new ByteArrayInputStream(textIndex.encode()));
+    }
+
+    // Segments are forced to disk before the header is switched over to the new table of contents
+    private static void commitToc(FileChannel channel, SecretKey key, ContainerHeader header, Toc toc) throws Exception {
+        long tocOffset = channel.position();
+        long tocLength;
+        try (Phase phase = Phase.start(Phase.TOC_WRITE)) {
+            byte[] encoded = encodeToc(toc);
+            tocLength = writeSegment(channel, key, new ByteArrayInputStream(encoded));
+            phase.bytesIn(encoded.length).bytesOut(tocLength);
+        }
+        channel.force(false);
+        header.setToc(tocOffset, tocLength);
+        header.write(channel);
+        channel.force(false);
+    }
+
     public static Map<String, StoredFile> loadContainer(String containerPath, String password) throws Exception {
+        return loadContainer(containerPath, unlock(containerPath, password));
+    }
+
+    public static Map<String, StoredFile> loadContainer(String containerPath, ContainerKey containerKey) throws Exception {
+        return loadContainer(containerPath, containerKey, new ChunkStore());
+    }
+
+    // Chunks of deduplicated entries are registered with the given store, so new imports can share them
+    public static Map<String, StoredFile> loadContainer(String containerPath, ContainerKey containerKey,
+            ChunkStore chunkStore) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(containerPath, "r");
+             FileChannel channel = file.getChannel()) {
+            if (!ContainerHeader.isIndexed(channel)) {
+                return loadLegacyContainer(containerPath, containerKey.getDataKey());
+            }
+
+            ContainerHeader header = readHeader(channel, containerKey);
+            SecretKey key = containerKey.getDataKey();
+
+            // Only the table of contents is read; entry content is decrypted when it is used
+            Path container = Paths.get(containerPath).toAbsolutePath().normalize();
+            Toc toc = readToc(channel, header, key);
+            addChunks(chunkStore, container, header.getVersion(), key, toc);
+            Map<String, StoredFile> files = new HashMap<>();
+            for (ContainerEntry entry : toc.entries) {
+                StoredSegment segment = entry.isChunked() ? null
+                        : new StoredSegment(container, header.getVersion(), key, entry.getOffset(), entry.getLength());
+                files.put(entry.getName(), new StoredFile(container, entry, segment, chunkStore));
+            }
+            return files;
+        }
+    }
+
+    // Reads only the header and the table of contents
+    public static List<ContainerEntry> listEntries(String containerPath, String password) throws Exception {
+        return listEntries(containerPath, unlock(containerPath, password));
+    }
+
+    public static List<ContainerEntry> listEntries(String containerPath, ContainerKey key) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(containerPath, "r");
+             FileChannel channel = file.getChannel()) {
+            return readToc(channel, readHeader(channel, key), key.getDataKey()).entries;
+        }
+    }
+
+    // The container's text index; only its own segment is decrypted. Empty if the container has none.
+    public static TextIndex loadTextIndex(String containerPath, ContainerKey key) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(containerPath, "r");
+             FileChannel channel = file.getChannel()) {
+            if (!ContainerHeader.isIndexed(channel)) return new TextIndex();
+            ContainerHeader header = readHeader(channel, key);
+            return readTextIndex(channel, header, key.getDataKey(), readToc(channel, header, key.getDataKey()));
+        }
+    }
+
+    // Entries whose content holds every word of the query, from the text index alone: no entry is decrypted
+    public static List<String> search(String containerPath, ContainerKey key, String query) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(containerPath, "r");
+             FileChannel channel = file.getChannel()) {
+            if (!ContainerHeader.isIndexed(channel)) return List.of();
+            ContainerHeader header = readHeader(channel, key);
+            Toc toc = readToc(channel, header, key.getDataKey());
+            Set<String> names = new HashSet<>();
+            for (ContainerEntry entry : toc.entries) {
+                names.add(entry.getName());
+            }
+            // Saves that were not handed the index keep the stored one, which may still name removed entries
+            List<String> hits = new ArrayList<>(readTextIndex(channel, header, key.getDataKey(), toc).search(query));
+            hits.retainAll(names);
+            return hits;
+        }
+    }
+
+    private static TextIndex readTextIndex(FileChannel channel, ContainerHeader header, SecretKey key, Toc toc)
+            throws Exception {
+        if (toc.textIndexLength == 0) return new TextIndex();
+        try (InputStream in = openSegment(channel, header.getVersion(), key, toc.textIndexOffset, toc.textIndexLength)) {
+            return TextIndex.decode(in.readAllBytes());
+        }
+    }
+
+    // Streams the decompressed content of one entry, reading only its own segment
+    public static InputStream openEntry(String containerPath, String password, String name) throws Exception {
+        return openEntry(containerPath, unlock(containerPath, password), name);
+    }
+
+    public static InputStream openEntry(String containerPath, ContainerKey containerKey, String name) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(containerPath, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            ContainerHeader header = readHeader(channel, containerKey);
+            SecretKey key = containerKey.getDataKey();
+
+            Toc toc = readToc(channel, header, key);
+            ContainerEntry entry = toc.entries.stream()
+                    .filter(e -> e.getName().equals(name))
+                    .findFirst()
+                    .orElseThrow(() -> new FileNotFoundException("No such entry: " + name));
+
+            if (entry.isChunked()) {
+                // Every chunk segment opens the file itself
+                file.close();
+                ChunkStore store = new ChunkStore();
+                addChunks(store, Paths.get(containerPath).toAbsolutePath().normalize(), header.getVersion(), key, toc);
+                return store.open(entry.getChunks());
+            }
+            InputStream content = Codecs.forId(entry.getCodec()).decompress(
+                    openSegment(channel, header.getVersion(), key, entry.getOffset(), entry.getLength()));
+            return new FilterInputStream(content) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        file.close();
+                    }
+                }
+            };
+        } catch (Exception e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private static void addChunks(ChunkStore store, Path container, int version, SecretKey key, Toc toc)
+            throws IOException {
+        for (ChunkRecord record : toc.chunks.values()) {
+            store.addStored(record, new StoredSegment(container, version, key, record.getOffset(), record.getLength()));
+        }
+    }
+
+    private static ContainerHeader readHeader(FileChannel channel, ContainerKey key) throws IOException {
+        ContainerHeader header = ContainerHeader.read(channel);
+        if (header.getWrappedKey() != null && !Arrays.equals(header.getWrappedKey(), key.getWrappedKey())) {
+            throw new IOException("Key does not belong to this container");
+        }
+        return header;
+    }
+
+    private static long writeSegment(FileChannel channel, SecretKey key, InputStream in) throws IOException {
+        return ChunkedCipher.encrypt(key, in, channel);
+    }
+
+    // root receives the segment's MerkleTree root, recorded so the segment can be verified without the key
+    private static long writeSegment(FileChannel channel, SecretKey key, InputStream in, Consumer<byte[]> root)
+            throws IOException {
+        return ChunkedCipher.encrypt(key, Channels.newChannel(in), channel, root);
+    }
+
+    private static long writeSegment(FileChannel channel, SecretKey key, ReadableByteChannel in, Consumer<byte[]> root)
+            throws IOException {
+        return ChunkedCipher.encrypt(key, in, channel, root);
+    }
+
+    static InputStream openSegment(FileChannel channel, int version, SecretKey key,
+            long offset, long length) throws Exception {
+        return openSegment(channel, version, key, offset, length, 0);
+    }
+
+    // Segment plaintext from position from on; only CBC segments have to be decrypted from their start
+    static InputStream openSegment(FileChannel channel, int version, SecretKey key,
+            long offset, long length, long from) throws Exception {
+        if (version != ContainerHeader.VERSION_CBC) {
+            return ChunkedCipher.decrypt(key, channel, offset, length, from);
+        }
+        if (length < EncryptionUtil.IV_LENGTH) throw new IOException("Container segment is truncated");
+        ByteBuffer iv = ByteBuffer.allocate(EncryptionUtil.IV_LENGTH);
+        ContainerHeader.readFully(channel, iv, offset);
+        Cipher cipher = EncryptionUtil.getDecryptCipher(key, iv.array());
+        InputStream in = new CipherInputStream(
+                new RegionInputStream(channel, offset + iv.capacity(), length - iv.capacity()), cipher);
+        in.skipNBytes(from);
+        return in;
+    }
+
+    private static byte[] encodeToc(Toc toc) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(ContainerHeader.MAGIC);
+            out.writeInt(toc.entries.size());
+            for (ContainerEntry entry : toc.entries) {
+                entry.writeTo(out);
+            }
+            out.writeInt(toc.chunks.size());
+            for (ChunkRecord record : toc.chunks.values()) {
+                record.writeTo(out);
+            }
+            // Older readers stop after the chunk table
+            out.writeInt(toc.chunks.size());
+            for (ChunkRecord record : toc.chunks.values()) {
+                record.writeRootTo(out);
+            }
+            // and older ones still after the roots
+            out.writeLong(toc.textIndexOffset);
+            out.writeLong(toc.textIndexLength);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Toc readToc(FileChannel channel, ContainerHeader header, SecretKey key) throws Exception {
+        byte[] toc;
+        try (Phase phase = Phase.start(Phase.TOC_READ)) {
+            toc = readTocBytes(channel, header, key);
+            phase.bytesIn(header.getTocLength()).bytesOut(toc.length);
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(toc))) {
+            if (in.readInt() != ContainerHeader.MAGIC) {
+                throw new AuthenticationException();
+            }
+            Toc result = new Toc();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                result.entries.add(ContainerEntry.readFrom(in));
+            }
+            // Containers before version 5 end here
+            if (header.getVersion() >= ContainerHeader.VERSION_GZIP) {
+                int chunkCount = in.readInt();
+                List<ChunkRecord> records = new ArrayList<>(chunkCount);
+                for (int i = 0; i < chunkCount; i++) {
+                    records.add(ChunkRecord.readFrom(in, header.getVersion()));
+                }
+                // Tables of contents written before chunk roots were recorded end here
+                boolean roots = in.available() > 0;
+                if (roots && in.readInt() != chunkCount) throw new IOException("Corrupt chunk roots");
+                for (ChunkRecord record : records) {
+                    if (roots) record = record.withRoot(in.readNBytes(MerkleTree.HASH_LENGTH));
+                    result.chunks.put(record.getHash(), record);
+                }
+                // Tables of contents written before the text index end here
+                if (in.available() > 0) {
+                    result.textIndexOffset = in.readLong();
+                    result.textIndexLength = in.readLong();
+                }
+            }
+            result.version = header.getVersion();
+            return result;
+        }
+    }
+
+    // Decrypted table of contents
+    private static byte[] readTocBytes(FileChannel channel, ContainerHeader header, SecretKey key) throws Exception {
+        if (header.getVersion() != ContainerHeader.VERSION_CBC) {
+            try (InputStream in = openSegment(channel, header.getVersion(), key, header.getTocOffset(), header.getTocLength())) {
+                return in.readAllBytes();
+            }
+        }
+        if (header.getTocLength() < EncryptionUtil.IV_LENGTH) throw new IOException("Container is incomplete");
+        ByteBuffer segment = ByteBuffer.allocate(Math.toIntExact(header.getTocLength()));
+        ContainerHeader.readFully(channel, segment, header.getTocOffset());
+        try {
+            byte[] iv = Arrays.copyOf(segment.array(), EncryptionUtil.IV_LENGTH);
+            return EncryptionUtil.getDecryptCipher(key, iv)
+                    .doFinal(segment.array(), iv.length, segment.capacity() - iv.length);
+        } catch (BadPaddingException | IllegalBlockSizeException e) {
+            throw new AuthenticationException(e);
+        }
+    }
+
+    static class Toc {
+        final List<ContainerEntry> entries = new ArrayList<>();
+        final Map<String, ChunkRecord> chunks = new LinkedHashMap<>();
+        long textIndexOffset;  // Segment of the TextIndex; its length is 0 when there is none
+        long textIndexLength;
+        int version = ContainerHeader.VERSION;
+    }
+
+    // The whole table of contents, for tools that go through every segment such as Verifier
+    static Toc readToc(String containerPath, ContainerKey key) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(containerPath, "r");
+             FileChannel channel = file.getChannel()) {
+            if (!ContainerHeader.isIndexed(channel)) throw new IOException("Container has no table of contents");
+            return readToc(channel, readHeader(channel, key), key.getDataKey());
+        }
+    }
+
+    // Format written before the indexed layout: salt, IV, then one CBC stream over a serialized map
+    @SuppressWarnings("unchecked")
+    private static Map<String, StoredFile> loadLegacyContainer(String containerPath, SecretKey key) throws Exception {
         try (InputStream is = new FileInputStream(containerPath)) {
             byte[] salt = new byte[EncryptionUtil.SALT_LENGTH];
             is.read(salt);
@@ -52,7 +915,6 @@ public class ContainerManager {
             byte[] iv = new byte[EncryptionUtil.IV_LENGTH];
             is.read(iv);
 
-            SecretKey key = EncryptionUtil.deriveKey(password, salt);
             Cipher cipher = EncryptionUtil.getDecryptCipher(key, iv);
 
             try (CipherInputStream cis = new CipherInputStream(is, cipher);
@@ -62,7 +924,7 @@ public class ContainerManager {
                 if (!(obj instanceof Map)) {
                     throw new ClassCastException("Container file format is invalid");
                 }
-                
+
                 Map<?, ?> map = (Map<?, ?>) obj;
                 // Verify the types of the key-value pairs
                 for (Map.Entry<?, ?> entry : map.entrySet()) {
@@ -70,9 +932,9 @@ public class ContainerManager {
                         throw new ClassCastException("Container file contains invalid data types");
                     }
                 }
-                
+
                 return (Map<String, StoredFile>) obj;
             }
         }
     }
-}
\ No newline at end of file
+}
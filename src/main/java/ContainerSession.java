@@ -0,0 +1,253 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+
+// An open container: its unlocked key, its entries, and what has changed since the last commit.
+// Adds and removes only mark entries dirty; nothing touches the disk until commit(), and a
+// commit with nothing to write is skipped. Commits append, so once removed and replaced entries
+// make up enough of the file, a background compaction copies the rest into a smaller one.
+// A session is the container's one writer until closed; it is safe to use from several threads, and
+// other processes can read the container meanwhile. Text entries are kept in a TextIndex as they are
+// added and removed, which is saved with the next commit and searched without reading any content.
+public class ContainerSession implements AutoCloseable {
+    // Compact once this share of the file, and at least COMPACT_MIN_BYTES, is dead space
+    private static final double COMPACT_THRESHOLD =
+            Double.parseDouble(System.getProperty("blackbox.compact.threshold", "0.5"));
+    private static final long COMPACT_MIN_BYTES = Long.getLong("blackbox.compact.minBytes", 16L << 20);
+    // Copy rate of background compactions, in MiB per second, so foreground reads are not starved
+    private static final long COMPACT_RATE = Long.getLong("blackbox.compact.rate", 64) << 20;
+
+    private final String containerPath;
+    private ContainerKey key;
+    private final Map<String, StoredFile> files;
+    private final Set<String> dirty = new HashSet<>();
+    private boolean uncommitted;  // New or upgraded container that has to be written in full
+    private final ChunkStore chunkStore;  // Chunks shared by the deduplicated entries
+    private final ContainerLock lock;     // Held as the container's writer until closed
+    private Thread compactor;             // Background compaction, if one was started
+    private EntryIndex index;             // Built on demand, dropped whenever an entry is added or removed
+    private final TextIndex textIndex;
+    private ProgressTracker compaction;
+
+    private ContainerSession(String containerPath, ContainerKey key, Map<String, StoredFile> files,
+            boolean uncommitted, ChunkStore chunkStore, TextIndex textIndex, ContainerLock lock) {
+        this.containerPath = containerPath;
+        this.key = key;
+        this.files = files;
+        this.uncommitted = uncommitted;
+        this.chunkStore = chunkStore;
+        this.textIndex = textIndex;
+        this.lock = lock;
+    }
+
+    public static ContainerSession create(String containerPath, String password) throws Exception {
+        ContainerLock lock = ContainerLock.writer(Paths.get(containerPath));
+        return new ContainerSession(containerPath, ContainerKey.generate(password), new HashMap<>(), true,
+                new ChunkStore(), new TextIndex(), lock);
+    }
+
+    public static ContainerSession open(String containerPath, String password) throws Exception {
+        ContainerLock lock = ContainerLock.writer(Paths.get(containerPath));
+        try {
+            ContainerKey key = ContainerManager.unlock(containerPath, password);
+            ChunkStore chunkStore = new ChunkStore();
+            Map<String, StoredFile> files = ContainerManager.loadContainer(containerPath, key, chunkStore);
+            TextIndex textIndex = ContainerManager.loadTextIndex(containerPath, key);
+            // Containers from before key wrapping get a wrapped data key and are rewritten on the next commit
+            boolean upgrade = key.isLegacy();
+            return new ContainerSession(containerPath, key.upgraded(), new HashMap<>(files), upgrade, chunkStore,
+                    textIndex, lock);
+        } catch (Exception e) {
+            lock.close();
+            throw e;
+        }
+    }
+
+    // Store new entries should be imported into, so their chunks are shared with the rest of the container
+    public ChunkStore getChunkStore() {
+        return chunkStore;
+    }
+
+    // How many times over the deduplicated entries would fill the space their distinct chunks take
+    public synchronized double getDedupRatio() throws IOException {
+        List<List<String>> chunks = new ArrayList<>();
+        for (StoredFile file : files.values()) {
+            if (file.isDeduplicated()) chunks.add(file.getChunks());
+        }
+        return chunkStore.getDedupRatio(chunks);
+    }
+
+    public synchronized void put(StoredFile file) throws IOException {
+        StoredFile previous = files.put(file.getName(), file);
+        if (previous != null && previous != file) {
+            previous.close();
+        }
+        // Entries whose terms were not collected on import are not searchable
+        Set<String> terms = file.takeTerms();
+        if (terms != null) {
+            textIndex.add(file.getName(), terms);
+        } else if (previous != file) {
+            textIndex.remove(file.getName());
+        }
+        dirty.add(file.getName());
+        index = null;
+    }
+
+    // The entry's space in the container is only reclaimed by a later compaction
+    public synchronized boolean remove(String name) throws IOException {
+        StoredFile removed = files.remove(name);
+        if (removed == null) return false;
+        removed.close();
+        textIndex.remove(name);
+        dirty.add(name);
+        index = null;
+        return true;
+    }
+
+    public synchronized StoredFile get(String name) {
+        return files.get(name);
+    }
+
+    // Sorted metadata of every entry, for listing and filtering without copying the whole entry list
+    public synchronized EntryIndex getIndex() {
+        if (index == null) index = new EntryIndex(files.values());
+        return index;
+    }
+
+    // Names of the entries holding every word of the query, sorted, from the text index alone
+    public synchronized List<String> search(String query) {
+        List<String> hits = new ArrayList<>(textIndex.search(query));
+        hits.removeIf(name -> !files.containsKey(name)); // As ContainerManager.search, for stale stored indexes
+        return hits;
+    }
+
+    public synchronized List<StoredFile> getFiles() {
+        return new ArrayList<>(files.values());
+    }
+
+    public synchronized boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    public synchronized boolean isDirty() {
+        return uncommitted || !dirty.isEmpty();
+    }
+
+    // Writes all pending changes in one save. Returns false if there was nothing to write.
+    public synchronized boolean commit() throws Exception {
+        if (!isDirty()) return false;
+        ContainerManager.saveContainer(containerPath, key, files, textIndex);
+        dirty.clear();
+        uncommitted = false;
+        compactIfWasteful();
+        return true;
+    }
+
+    // Bytes of the saved container that compaction would reclaim
+    public synchronized long getDeadSpace() throws Exception {
+        if (uncommitted || !Files.exists(Paths.get(containerPath))) return 0;
+        return ContainerManager.getDeadSpace(containerPath, key);
+    }
+
+    private void compactIfWasteful() {
+        if (compactor != null && compactor.isAlive()) return;
+        try {
+            long dead = getDeadSpace();
+            if (dead < COMPACT_MIN_BYTES || dead < Files.size(Paths.get(containerPath)) * COMPACT_THRESHOLD) return;
+        } catch (Exception e) {
+            System.err.println("Could not measure dead space: " + e.getMessage());
+            return;
+        }
+
+        ProgressTracker tracker = new ProgressTracker(0);
+        Thread thread = new Thread(() -> {
+            try {
+                compact(tracker, COMPACT_RATE);
+            } catch (CancellationException e) {
+                // Closed while compacting: the container is left as it was
+            } catch (Exception e) {
+                System.err.println("Compaction failed: " + e.getMessage());
+            }
+        }, "blackbox-compact");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        compaction = tracker;
+        compactor = thread;
+        thread.start();
+    }
+
+    // Rewrites the container without its dead space. The copy is made without holding the session, so
+    // entries stay readable and can be added meanwhile; only the final swap waits for it, and the copy is
+    // dropped if a commit happened in between. Returns whether the container was replaced.
+    public boolean compact(ProgressTracker tracker, long bytesPerSecond) throws Exception {
+        ContainerKey current;
+        synchronized (this) {
+            if (uncommitted || !Files.exists(Paths.get(containerPath))) return false;
+            current = key;
+        }
+        Path container = Paths.get(containerPath).toAbsolutePath().normalize();
+        ContainerManager.Compaction copy = ContainerManager.prepareCompaction(container, current, tracker, bytesPerSecond);
+        if (copy == null) return false;
+        synchronized (this) {
+            return copy.install(files.values(), chunkStore);
+        }
+    }
+
+    // Waits for a background compaction started by the last commit, if any
+    public void awaitCompaction() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = compactor;
+        }
+        if (thread != null) thread.join();
+    }
+
+    public synchronized void changePassword(String newPassword) throws Exception {
+        key = uncommitted ? key.rewrap(newPassword) : ContainerManager.changePassword(containerPath, key, newPassword);
+    }
+
+    public String getContainerPath() {
+        return containerPath;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The compaction needs the session to finish, so it is stopped before the session is locked
+        synchronized (this) {
+            if (compaction != null) compaction.cancel();
+        }
+        try {
+            awaitCompaction();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try {
+                closeFiles();
+            } finally {
+                lock.close();
+            }
+        }
+    }
+
+    private void closeFiles() throws IOException {
+        IOException failure = null;
+        for (StoredFile file : files.values()) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        files.clear();
+        dirty.clear();
+        index = null;
+        try {
+            chunkStore.close();
+        } catch (IOException e) {
+            failure = e;
+        }
+        if (failure != null) throw failure;
+    }
+}
@@ -0,0 +1,67 @@
+import java.io.*;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// FastCDC content-defined chunking: cut points depend only on the bytes around them, so an insert
+// or edit in one place only changes the chunks next to it and the rest still deduplicate.
+public class ContentChunker {
+    public static final int MIN_SIZE = 16 * 1024;
+    public static final int AVERAGE_SIZE = 64 * 1024;
+    public static final int MAX_SIZE = 256 * 1024;
+
+    // Normalized chunking: a stricter mask before the average size and a looser one after it
+    private static final long MASK_SMALL = topBits(18);
+    private static final long MASK_LARGE = topBits(14);
+    // Fixed seed: chunk boundaries must stay the same across runs for deduplication to work
+    private static final long[] GEAR = new SplittableRandom(0x424C4B58L).longs(256).toArray();
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[MAX_SIZE];
+    private int start;
+    private int end;
+    private boolean endOfInput;
+
+    public ContentChunker(InputStream in) {
+        this.in = in;
+    }
+
+    // Returns the next chunk, or null once the input is exhausted
+    public byte[] next() throws IOException {
+        if (!endOfInput && end - start < MAX_SIZE) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+            int read = in.readNBytes(buffer, end, MAX_SIZE - end);
+            end += read;
+            endOfInput = end < MAX_SIZE;
+        }
+        if (start == end) return null;
+
+        int length = cutPoint(buffer, start, end - start);
+        byte[] chunk = Arrays.copyOfRange(buffer, start, start + length);
+        start += length;
+        return chunk;
+    }
+
+    static int cutPoint(byte[] data, int offset, int length) {
+        if (length <= MIN_SIZE) return length;
+        int normal = Math.min(length, AVERAGE_SIZE);
+        int limit = Math.min(length, MAX_SIZE);
+
+        long fingerprint = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[data[offset + i] & 0xFF];
+            if ((fingerprint & MASK_SMALL) == 0) return i + 1;
+        }
+        for (; i < limit; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[data[offset + i] & 0xFF];
+            if ((fingerprint & MASK_LARGE) == 0) return i + 1;
+        }
+        return limit;
+    }
+
+    private static long topBits(int count) {
+        return -1L << (64 - count);
+    }
+}
@@ -0,0 +1,91 @@
+import java.io.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+// Every block is a complete gzip member; concatenated members are a valid gzip stream.
+// This is the format every entry used before codecs were selectable.
+public class DeflateCodec implements Codec {
+    private static final byte[] GZIP_HEADER = {
+            0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private final int level;
+    // Deflaters hold native memory; one per pool thread is reset and reused for every block
+    private final ThreadLocal<Deflater> deflaters;
+
+    public DeflateCodec(int level) {
+        if (level < 1 || level > 9) throw new IllegalArgumentException("Deflate level must be 1-9: " + level);
+        this.level = level;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    }
+
+    @Override
+    public int getId() {
+        return DEFLATE;
+    }
+
+    @Override
+    public String getName() {
+        return "deflate:" + level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    // Deflate falls back to stored blocks of 5 bytes overhead each, well within this bound
+    @Override
+    public int maxCompressedLength(int length) {
+        return GZIP_HEADER.length + length + (length >> 6) + 64;
+    }
+
+    @Override
+    public int compressBlock(byte[] block, int length, byte[] out) {
+        Deflater deflater = deflaters.get();
+        try {
+            deflater.setInput(block, 0, length);
+            deflater.finish();
+
+            System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+            int position = GZIP_HEADER.length;
+            int limit = maxCompressedLength(length) - 8;
+            while (!deflater.finished()) {
+                if (position >= limit) throw new IllegalStateException("Deflate output exceeded its bound");
+                position += deflater.deflate(out, position, limit - position);
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(block, 0, length);
+            position = writeIntLE(out, position, (int) crc.getValue());
+            return writeIntLE(out, position, length);
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private static int writeIntLE(byte[] out, int position, int value) {
+        out[position] = (byte) value;
+        out[position + 1] = (byte) (value >>> 8);
+        out[position + 2] = (byte) (value >>> 16);
+        out[position + 3] = (byte) (value >>> 24);
+        return position + 4;
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+        // GZIPInputStream only looks for another member when available() is non-zero, which
+        // decrypting streams never report, so check for more input by reading ahead instead
+        return new GZIPInputStream(new PushbackInputStream(in, 1) {
+            @Override
+            public int available() throws IOException {
+                int available = super.available();
+                if (available > 0) return available;
+                int next = read();
+                if (next < 0) return 0;
+                unread(next);
+                return 1;
+            }
+        });
+    }
+}
@@ -0,0 +1,306 @@
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+// Imports files and whole directory trees into a ChunkStore as a pipeline of bounded stages, so the
+// disk and every core stay busy at once:
+//   walk (parallel, one task per directory) -> read (small files into memory) -> compress (one per core)
+//   -> a single writer on the calling thread, which hands entries over strictly in the order they were read.
+// Entries are named by their path relative to the parent of each root, with '/' separators, so dropping
+// "project" yields "project/src/Main.java". Symbolic links and special files are skipped. The number of
+// files between the read and write stages is capped, which bounds memory however large the tree is.
+// Files are deduplicated through the chunk store unless they are larger than blackbox.dedup.maxBytes, or
+// blackbox.dedup is false: such files are compressed in blocks on every core and keep a block index.
+public class DirectoryImporter {
+    private static final int WALK_THREADS = Integer.getInteger("blackbox.import.walkers", 4);
+    private static final int READ_THREADS = Integer.getInteger("blackbox.import.readers", 4);
+    private static final int COMPRESS_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int SMALL_FILE = 256 * 1024; // Read whole by the read stage; larger files are streamed
+    private static final int MAX_IN_FLIGHT = 256;     // Files read but not yet written
+    private static final boolean DEDUP = Boolean.parseBoolean(System.getProperty("blackbox.dedup", "true"));
+    // One chunking thread per file is slow for a file this large, and rarely finds much to share within it
+    private static final long DEDUP_MAX_BYTES = Long.getLong("blackbox.dedup.maxBytes", 256L << 20);
+    private static final Source END = new Source(null, null, 0, 0);
+
+    private final ChunkStore chunkStore;
+    private final ProgressTracker tracker;
+    private final long dedupMaxBytes; // Negative when nothing is deduplicated
+
+    private final BlockingQueue<Source> found = new ArrayBlockingQueue<>(4096);
+    private final BlockingQueue<Source> read = new ArrayBlockingQueue<>(MAX_IN_FLIGHT);
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private final Map<Long, Imported> completed = new HashMap<>(); // Guarded by this
+    private final AtomicLong foundCount = new AtomicLong();
+    private final AtomicLong sequence = new AtomicLong();  // Order of the read stage, which the writer follows
+    private final AtomicInteger pendingDirectories = new AtomicInteger();
+    private final AtomicInteger readersLeft = new AtomicInteger(READ_THREADS);
+    private final Workers workers = new Workers("Import");
+    private volatile long walked = -1;  // Number of files found, once the walk has finished
+    private volatile boolean stopped;   // Tells the compressors to stop, as they are never interrupted
+
+    public DirectoryImporter(ChunkStore chunkStore, ProgressTracker tracker) {
+        this(chunkStore, tracker, DEDUP ? DEDUP_MAX_BYTES : -1);
+    }
+
+    DirectoryImporter(ChunkStore chunkStore, ProgressTracker tracker, long dedupMaxBytes) {
+        this.chunkStore = chunkStore;
+        this.tracker = tracker;
+        this.dedupMaxBytes = dedupMaxBytes;
+    }
+
+    // A file found by the walk; the read stage numbers it and reads small files into content
+    private static class Source {
+        final Path path;
+        final String name;
+        final long size;
+        final long modified;
+        long index;
+        String type;
+        byte[] content;
+
+        Source(Path path, String name, long size, long modified) {
+            this.path = path;
+            this.name = name;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    private static class Imported {
+        final StoredFile file;
+        final long size;
+
+        Imported(StoredFile file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    public interface Sink {
+        void accept(StoredFile file) throws IOException;
+    }
+
+    // Imports every root and passes the entries to sink in the order they were read; returns how many were imported.
+    // After a failure or a cancel, sink has received exactly the entries read before the first one missing.
+    public long importAll(List<Path> roots, Sink sink) throws IOException {
+        ExecutorService walkers = Executors.newFixedThreadPool(WALK_THREADS, Workers.daemon("blackbox-walk"));
+        ExecutorService readers = Executors.newFixedThreadPool(READ_THREADS, Workers.daemon("blackbox-read"));
+        ExecutorService compressors = Executors.newFixedThreadPool(COMPRESS_THREADS, Workers.daemon("blackbox-compress"));
+        try {
+            for (int i = 0; i < READ_THREADS; i++) {
+                readers.execute(this::readLoop);
+            }
+            for (int i = 0; i < COMPRESS_THREADS; i++) {
+                compressors.execute(this::compressLoop);
+            }
+
+            pendingDirectories.incrementAndGet(); // Held until every root is queued
+            for (Path root : roots) {
+                Path fileName = root.toAbsolutePath().normalize().getFileName();
+                String name = fileName != null ? fileName.toString() : "root";
+                BasicFileAttributes attributes = Files.readAttributes(root, BasicFileAttributes.class);
+                if (attributes.isDirectory()) {
+                    walkLater(walkers, root, name);
+                } else {
+                    found(root, name, attributes);
+                }
+            }
+            directoryDone();
+            return writeLoop(sink);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } finally {
+            walkers.shutdownNow();
+            readers.shutdownNow();
+            // Compressors write to the chunk store's staging file, and an interrupt during a write would close
+            // its channel for the whole session, so they are stopped by flag and waited for instead
+            stopped = true;
+            Workers.shutdownAndAwait(compressors);
+            // Entries that were imported but not handed over: chunks are dropped by the next save, temp files now
+            synchronized (this) {
+                for (Imported imported : completed.values()) {
+                    closeQuietly(imported.file);
+                }
+                completed.clear();
+            }
+        }
+    }
+
+    private void walkLater(ExecutorService walkers, Path directory, String name) {
+        pendingDirectories.incrementAndGet();
+        walkers.execute(() -> {
+            try {
+                walk(walkers, directory, name);
+                directoryDone();
+            } catch (InterruptedException e) {
+                // Shut down after a failure or a cancel
+            } catch (Exception e) {
+                fail(e);
+            }
+        });
+    }
+
+    private void walk(ExecutorService walkers, Path directory, String prefix) throws IOException, InterruptedException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (workers.failed()) return;
+                BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                String name = prefix + "/" + entry.getFileName();
+                if (attributes.isDirectory()) {
+                    walkLater(walkers, entry, name);
+                } else if (attributes.isRegularFile()) {
+                    found(entry, name, attributes);
+                }
+            }
+        }
+    }
+
+    private void found(Path path, String name, BasicFileAttributes attributes) throws InterruptedException {
+        tracker.addTotal(attributes.size());
+        foundCount.incrementAndGet();
+        // Walkers block here when the readers fall behind
+        found.put(new Source(path, name, attributes.size(), attributes.lastModifiedTime().toMillis()));
+    }
+
+    // The last directory to finish ends the walk and tells every reader
+    private void directoryDone() throws InterruptedException {
+        if (pendingDirectories.decrementAndGet() != 0) return;
+        walked = foundCount.get();
+        wakeWriter();
+        for (int i = 0; i < READ_THREADS; i++) {
+            found.put(END);
+        }
+    }
+
+    private void readLoop() {
+        try {
+            while (true) {
+                // Files are numbered only once they hold a permit, so the file the writer waits for
+                // is always being worked on and never waits for a permit itself
+                inFlight.acquire();
+                Source source = found.take();
+                if (source == END) {
+                    inFlight.release();
+                    break;
+                }
+                source.index = sequence.getAndIncrement();
+                source.type = Optional.ofNullable(Files.probeContentType(source.path)).orElse("unknown");
+                if (source.size <= SMALL_FILE) {
+                    source.content = Files.readAllBytes(source.path);
+                }
+                read.put(source);
+            }
+            if (readersLeft.decrementAndGet() == 0) {
+                for (int i = 0; i < COMPRESS_THREADS; i++) {
+                    read.put(END);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Shut down after a failure or a cancel
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    private void compressLoop() {
+        try {
+            Source source;
+            while ((source = nextRead()) != END) {
+                StoredFile file;
+                // Streamed files take long enough to be shown while they are imported
+                if (source.content == null) tracker.beginItem(source.name, source.size);
+                try {
+                    // Without dedup even a small file is read again, by the block compressor
+                    file = deduplicates(source.size)
+                            ? chunked(source)
+                            : new StoredFile(source.name, source.type, source.path, progress());
+                } catch (IOException e) {
+                    throw new IOException("Error adding " + source.name + ": " + e.getMessage(), e);
+                }
+                synchronized (this) {
+                    completed.put(source.index, new Imported(file, file.getOriginalSize()));
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Shut down after a failure or a cancel
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    private boolean deduplicates(long size) {
+        return size <= dedupMaxBytes;
+    }
+
+    private StoredFile chunked(Source source) throws IOException {
+        try (InputStream in = source.content != null
+                ? new ByteArrayInputStream(source.content)
+                : Files.newInputStream(source.path)) {
+            return new StoredFile(source.name, source.type, in, source.modified, chunkStore, progress());
+        }
+    }
+
+    private static void closeQuietly(StoredFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            System.err.println("Could not delete temp file of " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    // Polls, so a stop is noticed while the readers are idle
+    private Source nextRead() throws InterruptedException {
+        Source source;
+        do {
+            if (stopped) return END;
+        } while ((source = read.poll(50, TimeUnit.MILLISECONDS)) == null);
+        return source;
+    }
+
+    private long writeLoop(Sink sink) throws IOException, InterruptedException {
+        long next = 0;
+        while (true) {
+            Imported imported;
+            synchronized (this) {
+                while ((imported = completed.remove(next)) == null) {
+                    workers.rethrow();
+                    tracker.checkCancelled();
+                    if (walked >= 0 && next >= walked) return next;
+                    wait(50); // Polls for a cancel, which does not notify
+                }
+            }
+            sink.accept(imported.file);
+            inFlight.release();
+            tracker.itemDone(imported.file.getName(), imported.size);
+            next++;
+        }
+    }
+
+    // Adds a file's bytes to the shared count as they are chunked, as Extractor's workers do, so large files
+    // show progress while they are imported. Cancels and failures elsewhere stop the file at its next chunk.
+    private LongConsumer progress() {
+        long[] reported = new long[1];
+        return total -> {
+            if (stopped || workers.failed()) throw new CancellationException("Import stopped");
+            tracker.addDone(total - reported[0]);
+            reported[0] = total;
+        };
+    }
+
+    private void fail(Exception e) {
+        workers.fail(e);
+        wakeWriter();
+    }
+
+    private synchronized void wakeWriter() {
+        notifyAll();
+    }
+}
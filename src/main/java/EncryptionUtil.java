@@ -1,13 +1,17 @@
 import javax.crypto.*;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.security.spec.KeySpec;
 
 public class EncryptionUtil {
     public static final int SALT_LENGTH = 16;
     public static final int IV_LENGTH = 16;
+    public static final int GCM_NONCE_LENGTH = 12;
+    public static final int GCM_TAG_LENGTH = 16;
     private static final int KEY_LENGTH = 256;
     private static final int ITERATIONS = 65536;
 
@@ -26,10 +30,13 @@ public class EncryptionUtil {
     }
 
     public static SecretKey deriveKey(String password, byte[] salt) throws Exception {
-        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, ITERATIONS, KEY_LENGTH);
-        SecretKey tmp = factory.generateSecret(spec);
-        return new SecretKeySpec(tmp.getEncoded(), "AES");
+        try (Phase phase = Phase.start(Phase.KDF)) {
+            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+            KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, ITERATIONS, KEY_LENGTH);
+            SecretKey tmp = factory.generateSecret(spec);
+            phase.bytesOut(KEY_LENGTH / 8);
+            return new SecretKeySpec(tmp.getEncoded(), "AES");
+        }
     }
 
     public static Cipher getEncryptCipher(SecretKey key, byte[] iv) throws Exception {
@@ -43,4 +50,39 @@ public class EncryptionUtil {
         cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
         return cipher;
     }
+
+    // Re-initialized with a fresh nonce for every chunk, so one instance per thread is enough
+    private static final ThreadLocal<Cipher> CHUNK_CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM is not available", e);
+        }
+    });
+
+    // The returned cipher belongs to the calling thread and is only valid until its next call
+    public static Cipher getChunkCipher(int mode, SecretKey key, byte[] nonce) throws Exception {
+        Cipher cipher = CHUNK_CIPHERS.get();
+        cipher.init(mode, key, new GCMParameterSpec(GCM_TAG_LENGTH * 8, nonce));
+        return cipher;
+    }
+
+    public static SecretKey generateDataKey() {
+        byte[] key = new byte[KEY_LENGTH / 8];
+        new SecureRandom().nextBytes(key);
+        return new SecretKeySpec(key, "AES");
+    }
+
+    // RFC 3394 key wrap; unwrapping with the wrong key-encryption key fails its integrity check
+    public static byte[] wrapKey(SecretKey keyEncryptionKey, SecretKey dataKey) throws Exception {
+        Cipher cipher = Cipher.getInstance("AESWrap");
+        cipher.init(Cipher.WRAP_MODE, keyEncryptionKey);
+        return cipher.wrap(dataKey);
+    }
+
+    public static SecretKey unwrapKey(SecretKey keyEncryptionKey, byte[] wrappedKey) throws Exception {
+        Cipher cipher = Cipher.getInstance("AESWrap");
+        cipher.init(Cipher.UNWRAP_MODE, keyEncryptionKey);
+        return (SecretKey) cipher.unwrap(wrappedKey, "AES", Cipher.SECRET_KEY);
+    }
 }
\ No newline at end of file
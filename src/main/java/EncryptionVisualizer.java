@@ -1,86 +1,182 @@
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.BitSet;
 import java.util.Random;
-import java.util.ArrayList;
-import java.util.List;
 
-public class EncryptionVisualizer extends JPanel {
+// Grid of cells that light up in random order as an operation progresses. The order is a shuffled
+// permutation of the cells, so lighting n more cells is n array reads with no retries. Lit cells are
+// drawn once into a cached image, which paintComponent copies to the screen. Progress updates only
+// move the target; a fixed-rate timer lights the cells and repaints, so callers can report as often
+// as they like.
+public final class EncryptionVisualizer extends JPanel {
+    private static final long serialVersionUID = 1L;
     private static final int ROWS = 8;
     private static final int COLS = 32;
     private static final int BIT_SIZE = 10;
-    private final List<Point> encryptedBits = new ArrayList<>();
+    private static final int FRAME_MILLIS = 1000 / 30;
+    private static final int FRAMES_TO_FILL = 15; // A jump from 0 to 100% is animated over half a second
+    private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+
+    private final int rows;
+    private final int cols;
+    private final int bitSize;
+    private final int[] order;  // Cells in the order they light up
+    private final BitSet lit;
     private final Random random = new Random();
+    private final Timer timer = new Timer(FRAME_MILLIS, e -> tick());
+    private transient BufferedImage grid; // Back buffer holding every cell as currently lit
+    private int litCount;       // order[0..litCount) are lit
+    private int targetCount;
     private int progress = 0;
+    private int paintedProgress = -1;
     private String currentFileName = "";
 
     public EncryptionVisualizer() {
-        setPreferredSize(new Dimension(COLS * BIT_SIZE, ROWS * BIT_SIZE + 30));
+        this(ROWS, COLS, BIT_SIZE);
+    }
+
+    public EncryptionVisualizer(int rows, int cols, int bitSize) {
+        this.rows = rows;
+        this.cols = cols;
+        this.bitSize = bitSize;
+        this.order = new int[rows * cols];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        this.lit = new BitSet(order.length);
+        setPreferredSize(new Dimension(cols * bitSize, rows * bitSize + 30));
         setBackground(Color.BLACK);
     }
 
     public void startAnimation(String fileName) {
         currentFileName = fileName;
-        encryptedBits.clear();
         progress = 0;
+        litCount = 0;
+        targetCount = 0;
+        lit.clear();
+        // Fisher-Yates: a fresh random order for every file
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int cell = order[i];
+            order[i] = order[j];
+            order[j] = cell;
+        }
+        if (grid != null) drawEmptyGrid(grid);
+        timer.start();
         repaint();
     }
 
     public void updateProgress(int newProgress) {
-        this.progress = newProgress;
-        int totalBits = ROWS * COLS;
-        int targetBitCount = (progress * totalBits) / 100;
-        
-        // Add new bits to match the progress
-        while (encryptedBits.size() < targetBitCount) {
-            Point newBit;
-            do {
-                newBit = new Point(random.nextInt(COLS), random.nextInt(ROWS));
-            } while (encryptedBits.contains(newBit));
-            encryptedBits.add(newBit);
-        }
-        
-        repaint();
+        progress = Math.max(0, Math.min(100, newProgress));
+        targetCount = (int) ((long) progress * order.length / 100);
+        if (!timer.isRunning()) timer.start();
     }
 
     public void stopAnimation() {
         // Fill in any remaining bits instantly
-        int totalBits = ROWS * COLS;
-        while (encryptedBits.size() < totalBits) {
-            Point newBit;
-            do {
-                newBit = new Point(random.nextInt(COLS), random.nextInt(ROWS));
-            } while (encryptedBits.contains(newBit));
-            encryptedBits.add(newBit);
-        }
+        timer.stop();
+        lightCells(order.length);
         repaint();
     }
 
+    // One frame: light a bounded number of cells towards the target, repaint only if something changed
+    void tick() {
+        boolean changed = progress != paintedProgress;
+        if (litCount < targetCount) {
+            lightCells(Math.min(targetCount, litCount + Math.max(1, order.length / FRAMES_TO_FILL)));
+            changed = true;
+        }
+        if (changed) {
+            paintedProgress = progress;
+            repaint();
+        }
+    }
+
+    private void lightCells(int count) {
+        if (litCount >= count) return;
+        Graphics2D g = image().createGraphics();
+        try {
+            for (; litCount < count; litCount++) {
+                int cell = order[litCount];
+                lit.set(cell);
+                drawCell(g, cell, true);
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    private BufferedImage image() {
+        if (grid == null) {
+            grid = new BufferedImage(cols * bitSize, rows * bitSize, BufferedImage.TYPE_INT_RGB);
+            drawEmptyGrid(grid);
+            Graphics2D g = grid.createGraphics();
+            try {
+                for (int cell = lit.nextSetBit(0); cell >= 0; cell = lit.nextSetBit(cell + 1)) {
+                    drawCell(g, cell, true);
+                }
+            } finally {
+                g.dispose();
+            }
+        }
+        return grid;
+    }
+
+    private void drawEmptyGrid(BufferedImage image) {
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            for (int cell = 0; cell < order.length; cell++) {
+                drawCell(g, cell, false);
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    private void drawCell(Graphics2D g, int cell, boolean on) {
+        int x = (cell % cols) * bitSize;
+        int y = (cell / cols) * bitSize;
+        if (on) {
+            g.setColor(Color.BLACK);
+            g.fillRect(x, y, bitSize, bitSize);
+            g.setColor(Color.GREEN);
+            g.fillRect(x, y, bitSize - 1, bitSize - 1);
+        } else {
+            g.setColor(Color.DARK_GRAY);
+            g.drawRect(x, y, bitSize - 1, bitSize - 1);
+        }
+    }
+
+    int getLitCount() {
+        return litCount;
+    }
+
+    boolean isLit(int row, int col) {
+        return lit.get(row * cols + col);
+    }
+
+    @Override
+    public void removeNotify() {
+        timer.stop();
+        super.removeNotify();
+    }
+
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
         Graphics2D g2d = (Graphics2D) g;
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-        // Draw the grid of bits
-        for (int row = 0; row < ROWS; row++) {
-            for (int col = 0; col < COLS; col++) {
-                Point bit = new Point(col, row);
-                if (encryptedBits.contains(bit)) {
-                    g2d.setColor(Color.GREEN);
-                    g2d.fillRect(col * BIT_SIZE, row * BIT_SIZE, BIT_SIZE - 1, BIT_SIZE - 1);
-                } else {
-                    g2d.setColor(Color.DARK_GRAY);
-                    g2d.drawRect(col * BIT_SIZE, row * BIT_SIZE, BIT_SIZE - 1, BIT_SIZE - 1);
-                }
-            }
-        }
+        g2d.drawImage(image(), 0, 0, null);
 
         // Draw progress text and filename
+        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
         g2d.setColor(Color.WHITE);
-        g2d.setFont(new Font("Monospace", Font.PLAIN, 12));
-        String progressText = String.format("Encrypting: %d%%", progress);
-        g2d.drawString(progressText, 10, ROWS * BIT_SIZE + 20);
-        g2d.drawString(currentFileName, getWidth() - g2d.getFontMetrics().stringWidth(currentFileName) - 10, 
-                      ROWS * BIT_SIZE + 20);
+        g2d.setFont(FONT);
+        String progressText = "Encrypting: " + progress + "%";
+        g2d.drawString(progressText, 10, rows * bitSize + 20);
+        g2d.drawString(currentFileName, getWidth() - g2d.getFontMetrics().stringWidth(currentFileName) - 10,
+                rows * bitSize + 20);
     }
-} 
\ No newline at end of file
+}
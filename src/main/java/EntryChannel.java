@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+// Read-only channel over an entry's content, decrypted and decompressed as it is read. Reading on from
+// where the last read stopped continues the same stream; a short jump forward is skipped over, anything
+// else reopens the content at the new position, which with a block index only touches the blocks from there.
+class EntryChannel implements SeekableByteChannel {
+    private static final long MAX_SKIP = 256 * 1024;
+
+    private final StoredFile file;
+    private InputStream in;
+    private long streamPosition;  // Where in reads next
+    private long position;
+    private boolean open = true;
+
+    EntryChannel(StoredFile file) {
+        this.file = file;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= file.getOriginalSize()) return -1;
+        if (!dst.hasRemaining()) return 0;
+        if (in != null && position >= streamPosition && position - streamPosition <= MAX_SKIP) {
+            in.skipNBytes(position - streamPosition);
+            streamPosition = position;
+        } else if (in == null || position != streamPosition) {
+            if (in != null) in.close();
+            in = file.getContentStream(position);
+            streamPosition = position;
+        }
+
+        int read;
+        if (dst.hasArray()) {
+            read = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (read > 0) dst.position(dst.position() + read);
+        } else {
+            byte[] buffer = new byte[Math.min(dst.remaining(), BufferPool.IO_BUFFER_SIZE)];
+            read = in.read(buffer);
+            if (read > 0) dst.put(buffer, 0, read);
+        }
+        if (read < 0) return -1;
+        streamPosition += read;
+        position += read;
+        return read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) throw new IllegalArgumentException("Negative position");
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        ensureOpen();
+        return file.getOriginalSize();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        open = false;
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open) throw new ClosedChannelException();
+    }
+}
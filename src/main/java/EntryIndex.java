@@ -0,0 +1,220 @@
+import java.util.*;
+import java.util.function.Predicate;
+
+// Column-wise index of a container's entries, sorted by name, for listing and filtering containers with
+// hundreds of thousands of entries. It is built from metadata only: name, type, size, modification time
+// and content hash all come from the table of contents, which is stored encrypted, so building it reads
+// no content. Names sharing a prefix are one contiguous run of rows, found by binary search; entries of
+// a type or with an extension are kept as sorted row lists, so filters narrow to them without a scan.
+public class EntryIndex {
+    private final StoredFile[] files;  // In name order; a row is an index into these arrays
+    private final String[] names;
+    private final long[] sizes;
+    private final long[] modified;
+    private final Map<String, int[]> byType = new HashMap<>();      // Exact type, and "major/" for each
+    private final Map<String, int[]> byExtension = new HashMap<>(); // With the dot
+    private final List<String> types;
+
+    public EntryIndex(Collection<StoredFile> entries) {
+        files = entries.toArray(new StoredFile[0]);
+        Arrays.sort(files, Comparator.comparing(StoredFile::getName));
+        names = new String[files.length];
+        sizes = new long[files.length];
+        modified = new long[files.length];
+        Map<String, RowList> typeRows = new HashMap<>();
+        Map<String, RowList> extensionRows = new HashMap<>();
+        for (int row = 0; row < files.length; row++) {
+            StoredFile file = files[row];
+            names[row] = file.getName();
+            sizes[row] = file.getOriginalSize();
+            modified[row] = file.getModified();
+            String type = file.getType();
+            typeRows.computeIfAbsent(type, t -> new RowList()).add(row);
+            int slash = type.indexOf('/');
+            if (slash > 0) typeRows.computeIfAbsent(type.substring(0, slash + 1), t -> new RowList()).add(row);
+            String extension = extension(names[row]);
+            if (extension != null) extensionRows.computeIfAbsent(extension, e -> new RowList()).add(row);
+        }
+        typeRows.forEach((type, rows) -> byType.put(type, rows.toArray()));
+        extensionRows.forEach((extension, rows) -> byExtension.put(extension, rows.toArray()));
+        List<String> sorted = new ArrayList<>(byType.keySet());
+        Collections.sort(sorted);
+        types = Collections.unmodifiableList(sorted);
+    }
+
+    public int size() {
+        return files.length;
+    }
+
+    public StoredFile getFile(int row) {
+        return files[row];
+    }
+
+    public String getName(int row) {
+        return names[row];
+    }
+
+    public long getSize(int row) {
+        return sizes[row];
+    }
+
+    public long getModified(int row) {
+        return modified[row];
+    }
+
+    // Computed when asked for, as it is only shown for a few rows at a time
+    public String getContentHash(int row) {
+        return files[row].getContentHash();
+    }
+
+    // Every type present, and "major/" for each family of them, sorted
+    public List<String> getTypes() {
+        return types;
+    }
+
+    // Rows whose name matches pattern and whose type is type, in name order. A pattern with '*' or '?' is a
+    // glob as Extractor.matcher reads it; any other pattern is a name prefix, such as a folder. A type
+    // ending in '/' matches the whole family, as "image/" does. Null or empty arguments match everything.
+    public View filter(String pattern, String type) {
+        pattern = pattern == null ? "" : pattern;
+        boolean glob = pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0;
+        String prefix = glob ? pattern.substring(0, firstWildcard(pattern)) : pattern;
+        int from = lowerBound(prefix);
+        int to = prefixEnd(prefix, from);
+
+        // The smallest list of candidates that is known to hold every match
+        int[] candidates = null;
+        if (type != null && !type.isEmpty()) {
+            candidates = byType.getOrDefault(type, new int[0]);
+        }
+        String extension = glob ? extensionOf(pattern) : null;
+        if (extension != null) {
+            int[] rows = byExtension.getOrDefault(extension, new int[0]);
+            candidates = candidates == null ? rows : intersect(rows, candidates);
+        }
+        // "prefix**.ext" matches exactly the rows of the extension in the prefix's run
+        boolean extensionOnly = extension != null && pattern.substring(prefix.length()).equals("**" + extension);
+        Predicate<String> matcher = glob && !extensionOnly ? Extractor.matcher(pattern) : null;
+        if (candidates == null && matcher == null) return new View(from, to, null);
+
+        int[] rows = new int[Math.min(to - from, candidates != null ? candidates.length : to - from)];
+        int count = 0;
+        if (candidates != null) {
+            int start = Arrays.binarySearch(candidates, from);
+            for (int i = start < 0 ? -start - 1 : start; i < candidates.length && candidates[i] < to; i++) {
+                if (matcher == null || matcher.test(names[candidates[i]])) rows[count++] = candidates[i];
+            }
+        } else {
+            for (int row = from; row < to; row++) {
+                if (matcher.test(names[row])) rows[count++] = row;
+            }
+        }
+        return new View(0, count, rows);
+    }
+
+    // First row whose name is not less than prefix
+    private int lowerBound(String prefix) {
+        int low = 0;
+        int high = names.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (names[middle].compareTo(prefix) < 0) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    // Names starting with prefix follow one another from the lower bound on
+    private int prefixEnd(String prefix, int from) {
+        int low = from;
+        int high = names.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (names[middle].startsWith(prefix)) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    private static int firstWildcard(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            if (glob.charAt(i) == '*' || glob.charAt(i) == '?') return i;
+        }
+        return glob.length();
+    }
+
+    // The extension every match must have, for globs ending in a literal one such as "docs/**.pdf"
+    private static String extensionOf(String glob) {
+        int dot = glob.lastIndexOf('.');
+        if (dot < 0) return null;
+        String extension = glob.substring(dot);
+        if (extension.indexOf('*') >= 0 || extension.indexOf('?') >= 0 || extension.indexOf('/') >= 0) return null;
+        return extension;
+    }
+
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot < 0 || name.indexOf('/', dot) >= 0) return null;
+        return name.substring(dot);
+    }
+
+    // Rows in both sorted lists
+    private static int[] intersect(int[] a, int[] b) {
+        int[] rows = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                rows[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    // The rows a filter matched: either a run of consecutive rows or a list of them
+    public class View {
+        private final int from;
+        private final int to;
+        private final int[] rows;
+
+        private View(int from, int to, int[] rows) {
+            this.from = from;
+            this.to = to;
+            this.rows = rows;
+        }
+
+        public int size() {
+            return to - from;
+        }
+
+        // Row in the index of the i-th match
+        public int row(int i) {
+            return rows != null ? rows[from + i] : from + i;
+        }
+
+        public StoredFile getFile(int i) {
+            return files[row(i)];
+        }
+
+        public EntryIndex getIndex() {
+            return EntryIndex.this;
+        }
+    }
+
+    private static class RowList {
+        private int[] rows = new int[4];
+        private int count;
+
+        void add(int row) {
+            if (count == rows.length) rows = Arrays.copyOf(rows, count * 2);
+            rows[count++] = row;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(rows, count);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+import javax.swing.AbstractListModel;
+
+// List model over an EntryIndex that builds a row's text only when the list paints it. With a fixed
+// cell height (JList.setPrototypeCellValue) the list asks for the visible rows alone, so showing or
+// refiltering a container of any size costs the same.
+public class EntryListModel extends AbstractListModel<String> {
+    private static final long serialVersionUID = 1L;
+    private final transient EntryIndex index;  // Swing models are never serialized here
+    private transient EntryIndex.View view;
+
+    public EntryListModel(EntryIndex index) {
+        this.index = index;
+        this.view = index.filter(null, null);
+    }
+
+    public void setFilter(String pattern, String type) {
+        int previous = view.size();
+        view = index.filter(pattern, type);
+        if (previous > 0) fireIntervalRemoved(this, 0, previous - 1);
+        if (view.size() > 0) fireIntervalAdded(this, 0, view.size() - 1);
+    }
+
+    @Override
+    public int getSize() {
+        return view.size();
+    }
+
+    @Override
+    public String getElementAt(int i) {
+        int row = view.row(i);
+        return index.getName(row) + " (" + index.getFile(row).getType() + ", "
+                + ProgressTracker.formatBytes(index.getSize(row)) + ")";
+    }
+
+    public StoredFile getFile(int i) {
+        return view.getFile(i);
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+// Extracts many entries into a directory at once. Entries are handed out in the order their content
+// sits in the container, so the workers together read the file roughly front to back instead of seeking
+// all over it, while decompression and writing run on a bounded pool. The free space is checked against the
+// original sizes before anything is written. Progress of all workers goes to one ProgressTracker.
+public class Extractor {
+    private static final int THREADS = Integer.getInteger("blackbox.extract.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    private final ProgressTracker tracker;
+    private final int threads;
+
+    public Extractor(ProgressTracker tracker) {
+        this(tracker, THREADS);
+    }
+
+    Extractor(ProgressTracker tracker, int threads) {
+        this.tracker = tracker;
+        this.threads = Math.max(1, threads);
+    }
+
+    // Glob over entry names: '*' and '?' stay within one path segment, '**' spans segments
+    public static Predicate<String> matcher(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        Pattern pattern = Pattern.compile(regex.toString());
+        return name -> pattern.matcher(name).matches();
+    }
+
+    // Where an entry goes; names that would leave the directory are refused
+    public static Path target(Path directory, String name) throws IOException {
+        Path target = directory.resolve(name).normalize();
+        if (!target.startsWith(directory) || target.equals(directory)) {
+            throw new IOException("Refusing to extract outside the target directory: " + name);
+        }
+        return target;
+    }
+
+    // Extracts every file accepted by filter and returns how many were written. After a failure or a
+    // cancel the files already finished are kept; the ones in progress are removed.
+    public long extractAll(Collection<StoredFile> files, Predicate<String> filter, Path directory) throws IOException {
+        Path root = directory.toAbsolutePath().normalize();
+        List<StoredFile> selected = new ArrayList<>();
+        Map<StoredFile, Long> offsets = new IdentityHashMap<>();
+        for (StoredFile file : files) {
+            if (!filter.test(file.getName())) continue;
+            target(root, file.getName()); // Fails before anything is written
+            selected.add(file);
+            offsets.put(file, file.getContainerOffset());
+            tracker.addTotal(file.getOriginalSize());
+        }
+        selected.sort(Comparator.comparingLong(offsets::get));
+        Files.createDirectories(root);
+        if (selected.isEmpty()) return 0;
+
+        // Files being replaced give their space back
+        long needed = 0;
+        for (StoredFile file : selected) {
+            Path target = target(root, file.getName());
+            long replaced = Files.isRegularFile(target) ? Files.size(target) : 0;
+            needed += Math.max(0, file.getOriginalSize() - replaced);
+        }
+        requireSpace(root, needed);
+
+        // Workers may be reading staged chunks through the chunk store's shared channel, which an interrupt
+        // would close, so they are stopped through the first failure rather than interrupted
+        Workers workers = new Workers("Extraction");
+        workers.forEach(selected, threads, "blackbox-extract",
+                file -> extract(file, target(root, file.getName()), workers));
+        return selected.size();
+    }
+
+    // The file store's usable space is only a snapshot, but failing here is better than failing halfway
+    static void requireSpace(Path directory, long needed) throws IOException {
+        long usable = Files.getFileStore(directory).getUsableSpace();
+        if (needed > usable) {
+            throw new IOException("Not enough space in " + directory + ": " + needed + " bytes needed, "
+                    + usable + " available");
+        }
+    }
+
+    private void extract(StoredFile file, Path target, Workers workers) throws IOException {
+        tracker.beginItem(file.getName(), file.getOriginalSize());
+        Files.createDirectories(target.getParent());
+        boolean complete = false;
+        try (RandomAccessFile out = new RandomAccessFile(target.toFile(), "rw")) {
+            // Only a size hint: most file systems leave the file sparse rather than reserve the space, which is
+            // why extractAll checks the free space first
+            out.setLength(file.getOriginalSize());
+            FileChannel channel = out.getChannel();
+            long written = file.copyContentTo(Channels.newOutputStream(channel), shared(workers));
+            if (written != file.getOriginalSize()) {
+                channel.truncate(written);
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                Files.deleteIfExists(target); // No half-written file is left behind
+            }
+        }
+    }
+
+    // copyContentTo reports a running total per file; workers add their deltas to the shared count, and stop
+    // at the next block once another worker failed
+    private LongConsumer shared(Workers workers) {
+        long[] reported = new long[1];
+        return total -> {
+            if (workers.failed()) throw new CancellationException("Extraction stopped");
+            tracker.addDone(total - reported[0]);
+            reported[0] = total;
+        };
+    }
+
+}
@@ -0,0 +1,242 @@
+import java.io.*;
+import java.util.Arrays;
+
+// Fast LZ77 codec in the style of LZ4: greedy matching through a hash table of 4-byte
+// sequences, no entropy coding. Much faster than Deflate for a smaller gain.
+// Block: [raw length][payload length, top bit set if the payload is stored as is][payload]
+public class LzCodec implements Codec {
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_BITS = 14;
+    private static final int MAX_OFFSET = 65535;
+    private static final int LAST_LITERALS = 5; // Matches end this far before the end of the block
+    private static final int MATCH_LIMIT = 12;  // No match starts in the last bytes of the block
+    private static final int STORED = 0x80000000;
+    private static final int MAX_BLOCK_SIZE = 64 << 20;
+    private static final ThreadLocal<int[]> TABLES = ThreadLocal.withInitial(() -> new int[1 << HASH_BITS]);
+
+    @Override
+    public int getId() {
+        return LZ;
+    }
+
+    @Override
+    public String getName() {
+        return "lz";
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return 8 + length + length / 255 + 16;
+    }
+
+    @Override
+    public int compressBlock(byte[] block, int length, byte[] out) {
+        int payload = compress(block, length, out, 8);
+        if (payload >= length) {
+            // Incompressible: keep the raw bytes rather than an expanded payload
+            System.arraycopy(block, 0, out, 8, length);
+            payload = length;
+            writeInt(out, 4, length | STORED);
+        } else {
+            writeInt(out, 4, payload);
+        }
+        writeInt(out, 0, length);
+        return 8 + payload;
+    }
+
+    static int compress(byte[] src, int length, byte[] dst, int dstOffset) {
+        int[] table = TABLES.get();
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int i = 0;
+        int out = dstOffset;
+        int matchLimit = length - MATCH_LIMIT;
+        int matchEndLimit = length - LAST_LITERALS;
+
+        while (i < matchLimit) {
+            int sequence = readInt(src, i);
+            int slot = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int candidate = table[slot];
+            table[slot] = i;
+            if (candidate < 0 || i - candidate > MAX_OFFSET || readInt(src, candidate) != sequence) {
+                i++;
+                continue;
+            }
+
+            int matchEnd = i + MIN_MATCH;
+            while (matchEnd < matchEndLimit && src[matchEnd] == src[candidate + matchEnd - i]) {
+                matchEnd++;
+            }
+            out = writeSequence(src, anchor, i - anchor, i - candidate, matchEnd - i - MIN_MATCH, dst, out);
+            i = matchEnd;
+            anchor = i;
+        }
+
+        // Last sequence is literals only
+        int literals = length - anchor;
+        dst[out++] = (byte) (Math.min(literals, 15) << 4);
+        if (literals >= 15) out = writeLength(dst, out, literals - 15);
+        System.arraycopy(src, anchor, dst, out, literals);
+        return out + literals - dstOffset;
+    }
+
+    private static int writeSequence(byte[] src, int anchor, int literals, int offset, int matchExtra,
+            byte[] dst, int out) {
+        dst[out++] = (byte) ((Math.min(literals, 15) << 4) | Math.min(matchExtra, 15));
+        if (literals >= 15) out = writeLength(dst, out, literals - 15);
+        System.arraycopy(src, anchor, dst, out, literals);
+        out += literals;
+        dst[out++] = (byte) offset;
+        dst[out++] = (byte) (offset >>> 8);
+        if (matchExtra >= 15) out = writeLength(dst, out, matchExtra - 15);
+        return out;
+    }
+
+    private static int writeLength(byte[] dst, int out, int value) {
+        while (value >= 255) {
+            dst[out++] = (byte) 255;
+            value -= 255;
+        }
+        dst[out++] = (byte) value;
+        return out;
+    }
+
+    static void decompress(byte[] src, int srcLength, byte[] dst, int dstLength) throws IOException {
+        int in = 0;
+        int out = 0;
+        while (true) {
+            if (in >= srcLength) throw new IOException("Corrupt compressed block");
+            int token = src[in++] & 0xFF;
+
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    if (in >= srcLength) throw new IOException("Corrupt compressed block");
+                    b = src[in++] & 0xFF;
+                    literals += b;
+                } while (b == 255);
+            }
+            if (literals > srcLength - in || literals > dstLength - out) {
+                throw new IOException("Corrupt compressed block");
+            }
+            System.arraycopy(src, in, dst, out, literals);
+            in += literals;
+            out += literals;
+            if (in == srcLength) break;
+
+            if (srcLength - in < 2) throw new IOException("Corrupt compressed block");
+            int offset = (src[in] & 0xFF) | (src[in + 1] & 0xFF) << 8;
+            in += 2;
+            int match = token & 15;
+            if (match == 15) {
+                int b;
+                do {
+                    if (in >= srcLength) throw new IOException("Corrupt compressed block");
+                    b = src[in++] & 0xFF;
+                    match += b;
+                } while (b == 255);
+            }
+            match += MIN_MATCH;
+            if (offset == 0 || offset > out || match > dstLength - out) {
+                throw new IOException("Corrupt compressed block");
+            }
+            if (offset >= match) {
+                System.arraycopy(dst, out - offset, dst, out, match);
+            } else {
+                for (int k = 0; k < match; k++) { // Overlapping copy repeats the last bytes
+                    dst[out + k] = dst[out - offset + k];
+                }
+            }
+            out += match;
+        }
+        if (out != dstLength) throw new IOException("Corrupt compressed block");
+    }
+
+    private static int readInt(byte[] data, int position) {
+        return (data[position] & 0xFF) | (data[position + 1] & 0xFF) << 8
+                | (data[position + 2] & 0xFF) << 16 | (data[position + 3] & 0xFF) << 24;
+    }
+
+    private static void writeInt(byte[] data, int position, int value) {
+        data[position] = (byte) (value >>> 24);
+        data[position + 1] = (byte) (value >>> 16);
+        data[position + 2] = (byte) (value >>> 8);
+        data[position + 3] = (byte) value;
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) {
+        return new BlockInputStream(new DataInputStream(in));
+    }
+
+    private static class BlockInputStream extends InputStream {
+        private final DataInputStream in;
+        // Both arrays grow to the largest block seen and are reused for every block after that
+        private byte[] data = new byte[0];
+        private byte[] block = new byte[0];
+        private int blockLength;
+        private int position;
+
+        BlockInputStream(DataInputStream in) {
+            this.in = in;
+        }
+
+        // Returns false at the end of the stream
+        private boolean nextBlock() throws IOException {
+            int rawLength;
+            try {
+                rawLength = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            int payload = in.readInt();
+            boolean stored = (payload & STORED) != 0;
+            payload &= ~STORED;
+            if (rawLength < 0 || rawLength > MAX_BLOCK_SIZE || payload > MAX_BLOCK_SIZE
+                    || (stored && payload != rawLength)) {
+                throw new IOException("Corrupt compressed block");
+            }
+
+            if (block.length < rawLength) block = new byte[rawLength];
+            if (stored) {
+                in.readFully(block, 0, rawLength);
+            } else {
+                if (data.length < payload) data = new byte[payload];
+                in.readFully(data, 0, payload);
+                LzCodec.decompress(data, payload, block, rawLength);
+            }
+            blockLength = rawLength;
+            position = 0;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (position == blockLength) {
+                if (!nextBlock()) return -1;
+            }
+            int count = Math.min(len, blockLength - position);
+            System.arraycopy(block, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return blockLength - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
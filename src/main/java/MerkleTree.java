@@ -0,0 +1,91 @@
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+// SHA-256 Merkle tree over the encrypted chunks of a segment, as ChunkedCipher lays them out: leaf i
+// covers encrypted chunk i, and leaf 0 also the nonce prefix before it. Leaves and inner nodes are
+// hashed with different leading bytes so one cannot pass for the other, and an odd node at the end of
+// a level moves up unchanged. Every aligned run of 2^k leaves is therefore a subtree of its own, so
+// runs can be hashed on different threads and combined afterwards into the same root.
+public class MerkleTree {
+    public static final int HASH_LENGTH = 32;
+    static final int LEAF_SIZE = ChunkedCipher.ENCRYPTED_CHUNK_SIZE;
+
+    private static final byte LEAF = 0;
+    private static final byte NODE = 1;
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
+    // Hash of one leaf, given as consecutive pieces (the nonce prefix, then chunk 0)
+    static byte[] leaf(ByteBuffer... pieces) {
+        MessageDigest digest = DIGEST.get();
+        digest.reset();
+        digest.update(LEAF);
+        for (ByteBuffer piece : pieces) {
+            digest.update(piece.duplicate());
+        }
+        return digest.digest();
+    }
+
+    static byte[] node(byte[] left, byte[] right) {
+        MessageDigest digest = DIGEST.get();
+        digest.reset();
+        digest.update(NODE);
+        digest.update(left);
+        digest.update(right);
+        return digest.digest();
+    }
+
+    // Root over the given nodes of one level, e.g. all leaves, or the roots of consecutive aligned runs
+    static byte[] root(List<byte[]> level) {
+        if (level.isEmpty()) throw new IllegalArgumentException("A tree needs at least one leaf");
+        List<byte[]> nodes = level;
+        while (nodes.size() > 1) {
+            List<byte[]> parents = new ArrayList<>((nodes.size() + 1) / 2);
+            for (int i = 0; i < nodes.size(); i += 2) {
+                parents.add(i + 1 < nodes.size() ? node(nodes.get(i), nodes.get(i + 1)) : nodes.get(i));
+            }
+            nodes = parents;
+        }
+        return nodes.get(0);
+    }
+
+    // Takes leaves in order and keeps only one pending subtree per level, so a tree over a segment of any
+    // size needs a few dozen hashes of memory. The root is the same as root() over the same leaves.
+    static class Builder {
+        private final byte[][] levels = new byte[64][]; // Root of 2^i leaves waiting for a right neighbour
+
+        void add(byte[] leaf) {
+            byte[] carry = leaf;
+            int level = 0;
+            while (levels[level] != null) {
+                carry = node(levels[level], carry);
+                levels[level++] = null;
+            }
+            levels[level] = carry;
+        }
+
+        // Smaller subtrees sit to the right of larger ones, as promoting odd nodes leaves them
+        byte[] build() {
+            byte[] root = null;
+            for (byte[] subtree : levels) {
+                if (subtree != null) root = root == null ? subtree : node(subtree, root);
+            }
+            if (root == null) throw new IllegalStateException("A tree needs at least one leaf");
+            return root;
+        }
+    }
+
+    // Number of leaves of a segment of the given encrypted length
+    static long leafCount(long segmentLength) {
+        long chunks = segmentLength - ChunkedCipher.NONCE_PREFIX_LENGTH;
+        return Math.max(1, (chunks + LEAF_SIZE - 1) / LEAF_SIZE);
+    }
+}
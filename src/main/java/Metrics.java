@@ -0,0 +1,99 @@
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// In-process counters and histograms, filled mostly by Phase. Always on and lock-free;
+// the command line prints them with --metrics.
+public class Metrics {
+    private static final ConcurrentMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    public static void increment(String name, long delta) {
+        COUNTERS.computeIfAbsent(name, n -> new LongAdder()).add(delta);
+    }
+
+    public static void record(String name, long value) {
+        HISTOGRAMS.computeIfAbsent(name, n -> new Histogram()).record(value);
+    }
+
+    public static long getCounter(String name) {
+        LongAdder counter = COUNTERS.get(name);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    // Returns null if nothing was recorded under this name
+    public static Histogram getHistogram(String name) {
+        return HISTOGRAMS.get(name);
+    }
+
+    public static void reset() {
+        COUNTERS.clear();
+        HISTOGRAMS.clear();
+    }
+
+    // One line per metric, sorted by name: "name value" for counters, count and percentiles for histograms
+    public static void dump(PrintStream out) {
+        Map<String, String> lines = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> lines.put(name, Long.toString(counter.sum())));
+        HISTOGRAMS.forEach((name, histogram) -> lines.put(name, String.format(Locale.ROOT,
+                "count=%d mean=%.1f p50=%d p99=%d max=%d", histogram.getCount(), histogram.getMean(),
+                histogram.getPercentile(0.50), histogram.getPercentile(0.99), histogram.getMax())));
+        lines.forEach((name, value) -> out.println(name + " " + value));
+        out.flush();
+    }
+
+    // Power-of-two buckets: bucket i holds values from 2^(i-1) to 2^i - 1, so percentiles are upper
+    // bounds within a factor of 2
+    public static class Histogram {
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(long value) {
+            long clamped = Math.max(0, value);
+            buckets[64 - Long.numberOfLeadingZeros(clamped)].increment();
+            count.increment();
+            sum.add(clamped);
+            max.accumulateAndGet(clamped, Math::max);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public long getPercentile(double fraction) {
+            long n = count.sum();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(fraction * n);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= Math.max(1, rank)) {
+                    return Math.min(max.get(), i == 0 ? 0 : (1L << i) - 1);
+                }
+            }
+            return max.get();
+        }
+    }
+}
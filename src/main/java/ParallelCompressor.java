@@ -0,0 +1,109 @@
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+// pigz-style compression: the input is cut into fixed-size blocks that are compressed concurrently
+// and written in order. Every codec's blocks are self-delimiting, so the codec reads the result back
+// as one stream (for Deflate, each block is a gzip member and the whole is a valid gzip stream).
+public class ParallelCompressor {
+    public static final int DEFAULT_BLOCK_SIZE = Integer.getInteger("blackbox.compression.block.size", 1 << 20);
+    private static final int THREADS = Integer.getInteger("blackbox.compression.threads",
+            Runtime.getRuntime().availableProcessors());
+    // Blocks read ahead of the writer; bounds memory to roughly MAX_IN_FLIGHT * 2 * blockSize
+    private static final int MAX_IN_FLIGHT = THREADS * 2;
+    static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, THREADS));
+
+    // Compresses the whole input and returns the number of bytes read; progress receives the running total
+    public static long compress(InputStream in, OutputStream out, int blockSize, LongConsumer progress)
+            throws IOException {
+        return compress(Codecs.DEFLATE, in, out, blockSize, progress);
+    }
+
+    public static long compress(Codec codec, InputStream in, OutputStream out, int blockSize, LongConsumer progress)
+            throws IOException {
+        return compress(codec, in, out, blockSize, progress, length -> {});
+    }
+
+    // Input and output arrays come from the BufferPool and go back once the block is written;
+    // blockLengths receives each block's compressed length in order, for a BlockIndex
+    public static long compress(Codec codec, InputStream in, OutputStream out, int blockSize, LongConsumer progress,
+            IntConsumer blockLengths) throws IOException {
+        Deque<Future<Block>> inFlight = new ArrayDeque<>();
+        long totalRead = 0;
+        try {
+            while (true) {
+                byte[] input = BufferPool.acquireArray(blockSize);
+                int length = in.readNBytes(input, 0, blockSize);
+                if (length == 0 && totalRead > 0) {
+                    BufferPool.release(input);
+                    break;
+                }
+
+                if (inFlight.size() >= MAX_IN_FLIGHT) {
+                    write(await(inFlight.removeFirst()), out, blockLengths);
+                }
+                // An empty input still gets one block
+                inFlight.addLast(POOL.submit(() -> compressBlock(codec, input, length)));
+
+                if (length == 0) break;
+                totalRead += length;
+                progress.accept(totalRead);
+                if (length < blockSize) break;
+            }
+
+            while (!inFlight.isEmpty()) {
+                write(await(inFlight.removeFirst()), out, blockLengths);
+            }
+            return totalRead;
+        } finally {
+            for (Future<Block> pending : inFlight) {
+                pending.cancel(true);
+            }
+        }
+    }
+
+    private static class Block {
+        final byte[] output;
+        final int length;
+
+        Block(byte[] output, int length) {
+            this.output = output;
+            this.length = length;
+        }
+    }
+
+    private static Block compressBlock(Codec codec, byte[] input, int length) {
+        byte[] output = BufferPool.acquireArray(codec.maxCompressedLength(input.length));
+        try {
+            return new Block(output, codec.compressBlock(input, length, output));
+        } catch (RuntimeException e) {
+            BufferPool.release(output);
+            throw e;
+        } finally {
+            BufferPool.release(input);
+        }
+    }
+
+    private static void write(Block block, OutputStream out, IntConsumer blockLengths) throws IOException {
+        try {
+            out.write(block.output, 0, block.length);
+            blockLengths.accept(block.length);
+        } finally {
+            BufferPool.release(block.output);
+        }
+    }
+
+    private static Block await(Future<Block> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Compression interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import jdk.jfr.EventType;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Times one step of the pipeline, typically with try-with-resources:
+//   try (Phase phase = Phase.start(Phase.COMPRESS)) { ...; phase.bytesIn(n).bytesOut(m); }
+// Every phase becomes a PhaseEvent when Flight Recorder has it enabled, and is added to Metrics as
+// the counters <phase>.count, <phase>.bytesIn and <phase>.bytesOut and the histogram <phase>.micros.
+// Phases cover whole files or segments, but a deduplicated entry is stored as one segment per chunk, so
+// encrypt and decrypt phases can run once per 64 KiB. Closing one is therefore kept to a few increments:
+// the metric names are built once per phase name, and no event is created while Flight Recorder is off.
+public class Phase implements AutoCloseable {
+    public static final String KDF = "kdf";
+    public static final String COMPRESS = "compress";
+    public static final String ENCRYPT = "encrypt";
+    public static final String DECRYPT = "decrypt";
+    public static final String TOC_WRITE = "toc.write";
+    public static final String TOC_READ = "toc.read";
+    public static final String SAVE = "save";
+    public static final String EXTRACT = "extract";
+
+    private static final ConcurrentMap<String, Keys> KEYS = new ConcurrentHashMap<>();
+    private static final EventType EVENT_TYPE = EventType.getEventType(PhaseEvent.class);
+
+    private final String name;
+    private final Keys keys;
+    private final PhaseEvent event;
+    private final long startNanos = System.nanoTime();
+    private long bytesIn;
+    private long bytesOut;
+    private boolean closed;
+
+    private Phase(String name) {
+        this.name = name;
+        this.keys = KEYS.computeIfAbsent(name, Keys::new);
+        this.event = EVENT_TYPE.isEnabled() ? new PhaseEvent() : null;
+        if (event != null) event.begin();
+    }
+
+    public static Phase start(String name) {
+        return new Phase(name);
+    }
+
+    public Phase bytesIn(long bytes) {
+        bytesIn = bytes;
+        return this;
+    }
+
+    public Phase bytesOut(long bytes) {
+        bytesOut = bytes;
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = name;
+                event.bytesIn = bytesIn;
+                event.bytesOut = bytesOut;
+                event.commit();
+            }
+        }
+        Metrics.increment(keys.count, 1);
+        Metrics.increment(keys.bytesIn, bytesIn);
+        Metrics.increment(keys.bytesOut, bytesOut);
+        Metrics.record(keys.micros, (System.nanoTime() - startNanos) / 1000);
+    }
+
+    private static class Keys {
+        final String count;
+        final String bytesIn;
+        final String bytesOut;
+        final String micros;
+
+        Keys(String name) {
+            count = name + ".count";
+            bytesIn = name + ".bytesIn";
+            bytesOut = name + ".bytesOut";
+            micros = name + ".micros";
+        }
+    }
+}
@@ -0,0 +1,22 @@
+import jdk.jfr.*;
+
+// Flight Recorder event for one step of the pipeline (see Phase). Disabled unless a recording
+// enables it, e.g. java -XX:StartFlightRecording:settings=profile,filename=blackbox.jfr BlackBox ...
+// Entry names are never recorded: a recording is a plaintext file.
+@Name("blackbox.Phase")
+@Label("BlackBox Phase")
+@Category("BlackBox")
+@Description("Time and bytes of one key derivation, compression, encryption, decryption, table of contents or extract step")
+@StackTrace(false)
+class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut;
+}
@@ -0,0 +1,231 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Serves entries over HTTP on the loopback interface, so a browser or media player can start showing
+// them at once instead of waiting for a decrypted copy on disk. Every request reads through the entry's
+// seekable channel and honours a byte Range, so seeking in a video only decrypts the blocks around the
+// new position. Each published entry gets an unguessable URL; nothing else is reachable. A player keeps
+// coming back to the same URL as it seeks, so an entry stays published until it has not been requested
+// for a while, or until enough newer ones push it out; the server holds no entry for longer.
+public class PreviewServer implements AutoCloseable {
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int MAX_PUBLISHED = Integer.getInteger("blackbox.preview.maxEntries", 32);
+    private static final long IDLE_MILLIS = Long.getLong("blackbox.preview.idleMillis", TimeUnit.MINUTES.toMillis(30));
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int maxPublished;
+    private final long idleNanos;
+    // By token, least recently requested first; guarded by itself
+    private final LinkedHashMap<String, Published> published = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static class Published {
+        final StoredFile file;
+        long lastUsed; // System.nanoTime of the last request, or of publishing
+
+        Published(StoredFile file, long lastUsed) {
+            this.file = file;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    public PreviewServer() throws IOException {
+        this(MAX_PUBLISHED, IDLE_MILLIS);
+    }
+
+    PreviewServer(int maxPublished, long idleMillis) throws IOException {
+        this.maxPublished = Math.max(1, maxPublished);
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        // Players open several connections at once, for example to read a video's index from its end
+        executor = Executors.newFixedThreadPool(4, runnable -> {
+            Thread thread = new Thread(runnable, "blackbox-preview");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    // Address of the entry, ending in its file name so the client can tell the type from the extension
+    public URI publish(StoredFile file) {
+        byte[] token = new byte[16];
+        RANDOM.nextBytes(token);
+        String key = HexFormat.of().formatHex(token);
+        synchronized (published) {
+            long now = System.nanoTime();
+            expire(now);
+            published.put(key, new Published(file, now));
+            Iterator<Published> eldest = published.values().iterator();
+            while (published.size() > maxPublished) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        String name = file.getName().substring(file.getName().lastIndexOf('/') + 1);
+        try {
+            InetSocketAddress address = server.getAddress();
+            return new URI("http", null, address.getAddress().getHostAddress(), address.getPort(),
+                    "/" + key + "/" + name, null, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("Cannot build a preview URI", e);
+        }
+    }
+
+    // Entries are no longer served, for example once the container they belong to is closed
+    public void clear() {
+        synchronized (published) {
+            published.clear();
+        }
+    }
+
+    // Entries still reachable
+    int size() {
+        synchronized (published) {
+            expire(System.nanoTime());
+            return published.size();
+        }
+    }
+
+    // The entry published under token, which counts as a request; null if it is unknown or has expired
+    private StoredFile lookup(String token) {
+        synchronized (published) {
+            long now = System.nanoTime();
+            expire(now);
+            Published entry = published.get(token);
+            if (entry == null) return null;
+            entry.lastUsed = now;
+            return entry.file;
+        }
+    }
+
+    // Requests move entries to the end, so the idle ones are all at the start
+    private void expire(long now) {
+        Iterator<Published> entries = published.values().iterator();
+        while (entries.hasNext() && now - entries.next().lastUsed > idleNanos) {
+            entries.remove();
+        }
+    }
+
+    @Override
+    public void close() {
+        clear();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getRawPath();
+        int end = path.indexOf('/', 1);
+        String token = path.substring(1, end > 0 ? end : path.length());
+        try {
+            StoredFile file = lookup(token);
+            if (file == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            send(exchange, file, method.equals("HEAD"));
+        } catch (IOException e) {
+            // Players routinely drop a connection as soon as they seek elsewhere
+        } finally {
+            exchange.close();
+            lookup(token); // A long response keeps the entry from expiring under the player
+        }
+    }
+
+    private static void send(HttpExchange exchange, StoredFile file, boolean headOnly) throws IOException {
+        long size = file.getOriginalSize();
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", file.getType().contains("/") ? file.getType() : "application/octet-stream");
+        headers.set("Accept-Ranges", "bytes");
+        headers.set("Cache-Control", "no-store");
+
+        long[] range = parseRange(exchange.getRequestHeaders().getFirst("Range"), size);
+        if (range != null && range[0] < 0) {
+            headers.set("Content-Range", "bytes */" + size);
+            exchange.sendResponseHeaders(416, -1);
+            return;
+        }
+        long start = range != null ? range[0] : 0;
+        long length = range != null ? range[1] - range[0] + 1 : size;
+        int status = range != null ? 206 : 200;
+        if (range != null) {
+            headers.set("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+        }
+        if (headOnly || length == 0) {
+            headers.set("Content-Length", Long.toString(length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+
+        exchange.sendResponseHeaders(status, length);
+        byte[] buffer = BufferPool.acquireArray(BufferPool.IO_BUFFER_SIZE);
+        try (SeekableByteChannel channel = file.openChannel();
+             OutputStream out = exchange.getResponseBody()) {
+            channel.position(start);
+            long remaining = length;
+            while (remaining > 0) {
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, remaining));
+                int read = channel.read(chunk);
+                if (read < 0) throw new IOException("Entry ended early");
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    // A single range "bytes=first-last", "bytes=first-" or "bytes=-suffix". Returns null to send the whole
+    // entry (no header, or one this server does not handle such as several ranges), and {-1, -1} when the
+    // range lies outside the entry.
+    static long[] parseRange(String header, long size) {
+        if (header == null || !header.startsWith("bytes=") || header.contains(",")) return null;
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) return new long[]{-1, -1};
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            }
+            if (start >= size || start > end) return new long[]{-1, -1};
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+// Progress of a long import or extraction, shared between the worker thread and the UI.
+// Workers only update a few fields per block; the UI samples snapshot() on its own
+// timer, so however often the worker reports, the screen is updated at a fixed frame rate.
+// Cancellation is cooperative: after cancel(), the worker's next report throws CancellationException.
+public class ProgressTracker {
+    private static final long RATE_WINDOW_NANOS = 250_000_000L; // Rate is re-measured at most 4 times a second
+    private static final double RATE_SMOOTHING = 0.3;            // Weight of the newest measurement
+
+    private final long startNanos;
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong done = new AtomicLong();
+    private volatile String item = "";
+    private volatile long itemSize;
+    private volatile long itemBase;  // Bytes done before the current item
+    private volatile boolean cancelled;
+
+    // Only used by the sampling thread
+    private long sampleNanos;
+    private long sampleBytes;
+    private double rate = -1;
+
+    public ProgressTracker(long total) {
+        this(total, System.nanoTime());
+    }
+
+    ProgressTracker(long total, long startNanos) {
+        this.total.set(total);
+        this.startNanos = startNanos;
+        this.sampleNanos = startNanos;
+    }
+
+    public void setTotal(long total) {
+        this.total.set(total);
+    }
+
+    // For totals that are only known as work is discovered, like a directory walk
+    public void addTotal(long bytes) {
+        total.addAndGet(bytes);
+    }
+
+    // Starts the next file; everything reported before counts as done
+    public void beginItem(String name, long size) {
+        checkCancelled();
+        itemBase = done.get();
+        itemSize = size;
+        item = name;
+    }
+
+    // Shows a finished item whose bytes its worker already reported with addDone
+    public void itemDone(String name, long size) {
+        checkCancelled();
+        itemBase = done.get() - size;
+        itemSize = size;
+        item = name;
+    }
+
+    // For several workers reporting at once: each adds what it has done since its last report
+    public void addDone(long bytes) {
+        checkCancelled();
+        done.addAndGet(bytes);
+    }
+
+    // Receives the running byte count within the current item, as StoredFile and ChunkStore report it
+    public LongConsumer itemProgress() {
+        return itemBytes -> {
+            checkCancelled();
+            done.set(itemBase + itemBytes);
+        };
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void checkCancelled() {
+        if (cancelled) throw new CancellationException("Cancelled");
+    }
+
+    public Snapshot snapshot() {
+        return snapshot(System.nanoTime());
+    }
+
+    synchronized Snapshot snapshot(long now) {
+        long bytes = done.get();
+        if (now - sampleNanos >= RATE_WINDOW_NANOS) {
+            double measured = (bytes - sampleBytes) * 1e9 / (now - sampleNanos);
+            rate = rate < 0 ? measured : RATE_SMOOTHING * measured + (1 - RATE_SMOOTHING) * rate;
+            sampleNanos = now;
+            sampleBytes = bytes;
+        }
+        // Until the first window has passed, the average since the start is the best estimate
+        double bytesPerSecond = rate >= 0 ? rate : now > startNanos ? bytes * 1e9 / (now - startNanos) : 0;
+        return new Snapshot(item, bytes - itemBase, itemSize, bytes, total.get(), bytesPerSecond);
+    }
+
+    public static class Snapshot {
+        private final String item;
+        private final long itemBytes;
+        private final long itemSize;
+        private final long bytesDone;
+        private final long totalBytes;
+        private final double bytesPerSecond;
+
+        Snapshot(String item, long itemBytes, long itemSize, long bytesDone, long totalBytes, double bytesPerSecond) {
+            this.item = item;
+            this.itemBytes = itemBytes;
+            this.itemSize = itemSize;
+            this.bytesDone = bytesDone;
+            this.totalBytes = totalBytes;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        public String getItem() {
+            return item;
+        }
+
+        public long getBytesDone() {
+            return bytesDone;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public double getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        public int getPercent() {
+            return percent(bytesDone, totalBytes);
+        }
+
+        public int getItemPercent() {
+            return percent(itemBytes, itemSize);
+        }
+
+        // Seconds left at the current rate, or -1 while the rate is unknown
+        public long getEtaSeconds() {
+            if (bytesPerSecond <= 0 || totalBytes <= 0) return -1;
+            return (long) Math.ceil(Math.max(0, totalBytes - bytesDone) / bytesPerSecond);
+        }
+
+        // For example "12.5 MB of 1.2 GB, 85.0 MB/s, 0:14 left"
+        public String describe() {
+            StringBuilder text = new StringBuilder(formatBytes(bytesDone));
+            if (totalBytes > 0) text.append(" of ").append(formatBytes(totalBytes));
+            text.append(", ").append(formatBytes((long) bytesPerSecond)).append("/s");
+            long eta = getEtaSeconds();
+            if (eta >= 0) {
+                text.append(", ").append(eta / 60).append(':').append(String.format("%02d", eta % 60)).append(" left");
+            }
+            return text.toString();
+        }
+
+        private static int percent(long part, long whole) {
+            if (whole <= 0) return 0;
+            return (int) Math.min(100, part * 100 / whole);
+        }
+    }
+
+    public static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        String units = "KMGTPE";
+        double value = bytes;
+        int unit = -1;
+        while (value >= 1024 && unit < units.length() - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format("%.1f %sB", value, units.charAt(unit));
+    }
+}
@@ -0,0 +1,30 @@
+import java.io.*;
+
+// No compression, for data that is already compressed or random
+public class StoreCodec implements Codec {
+    @Override
+    public int getId() {
+        return STORE;
+    }
+
+    @Override
+    public String getName() {
+        return "store";
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return length;
+    }
+
+    @Override
+    public int compressBlock(byte[] block, int length, byte[] out) {
+        System.arraycopy(block, 0, out, 0, length);
+        return length;
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) {
+        return in;
+    }
+}
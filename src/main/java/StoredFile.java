@@ -1,75 +1,278 @@
 import java.io.*;
+import java.nio.channels.*;
 import java.nio.file.*;
-import java.util.zip.*;
-import java.util.function.Consumer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.function.LongConsumer;
 
-public class StoredFile implements Serializable, AutoCloseable {
+public final class StoredFile implements Serializable, AutoCloseable {
     private static final long serialVersionUID = 1L;
     private final String name;
     private final String type;
-    private transient Path tempFile;  // Stores compressed data in temp file
+    private long originalSize;
+    private long modified;            // Of the source, in epoch milliseconds; 0 when unknown
+    private transient Path tempFile;  // Stores compressed data in temp file until it is saved
+    private transient Codec codec;    // How the temp file or segment is compressed
+    private transient BlockIndex blocks;      // Compressed blocks of the temp file or segment, if known
+    private transient StoredSegment segment;  // Copy of the compressed data inside a container
+    private transient ChunkStore chunkStore;  // Deduplicated content lives in the store instead
+    private transient List<String> chunks;
+    private transient Path container;          // Where the entry was last saved
+    private transient ContainerEntry location;
+    private transient Set<String> terms;       // Collected on import for the text index, until taken
 
-    public StoredFile(String name, String type, Path sourceFile, Consumer<Integer> progress)
+    // progress receives the running number of source bytes read
+    public StoredFile(String name, String type, Path sourceFile, LongConsumer progress)
             throws IOException {
         this.name = name;
         this.type = type;
-        this.tempFile = compressToTemp(sourceFile, progress);
+        this.originalSize = Files.size(sourceFile);
+        this.modified = Files.getLastModifiedTime(sourceFile).toMillis();
+        this.tempFile = compressToTemp(sourceFile, type, progress);
     }
 
-    private Path compressToTemp(Path source, Consumer<Integer> progress) throws IOException {
-        Path temp = Files.createTempFile("blackbox_", ".tmp");
-        long fileSize = Files.size(source);
+    // Content is split into chunks shared with every other entry of the store
+    public StoredFile(String name, String type, Path sourceFile, LongConsumer progress, ChunkStore chunkStore)
+            throws IOException {
+        this.name = name;
+        this.type = type;
+        this.chunkStore = chunkStore;
+        this.modified = Files.getLastModifiedTime(sourceFile).toMillis();
+        try (InputStream in = Files.newInputStream(sourceFile)) {
+            importChunks(in, progress);
+        }
+    }
 
-        try (InputStream in = Files.newInputStream(source);
-             OutputStream out = Files.newOutputStream(temp);
-             GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+    // Same for content that is already open, as DirectoryImporter hands it over; the size is what was read
+    StoredFile(String name, String type, InputStream content, long modified, ChunkStore chunkStore,
+            LongConsumer progress) throws IOException {
+        this.name = name;
+        this.type = type;
+        this.modified = modified;
+        this.chunkStore = chunkStore;
+        importChunks(content, progress);
+    }
 
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            long totalRead = 0;
+    private void importChunks(InputStream content, LongConsumer progress) throws IOException {
+        TextIndex.Terms indexed = TextIndex.isIndexable(type) ? new TextIndex.Terms(content) : null;
+        try (Phase phase = Phase.start(Phase.COMPRESS);
+             PushbackInputStream in = new PushbackInputStream(indexed != null ? indexed : content, Codecs.SAMPLE_SIZE)) {
+            this.codec = Codecs.select(in, type);
+            this.chunks = chunkStore.importStream(in, codec, progress);
+            for (String hash : chunks) {
+                originalSize += chunkStore.get(hash).getRawSize();
+            }
+            phase.bytesIn(originalSize).bytesOut(getTempFileSize());
+        }
+        if (indexed != null) terms = indexed.get();
+    }
+
+    // An entry of an opened container: only metadata is kept, content is decrypted when read
+    StoredFile(Path container, ContainerEntry entry, StoredSegment segment, ChunkStore chunkStore) throws IOException {
+        this.name = entry.getName();
+        this.type = entry.getType();
+        this.originalSize = entry.getOriginalSize();
+        this.modified = entry.getModified();
+        this.codec = Codecs.forId(entry.getCodec());
+        this.blocks = entry.getBlocks();
+        this.segment = segment;
+        this.container = container;
+        this.location = entry;
+        if (entry.isChunked()) {
+            this.chunkStore = chunkStore;
+            this.chunks = entry.getChunks();
+        }
+    }
+
+    private Path compressToTemp(Path source, String type, LongConsumer progress) throws IOException {
+        Path temp = Files.createTempFile("blackbox_", ".tmp");
 
-            while ((bytesRead = in.read(buffer)) != -1) {
-                gzipOut.write(buffer, 0, bytesRead);
-                totalRead += bytesRead;
-                int progressPercent = (int) ((totalRead * 100) / fileSize);
-                progress.accept(progressPercent);
+        TextIndex.Terms indexed = null;
+        try (Phase phase = Phase.start(Phase.COMPRESS)) {
+            InputStream content = Files.newInputStream(source);
+            if (TextIndex.isIndexable(type)) content = indexed = new TextIndex.Terms(content);
+            try (PushbackInputStream in = new PushbackInputStream(content, Codecs.SAMPLE_SIZE);
+                 OutputStream out = Files.newOutputStream(temp)) {
+                // Already compressed or random content is stored as is instead of being deflated for nothing
+                codec = Codecs.select(in, type);
+                // Blocks are compressed on all cores
+                BlockIndex.Builder index = new BlockIndex.Builder(ParallelCompressor.DEFAULT_BLOCK_SIZE);
+                phase.bytesIn(ParallelCompressor.compress(codec, in, out, ParallelCompressor.DEFAULT_BLOCK_SIZE, progress,
+                        index::add));
+                blocks = index.build();
             }
+            phase.bytesOut(Files.size(temp));
+        } catch (IOException | RuntimeException e) { // Including a cancelled import
+            Files.deleteIfExists(temp);
+            throw e;
         }
+        if (indexed != null) terms = indexed.get();
         return temp;
     }
 
     public InputStream getContentStream() throws IOException {
-        return new GZIPInputStream(Files.newInputStream(tempFile));
+        if (chunks != null) return chunkStore.open(chunks);
+        return codec.decompress(openCompressedStream());
     }
 
+    // Content from position on. Only the chunks, or with a block index the compressed block, holding
+    // position and what follows are decrypted and decompressed; without an index everything before is skipped.
+    public InputStream getContentStream(long position) throws IOException {
+        if (position <= 0) return getContentStream();
+        if (position >= originalSize) return InputStream.nullInputStream();
+        if (chunks != null) {
+            int first = 0;
+            long start = 0;
+            for (; first < chunks.size(); first++) {
+                long size = chunkStore.get(chunks.get(first)).getRawSize();
+                if (start + size > position) break;
+                start += size;
+            }
+            return skip(chunkStore.open(chunks.subList(first, chunks.size())), position - start);
+        }
+        if (blocks == null) return skip(getContentStream(), position);
+
+        int block = blocks.blockAt(position);
+        long compressedOffset = blocks.getCompressedOffset(block);
+        InputStream compressed;
+        Path temp = tempFile;
+        if (temp != null) {
+            FileChannel channel = FileChannel.open(temp);
+            compressed = Channels.newInputStream(channel.position(compressedOffset));
+        } else {
+            compressed = segment.open(compressedOffset);
+        }
+        return skip(codec.decompress(compressed), position - blocks.getRawOffset(block));
+    }
+
+    // Random access to the content, without writing it out anywhere
+    public SeekableByteChannel openChannel() {
+        return new EntryChannel(this);
+    }
+
+    private static InputStream skip(InputStream in, long bytes) throws IOException {
+        try {
+            in.skipNBytes(bytes);
+            return in;
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // Writes the content to out through a pooled buffer and returns its size; progress receives the running total
+    public long copyContentTo(OutputStream out, LongConsumer progress) throws IOException {
+        byte[] buffer = BufferPool.acquireArray(BufferPool.IO_BUFFER_SIZE);
+        try (Phase phase = Phase.start(Phase.EXTRACT);
+             InputStream in = getContentStream()) {
+            long total = 0;
+            int read;
+            while ((read = in.readNBytes(buffer, 0, buffer.length)) > 0) {
+                out.write(buffer, 0, read);
+                total += read;
+                progress.accept(total);
+            }
+            phase.bytesIn(getTempFileSize()).bytesOut(total);
+            return total;
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    // Raw compressed bytes, as written into a container segment (not for deduplicated entries)
+    InputStream openCompressedStream() throws IOException {
+        Path temp = tempFile;
+        return temp != null ? Files.newInputStream(temp) : segment.open();
+    }
+
+    // Same bytes as a channel; a temp file is read straight into the cipher's direct buffers
+    ReadableByteChannel openCompressedChannel() throws IOException {
+        Path temp = tempFile;
+        return temp != null ? FileChannel.open(temp) : Channels.newChannel(segment.open());
+    }
+
+    // Size of the compressed data
     public long getTempFileSize() throws IOException {
-        return Files.size(tempFile);
+        Path temp = tempFile;
+        if (temp != null) return Files.size(temp);
+        if (chunks == null) return location.getStoredSize();
+        long size = 0;
+        for (String hash : chunks) {
+            size += chunkStore.get(hash).getStoredSize();
+        }
+        return size;
     }
 
-    // Serialization handling
+    // Serialization handling: the legacy format always holds gzip data
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
-        try (InputStream in = Files.newInputStream(tempFile)) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = in.read(buffer)) != -1) {
-                out.write(buffer, 0, bytesRead);
-            }
+        try (InputStream in = getContentStream()) {
+            ParallelCompressor.compress(Codecs.DEFLATE, in, out, ParallelCompressor.DEFAULT_BLOCK_SIZE, totalRead -> {});
         }
     }
 
+    // Only used by the legacy single-stream format, which has to be read front to back anyway
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
+        this.codec = Codecs.DEFLATE;
         this.tempFile = Files.createTempFile("blackbox_", ".tmp");
         try (OutputStream out = Files.newOutputStream(tempFile)) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = in.read(buffer)) != -1) {
-                out.write(buffer, 0, bytesRead);
-            }
+            in.transferTo(out);
         }
     }
 
+    // Once the entry is safely in the container the temp copy is no longer needed
+    // (chunked entries have no segment of their own)
+    void markPersisted(Path container, ContainerEntry location, StoredSegment segment) throws IOException {
+        this.segment = segment;
+        this.container = container;
+        this.location = location;
+        close();
+    }
+
+    // Where this entry already lives in the given container, or null if it still has to be written there
+    ContainerEntry getLocationIn(Path container) {
+        return container.equals(this.container) ? location : null;
+    }
+
+    // Where the content starts in its container, so many entries can be read front to back;
+    // Long.MAX_VALUE when it is not in a container yet
+    long getContainerOffset() throws IOException {
+        if (chunks != null) return chunks.isEmpty() ? Long.MAX_VALUE : chunkStore.getContainerOffset(chunks.get(0));
+        return tempFile == null && segment != null ? segment.getOffset() : Long.MAX_VALUE;
+    }
+
+    // Terms of the content read on import, for the container's TextIndex; null if it was not indexed or
+    // the terms were already taken, so they are only held until the entry is added to a session
+    Set<String> takeTerms() {
+        Set<String> taken = terms;
+        terms = null;
+        return taken;
+    }
+
+    boolean isDeduplicated() {
+        return chunks != null;
+    }
+
+    List<String> getChunks() {
+        return chunks;
+    }
+
+    BlockIndex getBlocks() {
+        return blocks;
+    }
+
+    ChunkStore getChunkStore() {
+        return chunkStore;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
     public String getName() {
         return name;
     }
@@ -78,6 +281,32 @@ public class StoredFile implements Serializable, AutoCloseable {
         return type;
     }
 
+    public long getOriginalSize() {
+        return originalSize;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    // Identifies the content without reading it: the hash of the chunk list of a deduplicated entry, the
+    // MerkleTree root of a saved segment. Null for content that has not been saved yet.
+    public String getContentHash() {
+        if (chunks != null) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                for (String hash : chunks) {
+                    digest.update(HexFormat.of().parseHex(hash));
+                }
+                return HexFormat.of().formatHex(digest.digest());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+        if (location == null || location.getRoot() == null) return null;
+        return HexFormat.of().formatHex(location.getRoot());
+    }
+
     @Override
     public void close() throws IOException {
         if (tempFile != null) {
@@ -0,0 +1,63 @@
+import javax.crypto.SecretKey;
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+// Reference to an encrypted segment inside a container file. Nothing is read until open().
+public class StoredSegment {
+    private final Path container;
+    private final int version;
+    private final SecretKey key;
+    private final long offset;
+    private final long length;
+
+    StoredSegment(Path container, int version, SecretKey key, long offset, long length) {
+        this.container = container;
+        this.version = version;
+        this.key = key;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    // Decrypted, still compressed, segment content; the container file is closed with the stream
+    InputStream open() throws IOException {
+        return open(0);
+    }
+
+    // Same from the given position of the decrypted content on
+    InputStream open(long from) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(container.toFile(), "r");
+        try {
+            FileChannel channel = file.getChannel();
+            InputStream in = ContainerManager.openSegment(channel, version, key, offset, length, from);
+            return new FilterInputStream(in) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        file.close();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        } catch (Exception e) {
+            file.close();
+            throw new IOException("Could not open segment at " + offset + ": " + e.getMessage(), e);
+        }
+    }
+
+    public Path getContainer() {
+        return container;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,335 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Inverted index of the words in a container's text entries, so the entries mentioning a word, such as a
+// customer ID, are found without decrypting any content. Terms are collected while an entry is imported
+// (see Terms) and only the index is kept: each term maps to the sorted numbers of the entries holding it.
+// It is stored as a segment of its own, encrypted like every other, with sorted, front-coded terms and
+// postings as varint gaps between entry numbers. Entries get increasing numbers as they are added, so
+// postings only ever grow at their end; a removed entry just loses its number until the next encode.
+public class TextIndex {
+    private static final int MAGIC = 0x54584931; // "TXI1"
+    static final int MIN_TERM_LENGTH = 2;
+    static final int MAX_TERM_LENGTH = 64;   // In UTF-8 bytes; longer runs are hashes or encoded data
+    // Only the start of very large entries is read for terms, which keeps the term set of one entry bounded
+    static final long MAX_INDEXED_BYTES = Long.getLong("blackbox.textindex.maxBytes", 64L << 20);
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("blackbox.textindex", "true"));
+
+    private final List<String> documents = new ArrayList<>();  // Entry name by number; null once removed
+    private final Map<String, Integer> numbers = new HashMap<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private int removed;
+    private boolean changed;
+
+    // Text-like types get their terms indexed on import, unless the blackbox.textindex property is false
+    public static boolean isIndexable(String type) {
+        if (!ENABLED || type == null) return false;
+        return type.startsWith("text/") || type.endsWith("+xml") || type.endsWith("+json")
+                || type.equals("application/json") || type.equals("application/xml")
+                || type.equals("application/javascript") || type.equals("application/x-sh")
+                || type.equals("application/sql") || type.equals("application/x-yaml");
+    }
+
+    // Entries indexed
+    public int size() {
+        return numbers.size();
+    }
+
+    public boolean contains(String name) {
+        return numbers.containsKey(name);
+    }
+
+    // Indexes an entry under the given terms, replacing what it was indexed under before
+    public void add(String name, Set<String> terms) {
+        remove(name);
+        if (removed > 1024 && removed > numbers.size()) renumber();
+        int number = documents.size();
+        documents.add(name);
+        numbers.put(name, number);
+        for (String term : terms) {
+            postings.computeIfAbsent(term, t -> new Postings()).add(number);
+        }
+        changed = true;
+    }
+
+    public boolean remove(String name) {
+        Integer number = numbers.remove(name);
+        if (number == null) return false;
+        documents.set(number, null);
+        removed++;
+        changed = true;
+        return true;
+    }
+
+    // Names of the entries holding every term of the query, sorted. The query is split into terms the way
+    // content is, so "CUST-10042" finds the entries with both "cust" and "10042".
+    public List<String> search(String query) {
+        Set<String> terms = new HashSet<>();
+        Terms.split(query.getBytes(StandardCharsets.UTF_8), terms);
+        if (terms.isEmpty()) return List.of();
+
+        // Rarest term first, so the candidates only shrink
+        List<Postings> lists = new ArrayList<>();
+        for (String term : terms) {
+            Postings list = postings.get(term);
+            if (list == null) return List.of();
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(list -> list.count));
+        int[] candidates = Arrays.copyOf(lists.get(0).numbers, lists.get(0).count);
+        for (int i = 1; i < lists.size() && candidates.length > 0; i++) {
+            candidates = intersect(candidates, lists.get(i));
+        }
+
+        List<String> names = new ArrayList<>();
+        for (int number : candidates) {
+            String name = documents.get(number);
+            if (name != null) names.add(name);
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    boolean isChanged() {
+        return changed;
+    }
+
+    void markSaved() {
+        changed = false;
+    }
+
+    public byte[] encode() throws IOException {
+        renumber();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            writeVarint(out, documents.size());
+            for (String name : documents) {
+                out.writeUTF(name);
+            }
+            List<String> terms = new ArrayList<>(postings.keySet());
+            Collections.sort(terms);
+            writeVarint(out, terms.size());
+            byte[] previous = new byte[0];
+            for (String term : terms) {
+                // Sorted terms share long prefixes with the one before, which is only written once
+                byte[] bytesOfTerm = term.getBytes(StandardCharsets.UTF_8);
+                int shared = 0;
+                int limit = Math.min(previous.length, bytesOfTerm.length);
+                while (shared < limit && previous[shared] == bytesOfTerm[shared]) shared++;
+                writeVarint(out, shared);
+                writeVarint(out, bytesOfTerm.length - shared);
+                out.write(bytesOfTerm, shared, bytesOfTerm.length - shared);
+                previous = bytesOfTerm;
+
+                Postings list = postings.get(term);
+                writeVarint(out, list.count);
+                int last = 0;
+                for (int i = 0; i < list.count; i++) {
+                    writeVarint(out, list.numbers[i] - last);
+                    last = list.numbers[i];
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    public static TextIndex decode(byte[] encoded) throws IOException {
+        TextIndex index = new TextIndex();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            if (in.readInt() != MAGIC) throw new IOException("Corrupt text index");
+            int documentCount = readVarint(in);
+            for (int number = 0; number < documentCount; number++) {
+                String name = in.readUTF();
+                index.documents.add(name);
+                index.numbers.put(name, number);
+            }
+            int termCount = readVarint(in);
+            byte[] term = new byte[0];
+            for (int t = 0; t < termCount; t++) {
+                int shared = readVarint(in);
+                int suffix = readVarint(in);
+                if (shared > term.length) throw new IOException("Corrupt text index");
+                term = Arrays.copyOf(term, shared + suffix);
+                in.readFully(term, shared, suffix);
+
+                int count = readVarint(in);
+                Postings list = new Postings(count);
+                int number = 0;
+                for (int i = 0; i < count; i++) {
+                    number += readVarint(in);
+                    if (number >= documentCount) throw new IOException("Corrupt text index");
+                    list.add(number);
+                }
+                index.postings.put(new String(term, StandardCharsets.UTF_8), list);
+            }
+        }
+        return index;
+    }
+
+    // Numbers the live entries from 0 again, in the order they were added, and drops removed ones from the
+    // postings, so the gaps stay small
+    private void renumber() {
+        if (removed == 0) return;
+        int[] renumbered = new int[documents.size()];
+        List<String> live = new ArrayList<>(numbers.size());
+        for (int number = 0; number < documents.size(); number++) {
+            String name = documents.get(number);
+            renumbered[number] = name == null ? -1 : live.size();
+            if (name != null) {
+                numbers.put(name, live.size());
+                live.add(name);
+            }
+        }
+        documents.clear();
+        documents.addAll(live);
+        postings.values().removeIf(list -> list.renumber(renumbered) == 0);
+        removed = 0;
+    }
+
+    // Candidates that are also in the list, both sorted
+    private static int[] intersect(int[] candidates, Postings list) {
+        int[] both = new int[Math.min(candidates.length, list.count)];
+        int count = 0;
+        for (int i = 0, j = 0; i < candidates.length && j < list.count; ) {
+            if (candidates[i] < list.numbers[j]) i++;
+            else if (candidates[i] > list.numbers[j]) j++;
+            else {
+                both[count++] = candidates[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(both, count);
+    }
+
+    // 7 bits per byte, low bits first; the high bit marks that more follow
+    static void writeVarint(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarint(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Corrupt text index");
+    }
+
+    private static class Postings {
+        private int[] numbers;
+        private int count;
+
+        Postings() {
+            this(4);
+        }
+
+        Postings(int capacity) {
+            numbers = new int[Math.max(capacity, 1)];
+        }
+
+        void add(int number) {
+            if (count == numbers.length) numbers = Arrays.copyOf(numbers, count * 2);
+            numbers[count++] = number;
+        }
+
+        // Keeps the numbers still in use, mapped to their new ones; returns how many are left
+        int renumber(int[] renumbered) {
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                int number = renumbered[numbers[i]];
+                if (number >= 0) numbers[kept++] = number;
+            }
+            count = kept;
+            return count;
+        }
+    }
+
+    // Passes content through unchanged while collecting its terms: runs of ASCII letters and digits, lower
+    // cased, and of any non-ASCII bytes, so words in other scripts are kept whole. Reading is what feeds
+    // it, so it can sit in front of the compressor and the content is only read once.
+    public static class Terms extends FilterInputStream {
+        private final Set<String> terms = new HashSet<>();
+        private final byte[] term = new byte[MAX_TERM_LENGTH];
+        private int length;        // Of the current run; past MAX_TERM_LENGTH it is dropped when it ends
+        private long indexed;
+
+        public Terms(InputStream in) {
+            super(in);
+        }
+
+        public Set<String> get() {
+            endTerm();
+            return terms;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) scan(new byte[] {(byte) b}, 0, 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) scan(b, off, n);
+            return n;
+        }
+
+        // Skipped bytes are read, so none escape the index
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read < 0) break;
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void scan(byte[] b, int off, int len) {
+            if (indexed >= MAX_INDEXED_BYTES) return;
+            int end = off + (int) Math.min(len, MAX_INDEXED_BYTES - indexed);
+            indexed += end - off;
+            for (int i = off; i < end; i++) {
+                int c = b[i];
+                if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+                if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c < 0) {
+                    if (length < MAX_TERM_LENGTH) term[length] = (byte) c;
+                    length++;
+                } else {
+                    endTerm();
+                }
+            }
+        }
+
+        private void endTerm() {
+            if (length >= MIN_TERM_LENGTH && length <= MAX_TERM_LENGTH) {
+                terms.add(new String(term, 0, length, StandardCharsets.UTF_8));
+            }
+            length = 0;
+        }
+
+        // The terms of a whole text, as queries are split
+        static void split(byte[] text, Set<String> into) {
+            Terms terms = new Terms(InputStream.nullInputStream());
+            terms.scan(text, 0, text.length);
+            into.addAll(terms.get());
+        }
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+// Checks entries against the MerkleTree roots recorded in the table of contents, which is itself
+// authenticated. Segments are cut into aligned runs of leaves, and the runs of all selected segments
+// are hashed on a pool of one thread per core, so even a single huge entry keeps every core busy;
+// segments of entries that were not selected are not read at all. Segments written before roots were
+// recorded are decrypted instead, which checks the GCM tag of every chunk.
+public class Verifier {
+    private static final int THREADS = Integer.getInteger("blackbox.verify.threads",
+            Runtime.getRuntime().availableProcessors());
+    private static final int RUN_LEAVES = 256; // Leaves hashed by one task, 16 MiB of segment
+
+    private final ProgressTracker tracker;
+    private final int threads;
+    private final int runLeaves;
+
+    public Verifier(ProgressTracker tracker) {
+        this(tracker, THREADS, RUN_LEAVES);
+    }
+
+    // runLeaves must be a power of two, so every run is a subtree of its own
+    Verifier(ProgressTracker tracker, int threads, int runLeaves) {
+        if (Integer.bitCount(runLeaves) != 1) throw new IllegalArgumentException("Runs must be a power of two");
+        this.tracker = tracker;
+        this.threads = Math.max(1, threads);
+        this.runLeaves = runLeaves;
+    }
+
+    // Names of the entries accepted by filter whose content is damaged, sorted; empty when all are intact
+    public List<String> verify(String containerPath, ContainerKey key, Predicate<String> filter) throws Exception {
+        ContainerManager.Toc toc = ContainerManager.readToc(containerPath, key);
+        if (toc.version == ContainerHeader.VERSION_CBC) {
+            throw new IOException("Container must be saved in the current format before it can be verified");
+        }
+
+        // Each segment once, with every entry that depends on it, in file order
+        Set<String> damaged = new TreeSet<>();
+        Map<Long, Segment> segments = new TreeMap<>();
+        for (ContainerEntry entry : toc.entries) {
+            if (!filter.test(entry.getName())) continue;
+            if (!entry.isChunked()) {
+                segments.computeIfAbsent(entry.getOffset(), offset -> new Segment(offset, entry.getLength(),
+                        entry.getRoot())).owners.add(entry.getName());
+                continue;
+            }
+            for (String hash : entry.getChunks()) {
+                ChunkRecord record = toc.chunks.get(hash);
+                if (record == null) {
+                    damaged.add(entry.getName());
+                    continue;
+                }
+                segments.computeIfAbsent(record.getOffset(), offset -> new Segment(offset, record.getLength(),
+                        record.getRoot())).owners.add(entry.getName());
+            }
+        }
+
+        List<Runnable> tasks = new ArrayList<>();
+        try (RandomAccessFile file = new RandomAccessFile(containerPath, "r");
+             FileChannel channel = file.getChannel()) {
+            for (Segment segment : segments.values()) {
+                tracker.addTotal(segment.length);
+                if (segment.root == null) {
+                    tasks.add(() -> decrypt(channel, key, segment));
+                    continue;
+                }
+                int runs = (int) ((MerkleTree.leafCount(segment.length) + runLeaves - 1) / runLeaves);
+                segment.runRoots = new byte[runs][];
+                segment.remaining = new AtomicInteger(runs);
+                for (int run = 0; run < runs; run++) {
+                    int index = run;
+                    tasks.add(() -> hashRun(channel, segment, index));
+                }
+            }
+            run(tasks);
+        }
+
+        for (Segment segment : segments.values()) {
+            if (segment.damaged) damaged.addAll(segment.owners);
+        }
+        return new ArrayList<>(damaged);
+    }
+
+    // Tasks are handed out in order, so the workers together read the file front to back
+    private void run(List<Runnable> tasks) throws IOException {
+        new Workers("Verification").forEach(tasks, threads, "blackbox-verify", Runnable::run);
+    }
+
+    // Leaf i covers encrypted chunk i; leaf 0 starts at the nonce prefix
+    private void hashRun(FileChannel channel, Segment segment, int run) {
+        long leaves = MerkleTree.leafCount(segment.length);
+        long first = (long) run * runLeaves;
+        long last = Math.min(leaves, first + runLeaves);
+        ByteBuffer buffer = BufferPool.acquireDirect(ChunkedCipher.NONCE_PREFIX_LENGTH + MerkleTree.LEAF_SIZE);
+        try {
+            List<byte[]> hashes = new ArrayList<>((int) (last - first));
+            for (long leaf = first; leaf < last; leaf++) {
+                long start = leaf == 0 ? 0 : ChunkedCipher.NONCE_PREFIX_LENGTH + leaf * MerkleTree.LEAF_SIZE;
+                long end = Math.min(segment.length, ChunkedCipher.NONCE_PREFIX_LENGTH + (leaf + 1) * MerkleTree.LEAF_SIZE);
+                buffer.clear().limit((int) Math.max(0, end - start));
+                ContainerHeader.readFully(channel, buffer, segment.offset + start);
+                hashes.add(MerkleTree.leaf(buffer.flip()));
+                tracker.addDone(buffer.limit());
+            }
+            segment.runRoots[run] = MerkleTree.root(hashes);
+        } catch (IOException e) {
+            segment.damaged = true; // Cut short, e.g. by a truncated file
+        } finally {
+            BufferPool.release(buffer);
+        }
+        // The last run to finish puts the segment's tree together
+        if (segment.remaining.decrementAndGet() == 0 && !segment.damaged) {
+            byte[] root = MerkleTree.root(Arrays.asList(segment.runRoots));
+            segment.damaged = !MessageDigest.isEqual(root, segment.root);
+        }
+    }
+
+    private void decrypt(FileChannel channel, ContainerKey key, Segment segment) {
+        byte[] buffer = BufferPool.acquireArray(BufferPool.IO_BUFFER_SIZE);
+        try (InputStream in = ChunkedCipher.decrypt(key.getDataKey(), channel, segment.offset, segment.length)) {
+            while (in.read(buffer) >= 0) {
+                tracker.checkCancelled();
+            }
+        } catch (IOException e) {
+            segment.damaged = true;
+        } finally {
+            BufferPool.release(buffer);
+        }
+        tracker.addDone(segment.length);
+    }
+
+    private static class Segment {
+        final long offset;
+        final long length;
+        final byte[] root;   // Null for segments written before roots were recorded
+        final Set<String> owners = new TreeSet<>();
+        byte[][] runRoots;
+        AtomicInteger remaining;
+        volatile boolean damaged;
+
+        Segment(long offset, long length, byte[] root) {
+            this.offset = offset;
+            this.length = length;
+            this.root = root;
+        }
+    }
+}
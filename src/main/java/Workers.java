@@ -0,0 +1,102 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Bookkeeping shared by the parallel stages of DirectoryImporter, Extractor and Verifier: the first failure,
+// which every worker checks to stop early, and pools that are stopped without interrupts. Workers read and
+// write through FileChannels, such as the chunk store's staging file, and an interrupt during I/O closes a
+// channel for everyone using it, so they are told to stop through the failure and waited for instead.
+class Workers {
+    interface Task<T> {
+        void run(T item) throws Exception;
+    }
+
+    private final String action; // For messages, e.g. "Extraction" failed
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    Workers(String action) {
+        this.action = action;
+    }
+
+    boolean failed() {
+        return failure.get() != null;
+    }
+
+    // Only the first failure is kept; returns whether e was it
+    boolean fail(Exception e) {
+        return failure.compareAndSet(null, e);
+    }
+
+    // Throws the first failure, if any: IOExceptions and RuntimeExceptions, including a cancel, as they are
+    void rethrow() throws IOException {
+        Exception e = failure.get();
+        if (e == null) return;
+        if (e instanceof IOException) throw (IOException) e;
+        if (e instanceof RuntimeException) throw (RuntimeException) e;
+        throw new IOException(action + " failed: " + e.getMessage(), e);
+    }
+
+    // Runs task on every item on up to threads daemon threads, handing the items out in order, so workers
+    // reading a container together read it roughly front to back. After the first failure the others stop
+    // once their current item is done, and the failure is thrown when all have stopped.
+    <T> void forEach(Collection<T> items, int threads, String name, Task<T> task) throws IOException {
+        if (items.isEmpty()) return;
+        Iterator<T> next = items.iterator();
+        int workerCount = Math.min(Math.max(1, threads), items.size());
+        ExecutorService pool = Executors.newFixedThreadPool(workerCount, daemon(name));
+        try {
+            List<Future<?>> running = new ArrayList<>();
+            for (int i = 0; i < workerCount; i++) {
+                running.add(pool.submit(() -> {
+                    while (!failed()) {
+                        T item;
+                        synchronized (next) {
+                            if (!next.hasNext()) return;
+                            item = next.next();
+                        }
+                        try {
+                            task.run(item);
+                        } catch (Exception e) {
+                            fail(e);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> worker : running) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            fail(new InterruptedIOException(action + " interrupted"));
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            fail(new IOException(action + " failed: " + e.getCause().getMessage(), e.getCause()));
+        } finally {
+            shutdownAndAwait(pool);
+        }
+        rethrow();
+    }
+
+    // Lets the running tasks finish, waiting even if the calling thread is interrupted, and keeps the
+    // interrupt for the caller
+    static void shutdownAndAwait(ExecutorService pool) {
+        pool.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (pool.awaitTermination(1, TimeUnit.MINUTES)) break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,198 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Map;
+
+class BlackBoxCliTest {
+    private static final Map<String, String> ENV = Map.of("BLACKBOX_PASSWORD", "cliPassword123");
+    private Path directory;
+    private String container;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("test_cli_");
+        container = directory.resolve("backup.box").toString();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (var paths = Files.walk(directory)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private int run(byte[] stdin, ByteArrayOutputStream stdout, Map<String, String> env, String... args) {
+        PrintStream stderr = new PrintStream(new ByteArrayOutputStream());
+        return new BlackBoxCli(new ByteArrayInputStream(stdin), stdout, stderr, env).execute(args);
+    }
+
+    private int run(String... args) {
+        return run(new byte[0], new ByteArrayOutputStream(), ENV, args);
+    }
+
+    @Test
+    @DisplayName("Entries streamed from stdin and files should extract and list")
+    void testStreamingRoundTrip() throws IOException {
+        byte[] data = "streamed through stdin\n".repeat(10000).getBytes(StandardCharsets.UTF_8);
+        Path file = Files.writeString(directory.resolve("notes.txt"), "file content");
+
+        assertEquals(BlackBoxCli.EXIT_OK, run("create", container));
+        assertEquals(BlackBoxCli.EXIT_OK,
+                run(data, new ByteArrayOutputStream(), ENV, "add", container, "-", "--name", "stream.log"));
+        assertEquals(BlackBoxCli.EXIT_OK, run("add", container, file.toString()));
+
+        ByteArrayOutputStream extracted = new ByteArrayOutputStream();
+        assertEquals(BlackBoxCli.EXIT_OK, run(new byte[0], extracted, ENV, "extract", container, "stream.log"));
+        assertArrayEquals(data, extracted.toByteArray());
+
+        ByteArrayOutputStream listing = new ByteArrayOutputStream();
+        assertEquals(BlackBoxCli.EXIT_OK, run(new byte[0], listing, ENV, "list", container));
+        String list = listing.toString(StandardCharsets.UTF_8);
+        assertTrue(list.contains("stream.log\tunknown\t" + data.length));
+        assertTrue(list.contains("notes.txt"));
+
+        Path out = directory.resolve("out");
+        assertEquals(BlackBoxCli.EXIT_OK, run("extract-all", container, out.toString()));
+        assertEquals("file content", Files.readString(out.resolve("notes.txt")));
+        assertArrayEquals(data, Files.readAllBytes(out.resolve("stream.log")));
+    }
+
+    @Test
+    @DisplayName("extract-all with a pattern should only write matching entries")
+    void testExtractAllPattern() throws IOException {
+        Path docs = Files.createDirectories(directory.resolve("docs"));
+        Path report = Files.writeString(docs.resolve("report.pdf"), "pdf");
+        Path notes = Files.writeString(docs.resolve("notes.txt"), "txt");
+        assertEquals(BlackBoxCli.EXIT_OK, run("create", container));
+        assertEquals(BlackBoxCli.EXIT_OK, run("add", container, report.toString(), notes.toString()));
+
+        Path out = directory.resolve("out");
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        int exit = new BlackBoxCli(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(),
+                new PrintStream(errors, true, StandardCharsets.UTF_8), ENV)
+                .execute(new String[]{"extract-all", container, out.toString(), "*.pdf", "--progress"});
+
+        assertEquals(BlackBoxCli.EXIT_OK, exit);
+        assertEquals("pdf", Files.readString(out.resolve("report.pdf")));
+        assertFalse(Files.exists(out.resolve("notes.txt")));
+        assertTrue(errors.toString(StandardCharsets.UTF_8).contains("Extracted 1 entries"));
+    }
+
+    @Test
+    @DisplayName("remove and compact should drop entries and shrink the container")
+    void testRemoveAndCompact() throws IOException {
+        byte[] data = new byte[256 * 1024];
+        new java.util.Random(9).nextBytes(data);
+        Path big = Files.write(directory.resolve("big.bin"), data);
+        Path small = Files.writeString(directory.resolve("small.txt"), "kept");
+        assertEquals(BlackBoxCli.EXIT_OK, run("create", container));
+        assertEquals(BlackBoxCli.EXIT_OK, run("add", container, big.toString(), small.toString()));
+
+        assertEquals(BlackBoxCli.EXIT_OK, run("remove", container, "big.bin"));
+        assertEquals(BlackBoxCli.EXIT_NOT_FOUND, run("remove", container, "big.bin"));
+        long before = Files.size(Paths.get(container));
+        assertEquals(BlackBoxCli.EXIT_OK, run("compact", container));
+        assertTrue(Files.size(Paths.get(container)) < before - data.length);
+
+        ByteArrayOutputStream listing = new ByteArrayOutputStream();
+        assertEquals(BlackBoxCli.EXIT_OK, run(new byte[0], listing, ENV, "list", container));
+        assertFalse(listing.toString(StandardCharsets.UTF_8).contains("big.bin"));
+        ByteArrayOutputStream extracted = new ByteArrayOutputStream();
+        assertEquals(BlackBoxCli.EXIT_OK, run(new byte[0], extracted, ENV, "extract", container, "small.txt"));
+        assertEquals("kept", extracted.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("search should name the entries mentioning every word, including after a remove")
+    void testSearch() throws IOException {
+        Path march = Files.writeString(directory.resolve("march.csv"), "customer,amount\nCUST-10042,17.50\n");
+        Path notes = Files.writeString(directory.resolve("notes.txt"), "Call CUST-10042 back");
+        assertEquals(BlackBoxCli.EXIT_OK, run("create", container));
+        assertEquals(BlackBoxCli.EXIT_OK, run("add", container, march.toString(), notes.toString(),
+                "--type", "text/plain"));
+        assertEquals(BlackBoxCli.EXIT_OK, run("Customer ID".getBytes(StandardCharsets.UTF_8),
+                new ByteArrayOutputStream(), ENV, "add", container, "-", "--name", "untyped.log"));
+
+        ByteArrayOutputStream hits = new ByteArrayOutputStream();
+        assertEquals(BlackBoxCli.EXIT_OK, run(new byte[0], hits, ENV, "search", container, "cust-10042"));
+        assertEquals(List.of("march.csv", "notes.txt"), hits.toString(StandardCharsets.UTF_8).lines().toList());
+
+        assertEquals(BlackBoxCli.EXIT_OK, run("remove", container, "notes.txt"));
+        hits.reset();
+        assertEquals(BlackBoxCli.EXIT_OK, run(new byte[0], hits, ENV, "search", container, "10042", "customer"));
+        assertEquals(List.of("march.csv"), hits.toString(StandardCharsets.UTF_8).lines().toList());
+        assertEquals(BlackBoxCli.EXIT_USAGE, run("search", container));
+    }
+
+    @Test
+    @DisplayName("verify should list damaged entries and fail")
+    void testVerify() throws Exception {
+        Path file = Files.writeString(directory.resolve("notes.txt"), "notes ".repeat(1000));
+        assertEquals(BlackBoxCli.EXIT_OK, run("create", container));
+        assertEquals(BlackBoxCli.EXIT_OK, run("add", container, file.toString()));
+        assertEquals(BlackBoxCli.EXIT_OK, run("verify", container));
+
+        ContainerEntry entry = ContainerManager.listEntries(container, "cliPassword123").get(0);
+        try (RandomAccessFile raf = new RandomAccessFile(container, "rw")) {
+            raf.seek(entry.getOffset() + entry.getLength() - 1);
+            int last = raf.read();
+            raf.seek(entry.getOffset() + entry.getLength() - 1);
+            raf.write(last ^ 1);
+        }
+        ByteArrayOutputStream damaged = new ByteArrayOutputStream();
+        assertEquals(BlackBoxCli.EXIT_AUTH, run(new byte[0], damaged, ENV, "verify", container));
+        assertEquals("notes.txt", damaged.toString(StandardCharsets.UTF_8).strip());
+    }
+
+    @Test
+    @DisplayName("A tampered entry should exit as an authentication failure")
+    void testTamperedExtract() throws Exception {
+        Path file = Files.writeString(directory.resolve("notes.txt"), "notes ".repeat(1000));
+        assertEquals(BlackBoxCli.EXIT_OK, run("create", container));
+        assertEquals(BlackBoxCli.EXIT_OK, run("add", container, file.toString()));
+
+        ContainerEntry entry = ContainerManager.listEntries(container, "cliPassword123").get(0);
+        try (RandomAccessFile raf = new RandomAccessFile(container, "rw")) {
+            raf.seek(entry.getOffset() + entry.getLength() - 1);
+            int last = raf.read();
+            raf.seek(entry.getOffset() + entry.getLength() - 1);
+            raf.write(last ^ 1);
+        }
+        assertEquals(BlackBoxCli.EXIT_AUTH, run("extract", container, "notes.txt",
+                directory.resolve("out.txt").toString()));
+    }
+
+    @Test
+    @DisplayName("Failures should map to distinct exit codes")
+    void testExitCodes() {
+        assertEquals(BlackBoxCli.EXIT_USAGE, run("frobnicate", container));
+        assertEquals(BlackBoxCli.EXIT_NOT_FOUND, run("list", container));
+        assertEquals(BlackBoxCli.EXIT_OK, run("create", container));
+        assertEquals(BlackBoxCli.EXIT_ERROR, run("create", container));
+        assertEquals(BlackBoxCli.EXIT_NOT_FOUND, run("extract", container, "missing.txt"));
+        assertEquals(BlackBoxCli.EXIT_AUTH,
+                run(new byte[0], new ByteArrayOutputStream(), Map.of("BLACKBOX_PASSWORD", "wrong"), "list", container));
+        assertEquals(BlackBoxCli.EXIT_USAGE, run(new byte[0], new ByteArrayOutputStream(), Map.of(), "list", container));
+    }
+
+    @Test
+    @DisplayName("--metrics should print phase counters to stderr")
+    void testMetricsDump() {
+        assertEquals(BlackBoxCli.EXIT_OK, run("create", container));
+        assertEquals(BlackBoxCli.EXIT_OK, run("hello".getBytes(StandardCharsets.UTF_8), new ByteArrayOutputStream(),
+                ENV, "add", container, "-", "--name", "hello.txt"));
+
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        PrintStream stderr = new PrintStream(errors, true, StandardCharsets.UTF_8);
+        int exit = new BlackBoxCli(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(), stderr, ENV)
+                .execute(new String[]{"extract", container, "hello.txt", "--metrics"});
+        assertEquals(BlackBoxCli.EXIT_OK, exit);
+        String dump = errors.toString(StandardCharsets.UTF_8);
+        assertTrue(dump.contains("extract.count "));
+        assertTrue(dump.contains("kdf.micros count="));
+    }
+}
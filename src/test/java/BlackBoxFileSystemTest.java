@@ -0,0 +1,217 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.stream.Stream;
+
+class BlackBoxFileSystemTest {
+    private static final String TEST_PASSWORD = "testPassword123";
+    private Path tempDir;
+    private Path container;
+    private byte[] text;
+    private byte[] random;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("test_fs_");
+        container = tempDir.resolve("test.box");
+
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; lines.length() < 3 * 1024 * 1024 + 12345; i++) {
+            lines.append("line ").append(i).append(" of a compressible entry\n");
+        }
+        text = lines.toString().getBytes(StandardCharsets.UTF_8);
+        random = new byte[2 * 1024 * 1024 + 777];
+        new Random(3).nextBytes(random);
+
+        Map<String, StoredFile> files = new HashMap<>();
+        files.put("docs/log.txt", storedFile("docs/log.txt", "text/plain", text));
+        files.put("docs/deep/random.bin", storedFile("docs/deep/random.bin", "application/octet-stream", random));
+        files.put("top.txt", storedFile("top.txt", "text/plain", "top".getBytes(StandardCharsets.UTF_8)));
+        ContainerManager.saveContainer(container.toString(), TEST_PASSWORD, files);
+        for (StoredFile file : files.values()) {
+            file.close();
+        }
+    }
+
+    private StoredFile storedFile(String name, String type, byte[] content) throws IOException {
+        Path source = Files.write(tempDir.resolve("source_" + name.replace('/', '_')), content);
+        return new StoredFile(name, type, source, p -> {});
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private FileSystem mount() throws IOException {
+        return FileSystems.newFileSystem(URI.create("blackbox:" + container.toUri()), Map.of("password", TEST_PASSWORD));
+    }
+
+    @Test
+    @DisplayName("Mounted container should be walkable and readable through Files")
+    void testWalkAndRead() throws IOException {
+        try (FileSystem fs = mount()) {
+            List<String> walked;
+            try (Stream<Path> paths = Files.walk(fs.getPath("/"))) {
+                walked = paths.map(Path::toString).sorted().toList();
+            }
+            assertEquals(List.of("/", "/docs", "/docs/deep", "/docs/deep/random.bin", "/docs/log.txt", "/top.txt"),
+                    walked);
+
+            assertTrue(Files.isDirectory(fs.getPath("/docs/deep")));
+            assertTrue(Files.isRegularFile(fs.getPath("docs/log.txt")));
+            assertEquals(text.length, Files.size(fs.getPath("/docs/log.txt")));
+            assertArrayEquals(random, Files.readAllBytes(fs.getPath("/docs/deep/random.bin")));
+            assertEquals("top", Files.readString(fs.getPath("/top.txt")));
+            assertFalse(Files.exists(fs.getPath("/missing.txt")));
+
+            Path copy = tempDir.resolve("copy.txt");
+            Files.copy(fs.getPath("/docs/log.txt"), copy);
+            assertArrayEquals(text, Files.readAllBytes(copy));
+
+            Map<String, Object> attributes = Files.readAttributes(fs.getPath("/top.txt"), "size,isRegularFile");
+            assertEquals(3L, attributes.get("size"));
+            assertEquals(true, attributes.get("isRegularFile"));
+        }
+    }
+
+    @Test
+    @DisplayName("Seeking should return the right bytes at any position")
+    void testSeekableChannel() throws IOException {
+        try (FileSystem fs = mount()) {
+            for (String name : List.of("/docs/log.txt", "/docs/deep/random.bin")) {
+                byte[] expected = name.endsWith(".txt") ? text : random;
+                try (SeekableByteChannel channel = Files.newByteChannel(fs.getPath(name))) {
+                    assertEquals(expected.length, channel.size());
+                    Random positions = new Random(11);
+                    for (int i = 0; i < 40; i++) {
+                        int position = positions.nextInt(expected.length);
+                        ByteBuffer buffer = ByteBuffer.allocate(Math.min(5000, expected.length - position));
+                        channel.position(position);
+                        while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                            // Reads may return fewer bytes than asked for
+                        }
+                        assertArrayEquals(Arrays.copyOfRange(expected, position, position + buffer.capacity()),
+                                buffer.array(), name + " at " + position);
+                    }
+                    channel.position(expected.length);
+                    assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Reading near the end should only decrypt the blocks holding it")
+    void testSeekDecryptsOnlyCoveringBlocks() throws IOException {
+        try (FileSystem fs = mount();
+             SeekableByteChannel channel = Files.newByteChannel(fs.getPath("/docs/log.txt"))) {
+            long before = Metrics.getCounter("decrypt.bytesIn");
+            channel.position(text.length - 100);
+            ByteBuffer buffer = ByteBuffer.allocate(100);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                // Reads may return fewer bytes than asked for
+            }
+            channel.close();
+            assertArrayEquals(Arrays.copyOfRange(text, text.length - 100, text.length), buffer.array());
+
+            long decrypted = Metrics.getCounter("decrypt.bytesIn") - before;
+            long stored = Files.size(container);
+            assertTrue(decrypted > 0 && decrypted < stored / 2,
+                    "Decrypted " + decrypted + " bytes of a " + stored + " byte container");
+        }
+    }
+
+    @Test
+    @DisplayName("Deduplicated entries should be readable at any position")
+    void testDeduplicatedEntries() throws Exception {
+        Path deduplicated = tempDir.resolve("dedup.box");
+        try (ContainerSession session = ContainerSession.create(deduplicated.toString(), TEST_PASSWORD)) {
+            Path source = Files.write(tempDir.resolve("dedup_source"), text);
+            session.put(new StoredFile("log.txt", "text/plain", source, p -> {}, session.getChunkStore()));
+            session.commit();
+        }
+
+        try (FileSystem fs = FileSystems.newFileSystem(deduplicated, Map.of("password", TEST_PASSWORD));
+             SeekableByteChannel channel = Files.newByteChannel(fs.getPath("/log.txt"))) {
+            int position = text.length / 2 + 17;
+            channel.position(position);
+            ByteBuffer buffer = ByteBuffer.allocate(1000);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                // Reads may return fewer bytes than asked for
+            }
+            assertArrayEquals(Arrays.copyOfRange(text, position, position + 1000), buffer.array());
+        }
+    }
+
+    @Test
+    @DisplayName("Mounted containers should be read-only")
+    void testReadOnly() throws IOException {
+        try (FileSystem fs = mount()) {
+            assertTrue(fs.isReadOnly());
+            assertThrows(ReadOnlyFileSystemException.class, () -> Files.newOutputStream(fs.getPath("/new.txt")));
+            assertThrows(ReadOnlyFileSystemException.class, () -> Files.delete(fs.getPath("/top.txt")));
+            assertThrows(ReadOnlyFileSystemException.class, () -> Files.createDirectory(fs.getPath("/dir")));
+            assertFalse(Files.isWritable(fs.getPath("/top.txt")));
+            assertThrows(NotDirectoryException.class, () -> Files.newDirectoryStream(fs.getPath("/top.txt")));
+            assertThrows(FileSystemException.class, () -> Files.readAllBytes(fs.getPath("/docs")));
+        }
+    }
+
+    @Test
+    @DisplayName("URIs should find the mounted file system and its entries")
+    void testUris() throws IOException {
+        URI uri = URI.create("blackbox:" + container.toUri());
+        try (FileSystem fs = mount()) {
+            assertThrows(FileSystemAlreadyExistsException.class, this::mount);
+            assertSame(fs, FileSystems.getFileSystem(uri));
+
+            Path entry = fs.getPath("/docs/log.txt");
+            assertEquals(entry, Paths.get(entry.toUri()));
+            assertEquals(text.length,
+                    Files.readAttributes(Paths.get(entry.toUri()), BasicFileAttributes.class).size());
+        }
+        assertThrows(FileSystemNotFoundException.class, () -> FileSystems.getFileSystem(uri));
+    }
+
+    @Test
+    @DisplayName("Wrong password should fail to mount")
+    void testWrongPassword() {
+        assertThrows(IOException.class, () ->
+                FileSystems.newFileSystem(URI.create("blackbox:" + container.toUri()), Map.of("password", "wrong")));
+    }
+
+    @Test
+    @DisplayName("Paths should behave like those of other file systems")
+    void testPaths() throws IOException {
+        try (FileSystem fs = mount()) {
+            Path path = fs.getPath("/docs", "deep", "random.bin");
+            assertEquals("/docs/deep/random.bin", path.toString());
+            assertEquals("random.bin", path.getFileName().toString());
+            assertEquals("/docs/deep", path.getParent().toString());
+            assertEquals(3, path.getNameCount());
+            assertEquals("deep/random.bin", path.subpath(1, 3).toString());
+            assertTrue(path.startsWith(fs.getPath("/docs")));
+            assertFalse(path.startsWith(fs.getPath("/do")));
+            assertTrue(path.endsWith("deep/random.bin"));
+            assertEquals("/docs/log.txt", fs.getPath("/docs/deep/../../docs/./log.txt").normalize().toString());
+            assertEquals("../log.txt", fs.getPath("/docs/deep").relativize(fs.getPath("/docs/log.txt")).toString());
+            assertEquals("/docs/log.txt", fs.getPath("/docs").resolve("log.txt").toString());
+            assertEquals("/top.txt", fs.getPath("top.txt").toAbsolutePath().toString());
+            assertTrue(fs.getPathMatcher("glob:/docs/**.txt").matches(fs.getPath("/docs/log.txt")));
+            assertFalse(fs.getPathMatcher("glob:/docs/*.bin").matches(path));
+        }
+    }
+}
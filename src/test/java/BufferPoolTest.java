@@ -0,0 +1,31 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+
+class BufferPoolTest {
+    @Test
+    @DisplayName("Released direct buffers should be handed out again, cleared")
+    void testDirectBuffersReused() {
+        ByteBuffer buffer = BufferPool.acquireDirect(12345);
+        assertTrue(buffer.isDirect());
+        buffer.put((byte) 1).flip();
+        BufferPool.release(buffer);
+
+        ByteBuffer again = BufferPool.acquireDirect(12345);
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(12345, again.limit());
+    }
+
+    @Test
+    @DisplayName("Arrays should only be reused for the same size")
+    void testArraysPooledBySize() {
+        byte[] array = BufferPool.acquireArray(54321);
+        BufferPool.release(array);
+
+        assertNotSame(array, BufferPool.acquireArray(54320));
+        assertSame(array, BufferPool.acquireArray(54321));
+    }
+}
@@ -0,0 +1,121 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.util.*;
+
+class ChunkStoreTest {
+    private static byte[] randomData(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static List<byte[]> chunk(byte[] data) throws IOException {
+        ContentChunker chunker = new ContentChunker(new ByteArrayInputStream(data));
+        List<byte[]> chunks = new ArrayList<>();
+        byte[] chunk;
+        while ((chunk = chunker.next()) != null) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    @Test
+    @DisplayName("Chunks should cover the input and respect the size limits")
+    void testChunkSizes() throws IOException {
+        byte[] data = randomData(2 * 1024 * 1024 + 123, 1);
+
+        List<byte[]> chunks = chunk(data);
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int i = 0; i < chunks.size(); i++) {
+            int size = chunks.get(i).length;
+            assertTrue(size <= ContentChunker.MAX_SIZE);
+            if (i < chunks.size() - 1) assertTrue(size >= ContentChunker.MIN_SIZE);
+            joined.write(chunks.get(i));
+        }
+        assertArrayEquals(data, joined.toByteArray());
+        assertTrue(chunks.size() > 4);
+    }
+
+    @Test
+    @DisplayName("An insert near the start should leave later chunks unchanged")
+    void testBoundariesResynchronize() throws IOException {
+        byte[] data = randomData(1024 * 1024, 2);
+        byte[] edited = new byte[data.length + 7];
+        System.arraycopy(data, 0, edited, 0, 1000);
+        System.arraycopy(data, 1000, edited, 1007, data.length - 1000);
+
+        Set<String> original = new HashSet<>();
+        for (byte[] chunk : chunk(data)) {
+            original.add(HexFormat.of().formatHex(ChunkStore.sha256(chunk)));
+        }
+        List<byte[]> editedChunks = chunk(edited);
+        long shared = editedChunks.stream()
+                .filter(c -> original.contains(HexFormat.of().formatHex(ChunkStore.sha256(c))))
+                .count();
+
+        assertTrue(shared >= editedChunks.size() - 2);
+    }
+
+    @Test
+    @DisplayName("Identical content should be stored once")
+    void testDeduplication() throws IOException {
+        byte[] data = randomData(600 * 1024, 3);
+        try (ChunkStore store = new ChunkStore()) {
+            List<String> first = store.importStream(new ByteArrayInputStream(data), Codecs.DEFLATE, read -> {});
+            List<String> second = store.importStream(new ByteArrayInputStream(data), Codecs.DEFLATE, read -> {});
+
+            assertEquals(first, second);
+            assertEquals(2.0, store.getDedupRatio(List.of(first, second)), 0.001);
+            try (InputStream in = store.open(second)) {
+                assertArrayEquals(data, in.readAllBytes());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Empty input should still read back as empty content")
+    void testEmptyInput() throws IOException {
+        try (ChunkStore store = new ChunkStore()) {
+            List<String> hashes = store.importStream(new ByteArrayInputStream(new byte[0]), Codecs.LZ, read -> {});
+
+            assertEquals(1, hashes.size());
+            try (InputStream in = store.open(hashes)) {
+                assertEquals(0, in.readAllBytes().length);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("An interrupted reader should not break staged chunks for everyone else")
+    void testInterruptedReader() throws Exception {
+        byte[] data = randomData(300 * 1024, 4);
+        try (ChunkStore store = new ChunkStore()) {
+            List<String> hashes = store.importStream(new ByteArrayInputStream(data), Codecs.DEFLATE, read -> {});
+
+            // Interrupted I/O closes the FileChannel it was using
+            Thread reader = new Thread(() -> {
+                Thread.currentThread().interrupt();
+                try (InputStream in = store.open(hashes)) {
+                    in.readAllBytes();
+                } catch (IOException | UncheckedIOException e) {
+                    // Expected: ClosedByInterruptException
+                }
+            });
+            reader.start();
+            reader.join();
+
+            try (InputStream in = store.open(hashes)) {
+                assertArrayEquals(data, in.readAllBytes());
+            }
+            byte[] more = randomData(100 * 1024, 5);
+            List<String> added = store.importStream(new ByteArrayInputStream(more), Codecs.DEFLATE, read -> {});
+            try (InputStream in = store.open(added)) {
+                assertArrayEquals(more, in.readAllBytes());
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import javax.crypto.SecretKey;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Random;
+
+class ChunkedCipherTest {
+    private static SecretKey key;
+    private Path tempFile;
+
+    @BeforeAll
+    static void deriveKey() throws Exception {
+        key = EncryptionUtil.deriveKey("testPassword123", EncryptionUtil.generateSalt());
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempFile = Files.createTempFile("test_segment_", ".bin");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(tempFile);
+    }
+
+    private long encrypt(byte[] data) throws IOException {
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            return ChunkedCipher.encrypt(key, new ByteArrayInputStream(data), channel);
+        }
+    }
+
+    private byte[] decrypt(long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.READ);
+             InputStream in = ChunkedCipher.decrypt(key, channel, 0, length)) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    @DisplayName("Data spanning many chunks should round trip")
+    void testRoundTrip() throws IOException {
+        byte[] data = new byte[ChunkedCipher.CHUNK_SIZE * 9 + 517];
+        new Random(7).nextBytes(data);
+
+        long length = encrypt(data);
+
+        assertEquals(Files.size(tempFile), length);
+        assertArrayEquals(data, decrypt(length));
+    }
+
+    @Test
+    @DisplayName("Empty and chunk-aligned inputs should round trip")
+    void testBoundaries() throws IOException {
+        assertArrayEquals(new byte[0], decrypt(encrypt(new byte[0])));
+
+        byte[] aligned = new byte[ChunkedCipher.CHUNK_SIZE * 2];
+        new Random(3).nextBytes(aligned);
+        assertArrayEquals(aligned, decrypt(encrypt(aligned)));
+    }
+
+    @Test
+    @DisplayName("A modified chunk should fail authentication")
+    void testTamperedChunk() throws IOException {
+        byte[] data = new byte[ChunkedCipher.CHUNK_SIZE * 3];
+        long length = encrypt(data);
+
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{42}), ChunkedCipher.NONCE_PREFIX_LENGTH + ChunkedCipher.CHUNK_SIZE + 100);
+        }
+
+        assertThrows(IOException.class, () -> decrypt(length));
+    }
+
+    @Test
+    @DisplayName("Dropping trailing chunks should be detected")
+    void testTruncation() throws IOException {
+        byte[] data = new byte[ChunkedCipher.CHUNK_SIZE * 3];
+        encrypt(data);
+
+        long truncated = ChunkedCipher.NONCE_PREFIX_LENGTH + 2L * ChunkedCipher.ENCRYPTED_CHUNK_SIZE;
+        assertThrows(IOException.class, () -> decrypt(truncated));
+    }
+}
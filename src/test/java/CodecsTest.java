@@ -0,0 +1,88 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.util.Random;
+
+class CodecsTest {
+    private static final int BLOCK_SIZE = 4096;
+
+    private static byte[] roundTrip(Codec codec, byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelCompressor.compress(codec, new ByteArrayInputStream(data), out, BLOCK_SIZE, read -> {});
+        try (InputStream in = codec.decompress(new ByteArrayInputStream(out.toByteArray()))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] randomData(int size) {
+        byte[] data = new byte[size];
+        new Random(11).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    @DisplayName("Every codec should round trip text, random and empty input")
+    void testRoundTrip() throws IOException {
+        byte[] text = "Codec round trip line with some repetition. ".repeat(2000).getBytes();
+        byte[] random = randomData(3 * BLOCK_SIZE + 17);
+        for (Codec codec : new Codec[]{Codecs.STORE, Codecs.DEFLATE, new DeflateCodec(1), new DeflateCodec(9), Codecs.LZ}) {
+            assertArrayEquals(text, roundTrip(codec, text), codec.getName());
+            assertArrayEquals(random, roundTrip(codec, random), codec.getName());
+            assertArrayEquals(new byte[0], roundTrip(codec, new byte[0]), codec.getName());
+        }
+    }
+
+    @Test
+    @DisplayName("LZ should compress repetitive data and keep random blocks at their size")
+    void testLzBlocks() throws IOException {
+        byte[] runs = new byte[100_000];
+        for (int i = 0; i < runs.length; i++) {
+            runs[i] = (byte) (i / 1000);
+        }
+        assertTrue(Codecs.LZ.compressBlock(runs, runs.length).length < runs.length / 20);
+
+        byte[] random = randomData(50_000);
+        assertEquals(random.length + 8, Codecs.LZ.compressBlock(random, random.length).length);
+    }
+
+    @Test
+    @DisplayName("Gzip members should all be read when the source never reports available bytes")
+    void testDeflateWithoutAvailable() throws IOException {
+        byte[] data = randomData(20 * BLOCK_SIZE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelCompressor.compress(Codecs.DEFLATE, new ByteArrayInputStream(data), out, BLOCK_SIZE, read -> {});
+
+        InputStream source = new FilterInputStream(new ByteArrayInputStream(out.toByteArray())) {
+            @Override
+            public int available() {
+                return 0;
+            }
+        };
+        try (InputStream in = Codecs.DEFLATE.decompress(source)) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+
+    @Test
+    @DisplayName("The automatic policy should skip compressed and random content")
+    void testChoose() {
+        byte[] text = "Plain text compresses well. ".repeat(5000).getBytes();
+        byte[] random = randomData(Codecs.SAMPLE_SIZE);
+
+        assertSame(Codecs.DEFLATE, Codecs.choose(text, text.length, "text/plain"));
+        assertSame(Codecs.STORE, Codecs.choose(text, text.length, "image/jpeg"));
+        assertSame(Codecs.STORE, Codecs.choose(random, random.length, null));
+    }
+
+    @Test
+    @DisplayName("Codec names and ids should resolve")
+    void testLookup() throws IOException {
+        assertNull(Codecs.forName("auto"));
+        assertEquals(9, ((DeflateCodec) Codecs.forName("deflate:9")).getLevel());
+        assertSame(Codecs.LZ, Codecs.forId(Codec.LZ));
+        assertThrows(IllegalArgumentException.class, () -> Codecs.forName("deflate:12"));
+        assertThrows(IOException.class, () -> Codecs.forId(99));
+    }
+}
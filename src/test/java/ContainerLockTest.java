@@ -0,0 +1,151 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+class ContainerLockTest {
+    private static final String TEST_PASSWORD = "testPassword123";
+    private Path tempDir;
+    private Path container;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("test_lock_");
+        container = tempDir.resolve("test.box");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private StoredFile storedFile(String name, String content) throws IOException {
+        Path source = Files.write(tempDir.resolve(name + ".src"), content.getBytes(StandardCharsets.UTF_8));
+        return new StoredFile(name, "text/plain", source, p -> {});
+    }
+
+    @Test
+    @DisplayName("A second writer should be refused until the first one closes")
+    void testSingleWriter() throws Exception {
+        ContainerSession first = ContainerSession.create(container.toString(), TEST_PASSWORD);
+        first.put(storedFile("a.txt", "first"));
+        first.commit();
+
+        IOException refused = assertThrows(IOException.class,
+                () -> ContainerSession.open(container.toString(), TEST_PASSWORD));
+        assertTrue(refused.getMessage().contains("open for writing"), refused.getMessage());
+        assertThrows(IOException.class, () -> ContainerLock.writer(container));
+
+        first.close();
+        try (ContainerSession second = ContainerSession.open(container.toString(), TEST_PASSWORD)) {
+            assertNotNull(second.get("a.txt"));
+        }
+    }
+
+    @Test
+    @DisplayName("Readers should share the container and hold off its replacement")
+    void testReadersBlockReplacement() throws Exception {
+        try (ContainerLock first = ContainerLock.reader(container);
+             ContainerLock second = ContainerLock.reader(container)) {
+            assertFalse(ContainerLock.replacing(container, () -> fail("Replaced under a reader")));
+            second.close();
+            assertFalse(ContainerLock.replacing(container, () -> fail("Replaced under a reader")));
+        }
+        boolean[] ran = new boolean[1];
+        assertTrue(ContainerLock.replacing(container, () -> ran[0] = true));
+        assertTrue(ran[0]);
+    }
+
+    @Test
+    @DisplayName("Compaction should be skipped while another reader has the container open")
+    void testCompactionWaitsForReaders() throws Exception {
+        try (ContainerSession session = ContainerSession.create(container.toString(), TEST_PASSWORD)) {
+            session.put(storedFile("keep.txt", "kept"));
+            session.put(storedFile("drop.txt", "dropped"));
+            session.commit();
+            session.remove("drop.txt");
+            session.commit();
+            session.awaitCompaction();
+            long size = Files.size(container);
+
+            try (ContainerLock reader = ContainerLock.reader(container)) {
+                assertFalse(session.compact(new ProgressTracker(0), Long.MAX_VALUE));
+                assertEquals(size, Files.size(container));
+            }
+            assertTrue(session.compact(new ProgressTracker(0), Long.MAX_VALUE));
+            assertTrue(Files.size(container) < size);
+        }
+    }
+
+    @Test
+    @DisplayName("A full rewrite should fail while another reader has the container open")
+    void testRewriteWaitsForReaders() throws Exception {
+        Map<String, StoredFile> files = new HashMap<>();
+        files.put("a.txt", storedFile("a.txt", "content"));
+        ContainerManager.saveContainer(container.toString(), TEST_PASSWORD, files);
+        byte[] before = Files.readAllBytes(container);
+
+        // A key that does not match the header forces the container to be written anew rather than appended to
+        try (ContainerLock reader = ContainerLock.reader(container)) {
+            Exception e = assertThrows(Exception.class,
+                    () -> ContainerManager.saveContainer(container.toString(), ContainerKey.generate("otherPassword"), files));
+            assertTrue(e.getMessage().contains("open for reading"), e.getMessage());
+        }
+        assertArrayEquals(before, Files.readAllBytes(container));
+        files.get("a.txt").close();
+    }
+
+    @Test
+    @DisplayName("Readers should always see a complete commit while a writer appends")
+    void testReadersDuringCommits() throws Exception {
+        ContainerKey key;
+        try (ContainerSession session = ContainerSession.create(container.toString(), TEST_PASSWORD)) {
+            session.put(storedFile("entry-0.txt", "content 0"));
+            session.commit();
+            key = ContainerManager.unlock(container.toString(), TEST_PASSWORD);
+
+            AtomicBoolean done = new AtomicBoolean();
+            ExecutorService readers = Executors.newFixedThreadPool(4);
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(readers.submit(() -> {
+                    int reads = 0;
+                    try (ContainerLock lock = ContainerLock.reader(container)) {
+                        while (!done.get() || reads == 0) {
+                            List<ContainerEntry> entries = ContainerManager.listEntries(container.toString(), key);
+                            for (ContainerEntry entry : entries) {
+                                String index = entry.getName().replaceAll("\\D", "");
+                                try (InputStream in = ContainerManager.openEntry(container.toString(), key,
+                                        entry.getName())) {
+                                    assertEquals("content " + index, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                                }
+                            }
+                            reads++;
+                        }
+                    }
+                    return reads;
+                }));
+            }
+            for (int i = 1; i <= 20; i++) {
+                session.put(storedFile("entry-" + i + ".txt", "content " + i));
+                session.commit();
+            }
+            done.set(true);
+            for (Future<Integer> result : results) {
+                assertTrue(result.get(60, TimeUnit.SECONDS) > 0);
+            }
+            readers.shutdown();
+        }
+        assertEquals(21, ContainerManager.listEntries(container.toString(), key).size());
+    }
+}
@@ -4,8 +4,8 @@ import static org.junit.jupiter.api.Assertions.*;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
-import java.util.function.Consumer;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import java.util.concurrent.atomic.AtomicLong;
 
 class ContainerManagerTest {
     private Path tempContainerPath;
@@ -13,8 +13,8 @@ class ContainerManagerTest {
     private static final String TEST_PASSWORD = "testPassword123";
     private static final String TEST_CONTENT = "Test file content";
     private Map<String, StoredFile> testFiles;
-    private final AtomicInteger lastProgress = new AtomicInteger(0);
-    private final Consumer<Integer> progressConsumer = progress -> lastProgress.set(progress);
+    private final AtomicLong lastProgress = new AtomicLong(0);
+    private final LongConsumer progressConsumer = progress -> lastProgress.set(progress);
     
     @BeforeEach
     void setUp() throws IOException {
@@ -87,7 +87,7 @@ class ContainerManagerTest {
         ContainerManager.saveContainer(tempContainerPath.toString(), TEST_PASSWORD, testFiles);
         
         // Try to load with wrong password
-        assertThrows(Exception.class, () ->
+        assertThrows(AuthenticationException.class, () ->
             ContainerManager.loadContainer(tempContainerPath.toString(), "wrongPassword")
         );
     }
@@ -143,4 +143,325 @@ class ContainerManagerTest {
         // The IV will be different, so files won't be identical, but they should be similar in size
         assertTrue(Math.abs(originalFileContent.length - newFileContent.length) < 100);
     }
-} 
\ No newline at end of file
+
+    @Test
+    @DisplayName("Container should list entries from the table of contents")
+    void testListEntries() throws Exception {
+        ContainerManager.saveContainer(tempContainerPath.toString(), TEST_PASSWORD, testFiles);
+
+        List<ContainerEntry> entries = ContainerManager.listEntries(tempContainerPath.toString(), TEST_PASSWORD);
+
+        assertEquals(testFiles.size(), entries.size());
+        for (ContainerEntry entry : entries) {
+            assertTrue(testFiles.containsKey(entry.getName()));
+            assertEquals("text/plain", entry.getType());
+            assertEquals(TEST_CONTENT.length(), entry.getOriginalSize());
+            assertTrue(entry.getOffset() >= ContainerHeader.SIZE);
+        }
+    }
+
+    @Test
+    @DisplayName("Container should stream a single entry")
+    void testOpenEntry() throws Exception {
+        ContainerManager.saveContainer(tempContainerPath.toString(), TEST_PASSWORD, testFiles);
+
+        try (InputStream in = ContainerManager.openEntry(tempContainerPath.toString(), TEST_PASSWORD, "test2.txt")) {
+            assertEquals(TEST_CONTENT, new String(in.readAllBytes()));
+        }
+        assertThrows(FileNotFoundException.class, () ->
+            ContainerManager.openEntry(tempContainerPath.toString(), TEST_PASSWORD, "missing.txt")
+        );
+    }
+
+    @Test
+    @DisplayName("Container should still load the legacy single-stream format")
+    void testLoadLegacyContainer() throws Exception {
+        byte[] salt = EncryptionUtil.generateSalt();
+        byte[] iv = EncryptionUtil.generateIV();
+        javax.crypto.SecretKey key = EncryptionUtil.deriveKey(TEST_PASSWORD, salt);
+        try (OutputStream os = Files.newOutputStream(tempContainerPath)) {
+            os.write(salt);
+            os.write(iv);
+            try (ObjectOutputStream oos = new ObjectOutputStream(
+                    new javax.crypto.CipherOutputStream(os, EncryptionUtil.getEncryptCipher(key, iv)))) {
+                oos.writeObject(testFiles);
+            }
+        }
+
+        Map<String, StoredFile> loadedFiles = ContainerManager.loadContainer(
+            tempContainerPath.toString(), TEST_PASSWORD);
+
+        assertEquals(testFiles.keySet(), loadedFiles.keySet());
+        try (InputStream in = loadedFiles.get("test1.txt").getContentStream()) {
+            assertEquals(TEST_CONTENT, new String(in.readAllBytes()));
+        }
+        for (StoredFile file : loadedFiles.values()) {
+            file.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Saving again should append only new entries")
+    void testAppendOnlySave() throws Exception {
+        ContainerManager.saveContainer(tempContainerPath.toString(), TEST_PASSWORD, testFiles);
+        byte[] firstSave = Files.readAllBytes(tempContainerPath);
+
+        // Nothing changed: the container is left alone
+        ContainerManager.saveContainer(tempContainerPath.toString(), TEST_PASSWORD, testFiles);
+        assertArrayEquals(firstSave, Files.readAllBytes(tempContainerPath));
+
+        testFiles.put("test3.txt", new StoredFile("test3.txt", "text/plain", tempSourceFile, progressConsumer));
+        ContainerManager.saveContainer(tempContainerPath.toString(), TEST_PASSWORD, testFiles);
+        byte[] secondSave = Files.readAllBytes(tempContainerPath);
+
+        // Existing segments are left in place
+        assertArrayEquals(
+            Arrays.copyOfRange(firstSave, ContainerHeader.SIZE, firstSave.length),
+            Arrays.copyOfRange(secondSave, ContainerHeader.SIZE, firstSave.length)
+        );
+
+        Map<String, StoredFile> loadedFiles = ContainerManager.loadContainer(
+            tempContainerPath.toString(), TEST_PASSWORD);
+        assertEquals(3, loadedFiles.size());
+        for (StoredFile file : loadedFiles.values()) {
+            try (InputStream in = file.getContentStream()) {
+                assertEquals(TEST_CONTENT, new String(in.readAllBytes()));
+            }
+            file.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Saving with a wrong password should fail and leave the container untouched")
+    void testSaveWithWrongPassword() throws Exception {
+        ContainerManager.saveContainer(tempContainerPath.toString(), TEST_PASSWORD, testFiles);
+        byte[] before = Files.readAllBytes(tempContainerPath);
+
+        assertThrows(Exception.class, () ->
+            ContainerManager.saveContainer(tempContainerPath.toString(), "otherPassword", testFiles)
+        );
+        assertArrayEquals(before, Files.readAllBytes(tempContainerPath));
+        assertEquals(2, ContainerManager.listEntries(tempContainerPath.toString(), TEST_PASSWORD).size());
+    }
+
+    @Test
+    @DisplayName("Container should still load the CBC segment format")
+    void testLoadCbcContainer() throws Exception {
+        byte[] salt = EncryptionUtil.generateSalt();
+        javax.crypto.SecretKey key = EncryptionUtil.deriveKey(TEST_PASSWORD, salt);
+        StoredFile source = testFiles.get("test1.txt");
+
+        ByteArrayOutputStream container = new ByteArrayOutputStream();
+        container.write(new byte[ContainerHeader.SIZE]);
+        long segmentOffset = container.size();
+        byte[] compressed;
+        try (InputStream in = source.openCompressedStream()) {
+            compressed = in.readAllBytes();
+        }
+        writeCbcSegment(container, key, compressed);
+        long segmentLength = container.size() - segmentOffset;
+
+        ByteArrayOutputStream toc = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(toc)) {
+            out.writeInt(ContainerHeader.MAGIC);
+            out.writeInt(1);
+            new ContainerEntry("test1.txt", "text/plain", segmentOffset, segmentLength,
+                TEST_CONTENT.length(), compressed.length).writeTo(out);
+        }
+        long tocOffset = container.size();
+        writeCbcSegment(container, key, toc.toByteArray());
+        long tocLength = container.size() - tocOffset;
+
+        byte[] bytes = container.toByteArray();
+        java.nio.ByteBuffer.wrap(bytes)
+            .putInt(ContainerHeader.MAGIC)
+            .putInt(ContainerHeader.VERSION_CBC)
+            .put(salt)
+            .putLong(tocOffset)
+            .putLong(tocLength);
+        Files.write(tempContainerPath, bytes);
+
+        Map<String, StoredFile> loadedFiles = ContainerManager.loadContainer(
+            tempContainerPath.toString(), TEST_PASSWORD);
+        try (InputStream in = loadedFiles.get("test1.txt").getContentStream()) {
+            assertEquals(TEST_CONTENT, new String(in.readAllBytes()));
+        }
+
+        // The next save upgrades it to the current format
+        ContainerManager.saveContainer(tempContainerPath.toString(), TEST_PASSWORD, loadedFiles);
+        try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(tempContainerPath)) {
+            assertEquals(ContainerHeader.VERSION, ContainerHeader.read(channel).getVersion());
+        }
+        for (StoredFile file : loadedFiles.values()) {
+            file.close();
+        }
+    }
+
+    private static void writeCbcSegment(OutputStream out, javax.crypto.SecretKey key, byte[] data) throws Exception {
+        byte[] iv = EncryptionUtil.generateIV();
+        out.write(iv);
+        out.write(EncryptionUtil.getEncryptCipher(key, iv).doFinal(data));
+    }
+
+    @Test
+    @DisplayName("Changing the password should only rewrite the header")
+    void testChangePassword() throws Exception {
+        ContainerManager.saveContainer(tempContainerPath.toString(), TEST_PASSWORD, testFiles);
+        byte[] before = Files.readAllBytes(tempContainerPath);
+
+        ContainerKey key = ContainerManager.unlock(tempContainerPath.toString(), TEST_PASSWORD);
+        ContainerManager.changePassword(tempContainerPath.toString(), key, "newPassword456");
+        byte[] after = Files.readAllBytes(tempContainerPath);
+
+        assertEquals(before.length, after.length);
+        assertArrayEquals(
+            Arrays.copyOfRange(before, ContainerHeader.SIZE, before.length),
+            Arrays.copyOfRange(after, ContainerHeader.SIZE, after.length)
+        );
+        assertThrows(Exception.class, () ->
+            ContainerManager.unlock(tempContainerPath.toString(), TEST_PASSWORD)
+        );
+        try (InputStream in = ContainerManager.openEntry(tempContainerPath.toString(), "newPassword456", "test1.txt")) {
+            assertEquals(TEST_CONTENT, new String(in.readAllBytes()));
+        }
+    }
+
+    @Test
+    @DisplayName("Entries should keep their source's modification time and get a content hash once saved")
+    void testEntryMetadata() throws Exception {
+        long modified = 1_600_000_000_000L;
+        Files.setLastModifiedTime(tempSourceFile, java.nio.file.attribute.FileTime.fromMillis(modified));
+        Map<String, StoredFile> files = new HashMap<>();
+        files.put("dated.txt", new StoredFile("dated.txt", "text/plain", tempSourceFile, p -> {}));
+        assertEquals(modified, files.get("dated.txt").getModified());
+        assertNull(files.get("dated.txt").getContentHash());
+        ContainerManager.saveContainer(tempContainerPath.toString(), TEST_PASSWORD, files);
+        files.get("dated.txt").close();
+
+        ContainerEntry entry = ContainerManager.listEntries(tempContainerPath.toString(), TEST_PASSWORD).get(0);
+        assertEquals(modified, entry.getModified());
+        StoredFile loaded = ContainerManager.loadContainer(tempContainerPath.toString(), TEST_PASSWORD).get("dated.txt");
+        assertEquals(modified, loaded.getModified());
+        assertEquals(HexFormat.of().formatHex(entry.getRoot()), loaded.getContentHash());
+    }
+
+    @Test
+    @DisplayName("A torn primary header should fall back to its shadow copy")
+    void testShadowHeader() throws Exception {
+        ContainerManager.saveContainer(tempContainerPath.toString(), TEST_PASSWORD, testFiles);
+        byte[] data = Files.readAllBytes(tempContainerPath);
+
+        // Half of a new primary copy written over the old one, as a crash would leave it
+        byte[] torn = data.clone();
+        Arrays.fill(torn, 40, 120, (byte) 0x5A);
+        Files.write(tempContainerPath, torn);
+        try (InputStream in = ContainerManager.openEntry(tempContainerPath.toString(), TEST_PASSWORD, "test1.txt")) {
+            assertEquals(TEST_CONTENT, new String(in.readAllBytes()));
+        }
+
+        Arrays.fill(torn, ContainerHeader.SIZE / 2 + 40, ContainerHeader.SIZE / 2 + 120, (byte) 0x5A);
+        Files.write(tempContainerPath, torn);
+        Exception e = assertThrows(Exception.class,
+                () -> ContainerManager.listEntries(tempContainerPath.toString(), TEST_PASSWORD));
+        assertTrue(e.getMessage().contains("Corrupt container header"), e.getMessage());
+    }
+
+    private static long countTempFiles() throws IOException {
+        try (var stream = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+            return stream.filter(p -> p.getFileName().toString().startsWith("blackbox_")).count();
+        }
+    }
+
+    @Test
+    @DisplayName("Loading should not copy entry content to temp files")
+    void testLazyLoad() throws Exception {
+        ContainerManager.saveContainer(tempContainerPath.toString(), TEST_PASSWORD, testFiles);
+        long tempFilesBefore = countTempFiles();
+
+        Map<String, StoredFile> loadedFiles = ContainerManager.loadContainer(
+            tempContainerPath.toString(), TEST_PASSWORD);
+
+        assertEquals(tempFilesBefore, countTempFiles());
+        assertEquals(TEST_CONTENT.length(), loadedFiles.get("test1.txt").getOriginalSize());
+        try (InputStream in = loadedFiles.get("test1.txt").getContentStream()) {
+            assertEquals(TEST_CONTENT, new String(in.readAllBytes()));
+        }
+    }
+
+    @Test
+    @DisplayName("Saved entries should drop their temp copy and read from the container")
+    void testSavedEntriesReadFromContainer() throws Exception {
+        StoredFile file = testFiles.get("test1.txt");
+        var field = StoredFile.class.getDeclaredField("tempFile");
+        field.setAccessible(true);
+        Path tempFile = (Path) field.get(file);
+
+        ContainerManager.saveContainer(tempContainerPath.toString(), TEST_PASSWORD, testFiles);
+
+        assertFalse(Files.exists(tempFile));
+        try (InputStream in = file.getContentStream()) {
+            assertEquals(TEST_CONTENT, new String(in.readAllBytes()));
+        }
+    }
+
+    @Test
+    @DisplayName("Deduplicated entries should share chunks and survive save, append and reload")
+    void testDeduplicatedEntries() throws Exception {
+        byte[] data = new byte[400 * 1024];
+        new Random(7).nextBytes(data);
+        Files.write(tempSourceFile, data);
+
+        try (ChunkStore store = new ChunkStore()) {
+            Map<String, StoredFile> files = new HashMap<>();
+            files.put("a.bin", new StoredFile("a.bin", "application/octet-stream", tempSourceFile, progressConsumer, store));
+            ContainerManager.saveContainer(tempContainerPath.toString(), TEST_PASSWORD, files);
+            long sizeAfterFirst = Files.size(tempContainerPath);
+
+            // Same content under another name: only a new table of contents is appended
+            files.put("b.bin", new StoredFile("b.bin", "application/octet-stream", tempSourceFile, progressConsumer, store));
+            ContainerManager.saveContainer(tempContainerPath.toString(), TEST_PASSWORD, files);
+            assertTrue(Files.size(tempContainerPath) - sizeAfterFirst < 64 * 1024);
+
+            byte[] before = Files.readAllBytes(tempContainerPath);
+            ContainerManager.saveContainer(tempContainerPath.toString(), TEST_PASSWORD, files);
+            assertArrayEquals(before, Files.readAllBytes(tempContainerPath));
+        }
+
+        Map<String, StoredFile> loadedFiles = ContainerManager.loadContainer(tempContainerPath.toString(), TEST_PASSWORD);
+        for (String name : List.of("a.bin", "b.bin")) {
+            assertEquals(data.length, loadedFiles.get(name).getOriginalSize());
+            try (InputStream in = loadedFiles.get(name).getContentStream()) {
+                assertArrayEquals(data, in.readAllBytes());
+            }
+            try (InputStream in = ContainerManager.openEntry(tempContainerPath.toString(), TEST_PASSWORD, name)) {
+                assertArrayEquals(data, in.readAllBytes());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Incompressible entries should be stored as is and read back by their recorded codec")
+    void testCodecRecordedPerEntry() throws Exception {
+        byte[] data = new byte[300 * 1024];
+        new Random(5).nextBytes(data);
+        Path randomFile = Files.createTempFile("test_random_", ".bin");
+        try {
+            Files.write(randomFile, data);
+            testFiles.put("random.bin", new StoredFile("random.bin", "application/octet-stream", randomFile, progressConsumer));
+            ContainerManager.saveContainer(tempContainerPath.toString(), TEST_PASSWORD, testFiles);
+        } finally {
+            Files.deleteIfExists(randomFile);
+        }
+
+        Map<String, Integer> codecs = new HashMap<>();
+        for (ContainerEntry entry : ContainerManager.listEntries(tempContainerPath.toString(), TEST_PASSWORD)) {
+            codecs.put(entry.getName(), entry.getCodec());
+        }
+        assertEquals(Codec.STORE, codecs.get("random.bin"));
+        assertEquals(Codec.DEFLATE, codecs.get("test1.txt"));
+
+        try (InputStream in = ContainerManager.openEntry(tempContainerPath.toString(), TEST_PASSWORD, "random.bin")) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+}
@@ -0,0 +1,295 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+
+class ContainerSessionTest {
+    private Path tempContainerPath;
+    private Path tempSourceFile;
+    private static final String TEST_PASSWORD = "testPassword123";
+    private static final String TEST_CONTENT = "Session test content";
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempContainerPath = Files.createTempFile("test_container_", ".box");
+        Files.delete(tempContainerPath);
+        tempSourceFile = Files.createTempFile("test_source_", ".txt");
+        Files.write(tempSourceFile, TEST_CONTENT.getBytes());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(tempContainerPath);
+        Files.deleteIfExists(tempSourceFile);
+    }
+
+    private StoredFile storedFile(String name) throws IOException {
+        return new StoredFile(name, "text/plain", tempSourceFile, p -> {});
+    }
+
+    @Test
+    @DisplayName("New session should write the container on first commit")
+    void testCreateAndCommit() throws Exception {
+        try (ContainerSession session = ContainerSession.create(tempContainerPath.toString(), TEST_PASSWORD)) {
+            assertTrue(session.isDirty());
+            assertTrue(session.commit());
+            assertTrue(Files.exists(tempContainerPath));
+            assertFalse(session.isDirty());
+        }
+    }
+
+    @Test
+    @DisplayName("Clean session should skip the write")
+    void testCleanCommitIsSkipped() throws Exception {
+        try (ContainerSession session = ContainerSession.create(tempContainerPath.toString(), TEST_PASSWORD)) {
+            session.put(storedFile("a.txt"));
+            session.commit();
+        }
+        FileTime modified = Files.getLastModifiedTime(tempContainerPath);
+        byte[] before = Files.readAllBytes(tempContainerPath);
+
+        try (ContainerSession session = ContainerSession.open(tempContainerPath.toString(), TEST_PASSWORD)) {
+            assertFalse(session.isDirty());
+            assertFalse(session.commit());
+        }
+        assertEquals(modified, Files.getLastModifiedTime(tempContainerPath));
+        assertArrayEquals(before, Files.readAllBytes(tempContainerPath));
+    }
+
+    @Test
+    @DisplayName("Several adds should be written by one commit")
+    void testBatchedAdds() throws Exception {
+        try (ContainerSession session = ContainerSession.create(tempContainerPath.toString(), TEST_PASSWORD)) {
+            for (int i = 0; i < 5; i++) {
+                session.put(storedFile("file" + i + ".txt"));
+            }
+            assertFalse(Files.exists(tempContainerPath), "Adds should not touch the disk");
+            assertTrue(session.commit());
+        }
+
+        try (ContainerSession session = ContainerSession.open(tempContainerPath.toString(), TEST_PASSWORD)) {
+            assertEquals(5, session.getFiles().size());
+            try (InputStream in = session.get("file3.txt").getContentStream()) {
+                assertEquals(TEST_CONTENT, new String(in.readAllBytes()));
+            }
+        }
+    }
+
+    private StoredFile randomFile(String name, int size, long seed) throws IOException {
+        byte[] content = new byte[size];
+        new java.util.Random(seed).nextBytes(content);
+        Path source = Files.write(Files.createTempFile("test_random_", ".bin"), content);
+        try {
+            return new StoredFile(name, "application/octet-stream", source, p -> {});
+        } finally {
+            Files.delete(source);
+        }
+    }
+
+    @Test
+    @DisplayName("Removed entries should be gone after commit and reopen")
+    void testRemove() throws Exception {
+        try (ContainerSession session = ContainerSession.create(tempContainerPath.toString(), TEST_PASSWORD)) {
+            session.put(storedFile("a.txt"));
+            session.put(storedFile("b.txt"));
+            session.commit();
+            assertTrue(session.remove("a.txt"));
+            assertFalse(session.remove("missing.txt"));
+            assertTrue(session.isDirty());
+            assertTrue(session.commit());
+        }
+
+        try (ContainerSession session = ContainerSession.open(tempContainerPath.toString(), TEST_PASSWORD)) {
+            assertNull(session.get("a.txt"));
+            assertNotNull(session.get("b.txt"));
+            assertTrue(session.getDeadSpace() > 0);
+        }
+    }
+
+    @Test
+    @DisplayName("Compaction should reclaim dead space and keep open entries readable")
+    void testCompact() throws Exception {
+        try (ContainerSession session = ContainerSession.create(tempContainerPath.toString(), TEST_PASSWORD)) {
+            session.put(randomFile("gone.bin", 300_000, 1));
+            session.put(randomFile("kept.bin", 200_000, 2));
+            session.put(new StoredFile("dedup.txt", "text/plain", tempSourceFile, p -> {}, session.getChunkStore()));
+            session.commit();
+            session.put(randomFile("kept.bin", 100_000, 3)); // Replaced: the old copy is dead space
+            session.remove("gone.bin");
+            session.commit();
+            long before = Files.size(tempContainerPath);
+            long dead = session.getDeadSpace();
+            assertTrue(dead > 500_000, "Dead space " + dead);
+
+            ProgressTracker tracker = new ProgressTracker(0);
+            assertTrue(session.compact(tracker, Long.MAX_VALUE));
+            assertEquals(before - dead, Files.size(tempContainerPath));
+            assertEquals(0, session.getDeadSpace());
+            assertEquals(tracker.snapshot().getTotalBytes(), tracker.snapshot().getBytesDone());
+
+            // Entries of the session now read from their new locations
+            byte[] expected = new byte[100_000];
+            new java.util.Random(3).nextBytes(expected);
+            try (InputStream in = session.get("kept.bin").getContentStream()) {
+                assertArrayEquals(expected, in.readAllBytes());
+            }
+            try (InputStream in = session.get("dedup.txt").getContentStream()) {
+                assertEquals(TEST_CONTENT, new String(in.readAllBytes()));
+            }
+            session.put(storedFile("after.txt"));
+            session.commit();
+        }
+
+        try (ContainerSession session = ContainerSession.open(tempContainerPath.toString(), TEST_PASSWORD)) {
+            assertEquals(3, session.getFiles().size());
+            try (InputStream in = session.get("dedup.txt").getContentStream()) {
+                assertEquals(TEST_CONTENT, new String(in.readAllBytes()));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("A commit during compaction should make the compaction step aside")
+    void testCommitDuringCompaction() throws Exception {
+        try (ContainerSession session = ContainerSession.create(tempContainerPath.toString(), TEST_PASSWORD)) {
+            session.put(randomFile("gone.bin", 300_000, 1));
+            session.put(storedFile("kept.txt"));
+            session.commit();
+            session.remove("gone.bin");
+            session.commit();
+
+            Path container = tempContainerPath.toAbsolutePath().normalize();
+            ContainerKey key = ContainerManager.unlock(tempContainerPath.toString(), TEST_PASSWORD);
+            ContainerManager.Compaction copy = ContainerManager.prepareCompaction(container, key,
+                    new ProgressTracker(0), Long.MAX_VALUE);
+            session.put(storedFile("late.txt"));
+            session.commit();
+            long size = Files.size(tempContainerPath);
+
+            assertFalse(copy.install(session.getFiles(), session.getChunkStore()));
+            assertEquals(size, Files.size(tempContainerPath));
+            try (InputStream in = session.get("late.txt").getContentStream()) {
+                assertEquals(TEST_CONTENT, new String(in.readAllBytes()));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("A cancelled compaction should leave the container untouched")
+    void testCancelledCompaction() throws Exception {
+        try (ContainerSession session = ContainerSession.create(tempContainerPath.toString(), TEST_PASSWORD)) {
+            session.put(randomFile("gone.bin", 100_000, 1));
+            session.put(randomFile("kept.bin", 2_000_000, 2));
+            session.commit();
+            session.remove("gone.bin");
+            session.commit();
+            byte[] before = Files.readAllBytes(tempContainerPath);
+
+            ProgressTracker tracker = new ProgressTracker(0);
+            tracker.cancel();
+            assertThrows(java.util.concurrent.CancellationException.class,
+                    () -> session.compact(tracker, 1 << 20));
+            assertArrayEquals(before, Files.readAllBytes(tempContainerPath));
+            try (var leftovers = Files.list(tempContainerPath.getParent())) {
+                assertTrue(leftovers.noneMatch(p -> p.getFileName().toString()
+                        .startsWith(tempContainerPath.getFileName().toString()) && p.toString().endsWith(".tmp")));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("The entry index should follow adds and removes")
+    void testIndex() throws Exception {
+        try (ContainerSession session = ContainerSession.create(tempContainerPath.toString(), TEST_PASSWORD)) {
+            session.put(storedFile("b.txt"));
+            session.put(storedFile("a.txt"));
+            EntryIndex index = session.getIndex();
+            assertSame(index, session.getIndex());
+            assertEquals("a.txt", index.getName(0));
+            assertEquals(2, index.size());
+
+            session.remove("a.txt");
+            assertEquals(1, session.getIndex().size());
+            assertEquals("b.txt", session.getIndex().getName(0));
+        }
+    }
+
+    @Test
+    @DisplayName("Text search should follow adds and removes and survive reopening and compaction")
+    void testTextSearch() throws Exception {
+        Path invoice = Files.writeString(tempSourceFile.resolveSibling(tempSourceFile.getFileName() + ".csv"),
+                "customer,amount\nCUST-10042,17.50\n");
+        try {
+            try (ContainerSession session = ContainerSession.create(tempContainerPath.toString(), TEST_PASSWORD)) {
+                session.put(new StoredFile("march.csv", "text/csv", invoice, p -> {}, session.getChunkStore()));
+                session.put(storedFile("notes.txt"));
+                session.put(randomFile("gone.bin", 300_000, 1));
+                assertEquals(java.util.List.of("march.csv"), session.search("cust-10042"));
+                session.commit();
+            }
+
+            try (ContainerSession session = ContainerSession.open(tempContainerPath.toString(), TEST_PASSWORD)) {
+                assertEquals(java.util.List.of("march.csv"), session.search("CUST-10042"));
+                assertEquals(java.util.List.of("notes.txt"), session.search("session content"));
+                session.put(randomFile("notes.txt", 100, 2)); // Replaced by content that was not indexed
+                session.remove("gone.bin");
+                session.commit();
+                assertTrue(session.compact(new ProgressTracker(0), Long.MAX_VALUE));
+            }
+
+            // Found from the index alone, as the CLI does
+            ContainerKey key = ContainerManager.unlock(tempContainerPath.toString(), TEST_PASSWORD);
+            assertEquals(java.util.List.of("march.csv"), ContainerManager.search(tempContainerPath.toString(), key, "10042"));
+            assertEquals(java.util.List.of(), ContainerManager.search(tempContainerPath.toString(), key, "session"));
+            try (ContainerSession session = ContainerSession.open(tempContainerPath.toString(), TEST_PASSWORD)) {
+                session.remove("march.csv");
+                session.commit();
+            }
+            assertEquals(0, ContainerManager.loadTextIndex(tempContainerPath.toString(), key).size());
+        } finally {
+            Files.deleteIfExists(invoice);
+        }
+    }
+
+    @Test
+    @DisplayName("Entries imported before a cancel should commit and read back")
+    void testCommitAfterCancelledImport() throws Exception {
+        Path root = Files.createTempDirectory("test_cancel_");
+        try (ContainerSession session = ContainerSession.create(tempContainerPath.toString(), TEST_PASSWORD)) {
+            java.util.Map<String, byte[]> kept = new java.util.HashMap<>();
+            for (int round = 0; round < 5; round++) {
+                Path folder = Files.createDirectories(root.resolve("round" + round));
+                for (int i = 0; i < 100; i++) {
+                    byte[] content = new byte[64 * 1024 + i];
+                    new java.util.Random(round * 1000L + i).nextBytes(content);
+                    Files.write(folder.resolve("f" + i + ".bin"), content);
+                }
+                // Cancelled while the compressors are still busy with the files after these
+                ProgressTracker tracker = new ProgressTracker(0);
+                assertThrows(java.util.concurrent.CancellationException.class, () ->
+                        new DirectoryImporter(session.getChunkStore(), tracker).importAll(java.util.List.of(folder),
+                                file -> {
+                                    session.put(file);
+                                    if (session.getFiles().size() % 10 == 0) tracker.cancel();
+                                }));
+                session.commit();
+                for (StoredFile file : session.getFiles()) {
+                    kept.put(file.getName(), Files.readAllBytes(root.resolve(file.getName())));
+                }
+            }
+
+            assertEquals(50, kept.size());
+            for (java.util.Map.Entry<String, byte[]> entry : kept.entrySet()) {
+                try (InputStream in = session.get(entry.getKey()).getContentStream()) {
+                    assertArrayEquals(entry.getValue(), in.readAllBytes());
+                }
+            }
+        } finally {
+            try (var paths = Files.walk(root)) {
+                paths.sorted(java.util.Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+}
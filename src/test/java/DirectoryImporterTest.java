@@ -0,0 +1,219 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.stream.Stream;
+
+class DirectoryImporterTest {
+    private Path tempDir;
+    private ChunkStore chunkStore;
+    private final List<StoredFile> imported = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("test_import_");
+        chunkStore = new ChunkStore();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (StoredFile file : imported) {
+            file.close();
+        }
+        chunkStore.close();
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private Map<String, StoredFile> byName() {
+        Map<String, StoredFile> files = new HashMap<>();
+        for (StoredFile file : imported) {
+            assertNull(files.put(file.getName(), file), "Duplicate entry " + file.getName());
+        }
+        return files;
+    }
+
+    private static byte[] read(StoredFile file) throws IOException {
+        try (InputStream in = file.getContentStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    @DisplayName("Directory tree should be imported with names relative to the dropped directory")
+    void testImportTree() throws Exception {
+        Path root = tempDir.resolve("project");
+        Map<String, String> expected = new HashMap<>();
+        for (int d = 0; d < 12; d++) {
+            Path dir = Files.createDirectories(root.resolve("dir" + d).resolve("sub"));
+            for (int f = 0; f < 40; f++) {
+                String content = "file " + d + "/" + f;
+                Files.writeString(dir.resolve("f" + f + ".txt"), content);
+                expected.put("project/dir" + d + "/sub/f" + f + ".txt", content);
+            }
+        }
+        Files.writeString(root.resolve("top.txt"), "top");
+        expected.put("project/top.txt", "top");
+        Files.createDirectories(root.resolve("empty"));
+
+        ProgressTracker tracker = new ProgressTracker(0);
+        long count = new DirectoryImporter(chunkStore, tracker).importAll(List.of(root), imported::add);
+
+        assertEquals(expected.size(), count);
+        Map<String, StoredFile> files = byName();
+        assertEquals(expected.keySet(), files.keySet());
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), new String(read(files.get(entry.getKey()))));
+        }
+        assertEquals(tracker.snapshot().getTotalBytes(), tracker.snapshot().getBytesDone());
+    }
+
+    @Test
+    @DisplayName("Plain files and large files should be imported next to directories")
+    void testFilesAndLargeFiles() throws Exception {
+        byte[] large = new byte[3 * 1024 * 1024];
+        new Random(42).nextBytes(large);
+        Path largeFile = tempDir.resolve("large.bin");
+        Files.write(largeFile, large);
+        Path dir = Files.createDirectories(tempDir.resolve("docs"));
+        Files.writeString(dir.resolve("readme.txt"), "hello");
+
+        long count = new DirectoryImporter(chunkStore, new ProgressTracker(0))
+                .importAll(List.of(largeFile, dir), imported::add);
+
+        assertEquals(2, count);
+        Map<String, StoredFile> files = byName();
+        assertArrayEquals(large, read(files.get("large.bin")));
+        assertEquals(large.length, files.get("large.bin").getOriginalSize());
+        assertEquals("hello", new String(read(files.get("docs/readme.txt"))));
+    }
+
+    @Test
+    @DisplayName("Symbolic links should be skipped")
+    void testSymbolicLinksSkipped() throws Exception {
+        Path root = Files.createDirectories(tempDir.resolve("root"));
+        Path target = Files.writeString(root.resolve("real.txt"), "real");
+        try {
+            Files.createSymbolicLink(root.resolve("link.txt"), target);
+            Files.createSymbolicLink(root.resolve("loop"), root);
+        } catch (UnsupportedOperationException | IOException e) {
+            assumeTrue(false, "Symbolic links not supported");
+        }
+
+        new DirectoryImporter(chunkStore, new ProgressTracker(0)).importAll(List.of(root), imported::add);
+
+        assertEquals(Set.of("root/real.txt"), byName().keySet());
+    }
+
+    @Test
+    @DisplayName("Cancel should stop the import after the entries already handed over")
+    void testCancel() throws Exception {
+        Path root = Files.createDirectories(tempDir.resolve("root"));
+        for (int i = 0; i < 500; i++) {
+            Files.writeString(root.resolve("f" + i), "content " + i);
+        }
+        ProgressTracker tracker = new ProgressTracker(0);
+
+        assertThrows(CancellationException.class, () ->
+                new DirectoryImporter(chunkStore, tracker).importAll(List.of(root), file -> {
+                    imported.add(file);
+                    tracker.cancel();
+                }));
+        assertEquals(1, imported.size());
+    }
+
+    @Test
+    @DisplayName("A large file should report its bytes while it is imported and stop early on cancel")
+    void testLargeFileProgress() throws Exception {
+        byte[] large = new byte[32 * 1024 * 1024];
+        new Random(7).nextBytes(large);
+        Path largeFile = Files.write(tempDir.resolve("large.bin"), large);
+
+        ProgressTracker tracker = new ProgressTracker(0);
+        new DirectoryImporter(chunkStore, tracker).importAll(List.of(largeFile), file -> {
+            imported.add(file);
+            // Counted as it was chunked, not only once it was handed over
+            assertEquals(large.length, tracker.snapshot().getBytesDone());
+            assertEquals("large.bin", tracker.snapshot().getItem());
+        });
+        assertEquals(1, imported.size());
+
+        ProgressTracker cancelled = new ProgressTracker(0);
+        Thread canceller = new Thread(() -> {
+            while (cancelled.snapshot().getBytesDone() == 0) {
+                Thread.onSpinWait();
+            }
+            cancelled.cancel();
+        });
+        canceller.start();
+        try (ChunkStore fresh = new ChunkStore()) { // Nothing deduplicated against the first import
+            assertThrows(CancellationException.class, () ->
+                    new DirectoryImporter(fresh, cancelled).importAll(List.of(largeFile), imported::add));
+        }
+        canceller.join();
+        assertEquals(1, imported.size());
+        assertTrue(cancelled.snapshot().getBytesDone() < large.length);
+    }
+
+    @Test
+    @DisplayName("Files over the dedup limit should be block-compressed with random access instead")
+    void testDedupLimit() throws Exception {
+        Path root = Files.createDirectories(tempDir.resolve("mixed"));
+        byte[] large = new byte[3 * 1024 * 1024 + 17];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i % 251);
+        }
+        Files.write(root.resolve("large.bin"), large);
+        Files.writeString(root.resolve("small.txt"), "small");
+
+        new DirectoryImporter(chunkStore, new ProgressTracker(0), 1024 * 1024).importAll(List.of(root), imported::add);
+
+        Map<String, StoredFile> files = byName();
+        StoredFile bigFile = files.get("mixed/large.bin");
+        assertFalse(bigFile.isDeduplicated());
+        assertTrue(files.get("mixed/small.txt").isDeduplicated());
+        assertArrayEquals(large, read(bigFile));
+        try (InputStream in = bigFile.getContentStream(2_000_000)) {
+            assertArrayEquals(Arrays.copyOfRange(large, 2_000_000, 2_000_100), in.readNBytes(100));
+        }
+
+        // Nothing is deduplicated with a negative limit
+        imported.forEach(file -> assertDoesNotThrow(file::close));
+        imported.clear();
+        new DirectoryImporter(chunkStore, new ProgressTracker(0), -1).importAll(List.of(root), imported::add);
+        assertFalse(byName().get("mixed/small.txt").isDeduplicated());
+    }
+
+    @Test
+    @DisplayName("Failure of the sink should stop the import and reach the caller")
+    void testSinkFailure() throws Exception {
+        Path root = Files.createDirectories(tempDir.resolve("root"));
+        for (int i = 0; i < 500; i++) {
+            Files.writeString(root.resolve("f" + i), "content " + i);
+        }
+
+        IOException e = assertThrows(IOException.class, () ->
+                new DirectoryImporter(chunkStore, new ProgressTracker(0)).importAll(List.of(root), file -> {
+                    imported.add(file);
+                    if (imported.size() == 10) throw new IOException("Disk full");
+                }));
+        assertEquals("Disk full", e.getMessage());
+        assertEquals(10, imported.size());
+    }
+
+    @Test
+    @DisplayName("Missing root should fail before anything is imported")
+    void testMissingRoot() {
+        assertThrows(IOException.class, () ->
+                new DirectoryImporter(chunkStore, new ProgressTracker(0))
+                        .importAll(List.of(tempDir.resolve("missing")), imported::add));
+        assertTrue(imported.isEmpty());
+    }
+}
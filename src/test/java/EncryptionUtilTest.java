@@ -91,4 +91,18 @@ class EncryptionUtilTest {
             EncryptionUtil.getDecryptCipher(key, null);
         });
     }
-} 
\ No newline at end of file
+
+    @Test
+    @DisplayName("Wrapped data key should only unwrap with the same key-encryption key")
+    void testKeyWrapping() throws Exception {
+        byte[] salt = EncryptionUtil.generateSalt();
+        SecretKey keyEncryptionKey = EncryptionUtil.deriveKey("testPassword123", salt);
+        SecretKey dataKey = EncryptionUtil.generateDataKey();
+
+        byte[] wrapped = EncryptionUtil.wrapKey(keyEncryptionKey, dataKey);
+        assertArrayEquals(dataKey.getEncoded(), EncryptionUtil.unwrapKey(keyEncryptionKey, wrapped).getEncoded());
+
+        SecretKey wrongKey = EncryptionUtil.deriveKey("wrongPassword", salt);
+        assertThrows(Exception.class, () -> EncryptionUtil.unwrapKey(wrongKey, wrapped));
+    }
+}
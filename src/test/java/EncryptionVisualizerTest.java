@@ -0,0 +1,57 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class EncryptionVisualizerTest {
+    @Test
+    @DisplayName("Progress should light distinct cells over timer frames, never more than the target")
+    void testProgressLightsCells() {
+        EncryptionVisualizer visualizer = new EncryptionVisualizer(8, 32, 10);
+        visualizer.startAnimation("file.bin");
+        visualizer.updateProgress(50);
+        for (int frame = 0; frame < 100; frame++) {
+            visualizer.tick();
+        }
+        assertEquals(128, visualizer.getLitCount());
+        assertEquals(128, countLit(visualizer, 8, 32));
+
+        visualizer.stopAnimation();
+        assertEquals(256, countLit(visualizer, 8, 32));
+
+        visualizer.startAnimation("next.bin");
+        assertEquals(0, countLit(visualizer, 8, 32));
+    }
+
+    @Test
+    @DisplayName("Each frame should only advance a bounded number of cells")
+    void testFramesAreBounded() {
+        EncryptionVisualizer visualizer = new EncryptionVisualizer(8, 32, 10);
+        visualizer.startAnimation("file.bin");
+        visualizer.updateProgress(100);
+        visualizer.tick();
+        assertTrue(visualizer.getLitCount() > 0);
+        assertTrue(visualizer.getLitCount() < 256);
+        visualizer.stopAnimation();
+    }
+
+    @Test
+    @DisplayName("Large grids should fill in linear time")
+    void testLargeGrid() {
+        EncryptionVisualizer visualizer = new EncryptionVisualizer(512, 512, 2);
+        long start = System.nanoTime();
+        visualizer.startAnimation("large.bin");
+        visualizer.updateProgress(100);
+        visualizer.stopAnimation();
+        assertEquals(512 * 512, visualizer.getLitCount());
+        assertTrue(System.nanoTime() - start < 5_000_000_000L, "Filling should not be quadratic");
+    }
+
+    private static int countLit(EncryptionVisualizer visualizer, int rows, int cols) {
+        int count = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                if (visualizer.isLit(row, col)) count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,126 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Predicate;
+
+class EntryIndexTest {
+    private static final Path CONTAINER = Paths.get("index-test.box");
+
+    // Metadata only, as loading a container creates them; no content is ever read here
+    private static StoredFile entry(String name, String type, long size) throws Exception {
+        return new StoredFile(CONTAINER, new ContainerEntry(name, type, 0, 0, size, size).withModified(1000 + size),
+                null, null);
+    }
+
+    private static EntryIndex index(String... namesAndTypes) throws Exception {
+        List<StoredFile> files = new ArrayList<>();
+        for (int i = 0; i < namesAndTypes.length; i += 2) {
+            files.add(entry(namesAndTypes[i], namesAndTypes[i + 1], i));
+        }
+        return new EntryIndex(files);
+    }
+
+    private static List<String> names(EntryIndex.View view) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < view.size(); i++) {
+            names.add(view.getFile(i).getName());
+        }
+        return names;
+    }
+
+    private final String[] sample = {
+            "notes.txt", "text/plain",
+            "docs/b.pdf", "application/pdf",
+            "docs/a.txt", "text/plain",
+            "docs/old/c.pdf", "application/pdf",
+            "docsets/x.txt", "text/plain",
+            "photos/cat.jpg", "image/jpeg",
+            "photos/dog.PNG", "image/png",
+    };
+
+    @Test
+    @DisplayName("Rows should be sorted by name and keep their metadata")
+    void testSortedRows() throws Exception {
+        EntryIndex index = index(sample);
+        assertEquals(List.of("docs/a.txt", "docs/b.pdf", "docs/old/c.pdf", "docsets/x.txt", "notes.txt",
+                "photos/cat.jpg", "photos/dog.PNG"), names(index.filter(null, null)));
+        int row = index.filter("notes.txt", null).row(0);
+        assertEquals(0, index.getSize(row));
+        assertEquals(1000, index.getModified(row));
+        assertTrue(index.getTypes().containsAll(List.of("image/", "image/jpeg", "text/", "text/plain")));
+    }
+
+    @Test
+    @DisplayName("A plain filter should match name prefixes such as folders")
+    void testPrefix() throws Exception {
+        EntryIndex index = index(sample);
+        assertEquals(List.of("docs/a.txt", "docs/b.pdf", "docs/old/c.pdf"), names(index.filter("docs/", null)));
+        assertEquals(List.of("docs/a.txt", "docs/b.pdf", "docs/old/c.pdf", "docsets/x.txt"),
+                names(index.filter("docs", null)));
+        assertEquals(0, index.filter("zzz", null).size());
+        assertEquals(0, index.filter("a", null).size());
+    }
+
+    @Test
+    @DisplayName("Globs should match as extract-all reads them")
+    void testGlob() throws Exception {
+        EntryIndex index = index(sample);
+        assertEquals(List.of("docs/b.pdf", "docs/old/c.pdf"), names(index.filter("**.pdf", null)));
+        assertEquals(List.of("docs/b.pdf"), names(index.filter("docs/*.pdf", null)));
+        assertEquals(List.of("notes.txt"), names(index.filter("*", null)));
+        assertEquals(List.of("docs/a.txt", "docsets/x.txt"), names(index.filter("doc*/?.txt", null)));
+        assertEquals(List.of("photos/dog.PNG"), names(index.filter("**.PNG", null)));
+        assertEquals(0, index.filter("**.png", null).size());
+    }
+
+    @Test
+    @DisplayName("Types should filter exactly or by family, alone or with a name filter")
+    void testType() throws Exception {
+        EntryIndex index = index(sample);
+        assertEquals(List.of("photos/cat.jpg"), names(index.filter(null, "image/jpeg")));
+        assertEquals(List.of("photos/cat.jpg", "photos/dog.PNG"), names(index.filter("", "image/")));
+        assertEquals(List.of("docs/a.txt"), names(index.filter("docs/", "text/plain")));
+        assertEquals(List.of("docs/old/c.pdf"), names(index.filter("**/old/*.pdf", "application/pdf")));
+        assertEquals(0, index.filter(null, "video/").size());
+    }
+
+    @Test
+    @DisplayName("Filtering 100,000 entries should take well under a millisecond")
+    void testLargeIndex() throws Exception {
+        String[] extensions = {".txt", ".pdf", ".jpg", ".csv"};
+        String[] types = {"text/plain", "application/pdf", "image/jpeg", "text/csv"};
+        List<StoredFile> files = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            files.add(entry(String.format("dir%03d/file%06d%s", i % 500, i, extensions[i % 4]), types[i % 4], i));
+        }
+        Collections.shuffle(files, new Random(1));
+        EntryIndex index = new EntryIndex(files);
+
+        // Same answers as checking every name
+        Predicate<String> glob = Extractor.matcher("dir12*/**.pdf");
+        long expected = files.stream().filter(f -> glob.test(f.getName())).count();
+        assertEquals(expected, index.filter("dir12*/**.pdf", null).size());
+        assertEquals(200, index.filter("dir042/", null).size());
+        assertEquals(25_000, index.filter(null, "application/pdf").size());
+        assertEquals(50_000, index.filter(null, "text/").size());
+        assertEquals(200, index.filter("dir043/", "text/csv").size());
+        assertEquals(0, index.filter("dir043/", "text/plain").size());
+
+        // Prefixes, types and extensions narrow by lookup; other globs only scan what their literal start leaves
+        String[] queries = {"dir042/", "dir4", "**.csv", "dir123/*.txt", "dir499/file099999"};
+        for (int warmup = 0; warmup < 200; warmup++) {
+            index.filter(queries[warmup % queries.length], null);
+        }
+        int rounds = 2000;
+        long start = System.nanoTime();
+        int matched = 0;
+        for (int i = 0; i < rounds; i++) {
+            matched += index.filter(queries[i % queries.length], i % 2 == 0 ? null : "image/jpeg").size();
+        }
+        long perQuery = (System.nanoTime() - start) / rounds;
+        assertTrue(matched > 0);
+        assertTrue(perQuery < 1_000_000, "Filtering took " + perQuery + " ns per query");
+    }
+}
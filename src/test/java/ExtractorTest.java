@@ -0,0 +1,149 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+class ExtractorTest {
+    private static final String TEST_PASSWORD = "testPassword123";
+    private Path tempDir;
+    private Path output;
+    private Map<String, StoredFile> files;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("test_extract_");
+        output = tempDir.resolve("out");
+
+        Map<String, StoredFile> source = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 60; i++) {
+            byte[] data = new byte[random.nextInt(200_000)];
+            random.nextBytes(data);
+            Path file = Files.write(tempDir.resolve("source" + i), data);
+            String name = (i % 3 == 0 ? "docs/" : "img/") + "file" + i + (i % 2 == 0 ? ".txt" : ".bin");
+            source.put(name, new StoredFile(name, "application/octet-stream", file, p -> {}));
+        }
+        Path container = tempDir.resolve("test.box");
+        ContainerManager.saveContainer(container.toString(), TEST_PASSWORD, source);
+        for (StoredFile file : source.values()) {
+            file.close();
+        }
+        files = ContainerManager.loadContainer(container.toString(), TEST_PASSWORD);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (StoredFile file : files.values()) {
+            file.close();
+        }
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private static byte[] read(StoredFile file) throws IOException {
+        try (InputStream in = file.getContentStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    @DisplayName("Every entry should be extracted with its content and size")
+    void testExtractAll() throws IOException {
+        ProgressTracker tracker = new ProgressTracker(0);
+        long count = new Extractor(tracker, 4).extractAll(files.values(), name -> true, output);
+
+        assertEquals(files.size(), count);
+        for (StoredFile file : files.values()) {
+            Path target = output.resolve(file.getName());
+            assertEquals(file.getOriginalSize(), Files.size(target));
+            assertArrayEquals(read(file), Files.readAllBytes(target));
+        }
+        ProgressTracker.Snapshot snapshot = tracker.snapshot();
+        assertEquals(snapshot.getTotalBytes(), snapshot.getBytesDone());
+    }
+
+    @Test
+    @DisplayName("Preallocated output should replace a larger existing file exactly")
+    void testOverwriteLargerFile() throws IOException {
+        StoredFile file = files.values().iterator().next();
+        Path target = output.resolve(file.getName());
+        Files.createDirectories(target.getParent());
+        Files.write(target, new byte[(int) file.getOriginalSize() + 5000]);
+
+        new Extractor(new ProgressTracker(0), 2).extractAll(List.of(file), name -> true, output);
+
+        assertArrayEquals(read(file), Files.readAllBytes(target));
+    }
+
+    @Test
+    @DisplayName("Extraction should refuse to start without room for the original sizes")
+    void testFreeSpace() throws IOException {
+        long usable = Files.getFileStore(tempDir).getUsableSpace();
+        assertDoesNotThrow(() -> Extractor.requireSpace(tempDir, 0));
+        IOException e = assertThrows(IOException.class, () -> Extractor.requireSpace(tempDir, usable + (1L << 40)));
+        assertTrue(e.getMessage().startsWith("Not enough space"), e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Glob patterns should select entries by name")
+    void testMatcher() throws IOException {
+        Predicate<String> docs = Extractor.matcher("docs/*.txt");
+        assertTrue(docs.test("docs/file0.txt"));
+        assertFalse(docs.test("docs/sub/file0.txt"));
+        assertFalse(docs.test("img/file1.bin"));
+        assertTrue(Extractor.matcher("**.bin").test("img/deep/file1.bin"));
+        assertTrue(Extractor.matcher("img/file?.bin").test("img/file1.bin"));
+        assertFalse(Extractor.matcher("img/file?.bin").test("img/file11.bin"));
+        assertTrue(Extractor.matcher("a+b (1).txt").test("a+b (1).txt"));
+
+        long count = new Extractor(new ProgressTracker(0)).extractAll(files.values(), docs, output);
+        try (Stream<Path> written = Files.walk(output)) {
+            assertEquals(count, written.filter(Files::isRegularFile).count());
+        }
+        assertEquals(files.keySet().stream().filter(docs).count(), count);
+    }
+
+    @Test
+    @DisplayName("Saved entries should report their distinct positions in the container")
+    void testContainerOffsets() throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        for (StoredFile file : files.values()) {
+            offsets.add(file.getContainerOffset());
+        }
+        assertEquals(files.size(), new HashSet<>(offsets).size());
+        assertTrue(offsets.stream().allMatch(offset -> offset < Long.MAX_VALUE));
+    }
+
+    @Test
+    @DisplayName("Names leaving the target directory should be refused before anything is written")
+    void testPathTraversal() throws Exception {
+        Path source = Files.writeString(tempDir.resolve("evil"), "evil");
+        try (StoredFile evil = new StoredFile("../evil.txt", "text/plain", source, p -> {})) {
+            List<StoredFile> all = new ArrayList<>(files.values());
+            all.add(evil);
+            assertThrows(IOException.class,
+                    () -> new Extractor(new ProgressTracker(0)).extractAll(all, name -> true, output));
+        }
+        assertFalse(Files.exists(output));
+    }
+
+    @Test
+    @DisplayName("Cancel should stop extraction and leave no partial files")
+    void testCancel() {
+        ProgressTracker tracker = new ProgressTracker(0);
+        tracker.cancel();
+        assertThrows(CancellationException.class,
+                () -> new Extractor(tracker, 4).extractAll(files.values(), name -> true, output));
+        for (StoredFile file : files.values()) {
+            assertFalse(Files.exists(output.resolve(file.getName())));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Entries far larger than the heap, run by the large-entries profile with a 64 MiB heap:
+//   mvn -B test -P large-entries [-Dblackbox.large.bytes=N]
+// Running out of memory anywhere on the way in or out fails the test.
+@Tag("large")
+class LargeEntryTest {
+    private static final String TEST_PASSWORD = "testPassword123";
+    private static final long SIZE = Long.getLong("blackbox.large.bytes", 100L << 30);
+    private Path tempDir;
+    private Path container;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("test_large_");
+        container = tempDir.resolve("test.box");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("A synthetic stream should go through add and extract in constant memory")
+    void testStreamedEntry() throws Exception {
+        ContainerKey key = ContainerKey.generate(TEST_PASSWORD);
+        ContainerManager.saveContainer(container.toString(), key, new HashMap<>());
+        SyntheticStream source = new SyntheticStream(SIZE);
+        try (ContainerManager.Appender appender = ContainerManager.openAppender(container.toString(), key)) {
+            ContainerEntry entry = appender.add("large.bin", "application/octet-stream", source);
+            assertEquals(SIZE, entry.getOriginalSize());
+            appender.commit();
+        }
+
+        StoredFile stored = ContainerManager.loadContainer(container.toString(), key).get("large.bin");
+        try (stored) {
+            assertEquals(SIZE, stored.getOriginalSize());
+            CRC32 crc = new CRC32();
+            long read = 0;
+            byte[] buffer = new byte[1 << 20];
+            try (InputStream in = stored.getContentStream()) {
+                for (int n; (n = in.read(buffer)) >= 0; read += n) {
+                    crc.update(buffer, 0, n);
+                }
+            }
+            assertEquals(SIZE, read);
+            assertEquals(source.getChecksum(), crc.getValue());
+        }
+        assertTrue(new Verifier(new ProgressTracker(0)).verify(container.toString(), key, name -> true).isEmpty());
+    }
+
+    @Test
+    @DisplayName("A sparse file should go through save and load in constant memory")
+    void testSparseFile() throws Exception {
+        Path sparse = tempDir.resolve("sparse.img");
+        try (RandomAccessFile file = new RandomAccessFile(sparse.toFile(), "rw")) {
+            file.setLength(SIZE);
+        }
+        Map<String, StoredFile> files = new HashMap<>();
+        files.put("sparse.img", new StoredFile("sparse.img", "application/octet-stream", sparse, p -> {}));
+        ContainerManager.saveContainer(container.toString(), TEST_PASSWORD, files);
+        files.get("sparse.img").close();
+        Files.delete(sparse);
+
+        StoredFile stored = ContainerManager.loadContainer(container.toString(), TEST_PASSWORD).get("sparse.img");
+        try (stored) {
+            assertEquals(SIZE, stored.getOriginalSize());
+            byte[] buffer = new byte[1 << 20];
+            byte[] zeros = new byte[buffer.length];
+            long read = 0;
+            try (InputStream in = stored.getContentStream()) {
+                for (int n; (n = in.read(buffer)) >= 0; read += n) {
+                    assertEquals(-1, Arrays.mismatch(buffer, 0, n, zeros, 0, n), "Non-zero byte near " + read);
+                }
+            }
+            assertEquals(SIZE, read);
+        }
+    }
+
+    // Compressible but not constant: a random 4 KiB pattern of 16 letters, low enough in entropy to be
+    // compressed rather than stored, with each repetition stamped with its number
+    private static class SyntheticStream extends InputStream {
+        private static final int PERIOD = 4096;
+        private final long size;
+        private final byte[] pattern = new byte[PERIOD];
+        private final CRC32 crc = new CRC32();
+        private long position;
+
+        SyntheticStream(long size) {
+            this.size = size;
+            Random random = new Random(23);
+            for (int i = 0; i < PERIOD; i++) {
+                pattern[i] = (byte) ('a' + random.nextInt(16));
+            }
+        }
+
+        long getChecksum() {
+            return crc.getValue();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= size) return -1;
+            int count = (int) Math.min(len, size - position);
+            for (int done = 0; done < count; ) {
+                int inPeriod = (int) (position % PERIOD);
+                if (inPeriod == 0) ByteBuffer.wrap(pattern).putLong(0, position / PERIOD);
+                int n = Math.min(count - done, PERIOD - inPeriod);
+                System.arraycopy(pattern, inPeriod, b, off + done, n);
+                done += n;
+                position += n;
+            }
+            crc.update(b, off, count);
+            return count;
+        }
+    }
+}
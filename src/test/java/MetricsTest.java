@@ -0,0 +1,107 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+class MetricsTest {
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("test_metrics_");
+        Metrics.reset();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (var paths = Files.walk(directory)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    @DisplayName("Histogram percentiles should be power-of-two upper bounds capped at the maximum")
+    void testHistogram() {
+        for (int i = 1; i <= 100; i++) {
+            Metrics.record("latency", i);
+        }
+        Metrics.Histogram histogram = Metrics.getHistogram("latency");
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMean(), 1e-9);
+        assertEquals(100, histogram.getMax());
+        assertEquals(63, histogram.getPercentile(0.50));  // 50 falls in [32, 63]
+        assertEquals(100, histogram.getPercentile(0.99)); // [64, 127] capped at the maximum
+        assertNull(Metrics.getHistogram("missing"));
+    }
+
+    @Test
+    @DisplayName("Closing a phase should add its bytes and duration to the registry once")
+    void testPhaseCounters() {
+        Phase phase = Phase.start("test");
+        phase.bytesIn(1000).bytesOut(250);
+        phase.close();
+        phase.close();
+
+        assertEquals(1, Metrics.getCounter("test.count"));
+        assertEquals(1000, Metrics.getCounter("test.bytesIn"));
+        assertEquals(250, Metrics.getCounter("test.bytesOut"));
+        assertEquals(1, Metrics.getHistogram("test.micros").getCount());
+
+        ByteArrayOutputStream dump = new ByteArrayOutputStream();
+        Metrics.dump(new PrintStream(dump, true, StandardCharsets.UTF_8));
+        String text = dump.toString(StandardCharsets.UTF_8);
+        assertTrue(text.contains("test.bytesIn 1000"));
+        assertTrue(text.contains("test.micros count=1 "));
+    }
+
+    @Test
+    @DisplayName("A save and extract should record every pipeline phase")
+    void testPipelinePhases() throws Exception {
+        Path source = Files.writeString(directory.resolve("notes.txt"), "metrics ".repeat(50000));
+        String container = directory.resolve("metrics.box").toString();
+
+        Map<String, StoredFile> files = new HashMap<>();
+        files.put("notes.txt", new StoredFile("notes.txt", "text/plain", source, progress -> {}));
+        ContainerManager.saveContainer(container, "metricsPassword", files);
+        Map<String, StoredFile> loaded = ContainerManager.loadContainer(container, "metricsPassword");
+        loaded.get("notes.txt").copyContentTo(OutputStream.nullOutputStream(), total -> {});
+
+        assertEquals(400000, Metrics.getCounter("compress.bytesIn"));
+        assertTrue(Metrics.getCounter("compress.bytesOut") < 400000);
+        assertEquals(Metrics.getCounter("compress.bytesOut") + Metrics.getCounter("toc.write.bytesIn"),
+                Metrics.getCounter("encrypt.bytesIn"));
+        assertEquals(400000, Metrics.getCounter("extract.bytesOut"));
+        assertEquals(Files.size(Paths.get(container)), Metrics.getCounter("save.bytesOut"));
+        for (String phase : List.of(Phase.KDF, Phase.DECRYPT, Phase.TOC_READ)) {
+            assertTrue(Metrics.getCounter(phase + ".count") > 0, phase);
+        }
+    }
+
+    @Test
+    @DisplayName("Phases should be recorded as Flight Recorder events when enabled")
+    void testFlightRecorderEvents() throws Exception {
+        Path file = directory.resolve("phases.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("blackbox.Phase");
+            recording.start();
+            EncryptionUtil.deriveKey("jfrPassword", EncryptionUtil.generateSalt());
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        RecordedEvent kdf = events.stream()
+                .filter(event -> event.getEventType().getName().equals("blackbox.Phase"))
+                .filter(event -> Phase.KDF.equals(event.getString("phase")))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(32, kdf.getLong("bytesOut"));
+        assertFalse(kdf.getDuration().isNegative());
+    }
+}
@@ -0,0 +1,54 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+class ParallelCompressorTest {
+    private static final int BLOCK_SIZE = 4096;
+
+    private static byte[] compress(byte[] data, AtomicLong progress) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long read = ParallelCompressor.compress(new ByteArrayInputStream(data), out, BLOCK_SIZE, progress::set);
+        assertEquals(data.length, read);
+        return out.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    @DisplayName("Compressible data spanning many blocks should round trip")
+    void testCompressibleRoundTrip() throws IOException {
+        byte[] data = "Parallel block compression test line. ".repeat(5000).getBytes();
+        AtomicLong progress = new AtomicLong();
+
+        byte[] compressed = compress(data, progress);
+
+        assertTrue(compressed.length < data.length / 4);
+        assertEquals(data.length, progress.get());
+        assertArrayEquals(data, decompress(compressed));
+    }
+
+    @Test
+    @DisplayName("Random data with a partial last block should round trip")
+    void testRandomRoundTrip() throws IOException {
+        byte[] data = new byte[BLOCK_SIZE * 37 + 123];
+        new Random(42).nextBytes(data);
+
+        assertArrayEquals(data, decompress(compress(data, new AtomicLong())));
+    }
+
+    @Test
+    @DisplayName("Empty input should still produce a valid gzip stream")
+    void testEmptyInput() throws IOException {
+        byte[] compressed = compress(new byte[0], new AtomicLong());
+        assertEquals(0, decompress(compressed).length);
+    }
+}
@@ -0,0 +1,148 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+class PreviewServerTest {
+    private static final String TEST_PASSWORD = "testPassword123";
+    private Path tempDir;
+    private byte[] content;
+    private StoredFile stored;
+    private PreviewServer server;
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("test_preview_");
+        content = new byte[3 * 1024 * 1024 + 4321];
+        new Random(5).nextBytes(content);
+        Path source = Files.write(tempDir.resolve("clip.mp4"), content);
+
+        // Serve an entry as loaded from a container, as the UI does
+        Path container = tempDir.resolve("test.box");
+        Map<String, StoredFile> files = new HashMap<>();
+        files.put("media/clip.mp4", new StoredFile("media/clip.mp4", "video/mp4", source, p -> {}));
+        ContainerManager.saveContainer(container.toString(), TEST_PASSWORD, files);
+        files.get("media/clip.mp4").close();
+        stored = ContainerManager.loadContainer(container.toString(), TEST_PASSWORD).get("media/clip.mp4");
+        server = new PreviewServer();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.close();
+        stored.close();
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private HttpResponse<byte[]> get(URI uri, String range) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri);
+        if (range != null) request.header("Range", range);
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    @Test
+    @DisplayName("Published entries should be served whole on the loopback interface")
+    void testFullGet() throws Exception {
+        URI uri = server.publish(stored);
+        assertTrue(uri.getHost().equals("127.0.0.1") || uri.getHost().equals("::1"), uri.toString());
+        assertTrue(uri.getPath().endsWith("/clip.mp4"));
+
+        HttpResponse<byte[]> response = get(uri, null);
+        assertEquals(200, response.statusCode());
+        assertEquals("video/mp4", response.headers().firstValue("Content-Type").orElse(null));
+        assertEquals("bytes", response.headers().firstValue("Accept-Ranges").orElse(null));
+        assertArrayEquals(content, response.body());
+    }
+
+    @Test
+    @DisplayName("Range requests should return just the requested bytes")
+    void testRanges() throws Exception {
+        URI uri = server.publish(stored);
+
+        HttpResponse<byte[]> middle = get(uri, "bytes=2000000-2000999");
+        assertEquals(206, middle.statusCode());
+        assertEquals("bytes 2000000-2000999/" + content.length,
+                middle.headers().firstValue("Content-Range").orElse(null));
+        assertArrayEquals(Arrays.copyOfRange(content, 2000000, 2001000), middle.body());
+
+        HttpResponse<byte[]> suffix = get(uri, "bytes=-500");
+        assertEquals(206, suffix.statusCode());
+        assertArrayEquals(Arrays.copyOfRange(content, content.length - 500, content.length), suffix.body());
+
+        HttpResponse<byte[]> open = get(uri, "bytes=" + (content.length - 10) + "-");
+        assertArrayEquals(Arrays.copyOfRange(content, content.length - 10, content.length), open.body());
+
+        HttpResponse<byte[]> outside = get(uri, "bytes=" + content.length + "-");
+        assertEquals(416, outside.statusCode());
+        assertEquals("bytes */" + content.length, outside.headers().firstValue("Content-Range").orElse(null));
+    }
+
+    @Test
+    @DisplayName("HEAD should report the size without a body")
+    void testHead() throws Exception {
+        URI uri = server.publish(stored);
+        HttpResponse<Void> response = client.send(
+                HttpRequest.newBuilder(uri).method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.discarding());
+        assertEquals(200, response.statusCode());
+        assertEquals(String.valueOf(content.length), response.headers().firstValue("Content-Length").orElse(null));
+    }
+
+    @Test
+    @DisplayName("Unpublished or cleared entries should not be reachable")
+    void testUnknownToken() throws Exception {
+        URI uri = server.publish(stored);
+        URI guessed = uri.resolve("/" + "0".repeat(32) + "/clip.mp4");
+        assertEquals(404, get(guessed, null).statusCode());
+
+        server.clear();
+        assertEquals(404, get(uri, null).statusCode());
+    }
+
+    @Test
+    @DisplayName("Entries should expire once idle and be capped in number")
+    void testExpiry() throws Exception {
+        try (PreviewServer capped = new PreviewServer(2, 60_000)) {
+            URI first = capped.publish(stored);
+            URI second = capped.publish(stored);
+            assertEquals(206, get(first, "bytes=0-0").statusCode());
+            capped.publish(stored); // Pushes out the least recently requested, which is second
+            assertEquals(2, capped.size());
+            assertEquals(206, get(first, "bytes=0-0").statusCode());
+            assertEquals(404, get(second, "bytes=0-0").statusCode());
+        }
+
+        try (PreviewServer idle = new PreviewServer(32, 100)) {
+            URI uri = idle.publish(stored);
+            assertEquals(206, get(uri, "bytes=0-0").statusCode());
+            Thread.sleep(300);
+            assertEquals(0, idle.size());
+            assertEquals(404, get(uri, null).statusCode());
+        }
+    }
+
+    @Test
+    @DisplayName("Range headers should be parsed as HTTP defines them")
+    void testParseRange() {
+        assertNull(PreviewServer.parseRange(null, 100));
+        assertNull(PreviewServer.parseRange("bytes=0-1,5-6", 100));
+        assertNull(PreviewServer.parseRange("items=0-1", 100));
+        assertArrayEquals(new long[]{10, 99}, PreviewServer.parseRange("bytes=10-", 100));
+        assertArrayEquals(new long[]{10, 99}, PreviewServer.parseRange("bytes=10-500", 100));
+        assertArrayEquals(new long[]{0, 99}, PreviewServer.parseRange("bytes=-500", 100));
+        assertArrayEquals(new long[]{-1, -1}, PreviewServer.parseRange("bytes=100-", 100));
+        assertArrayEquals(new long[]{-1, -1}, PreviewServer.parseRange("bytes=5-2", 100));
+    }
+}
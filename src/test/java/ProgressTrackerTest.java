@@ -0,0 +1,83 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.LongConsumer;
+
+class ProgressTrackerTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    @DisplayName("Item progress should add up across items")
+    void testItemProgress() {
+        ProgressTracker tracker = new ProgressTracker(300, 0);
+        tracker.beginItem("a", 100);
+        tracker.itemProgress().accept(100);
+        tracker.beginItem("b", 200);
+        tracker.itemProgress().accept(50);
+
+        ProgressTracker.Snapshot snapshot = tracker.snapshot(SECOND);
+        assertEquals("b", snapshot.getItem());
+        assertEquals(150, snapshot.getBytesDone());
+        assertEquals(50, snapshot.getPercent());
+        assertEquals(25, snapshot.getItemPercent());
+    }
+
+    @Test
+    @DisplayName("Rate should be smoothed between samples and give an ETA")
+    void testRateAndEta() {
+        ProgressTracker tracker = new ProgressTracker(10_000, 0);
+        tracker.beginItem("big", 10_000);
+        LongConsumer progress = tracker.itemProgress();
+
+        progress.accept(1000);
+        ProgressTracker.Snapshot first = tracker.snapshot(SECOND);
+        assertEquals(1000, first.getBytesPerSecond(), 1e-6);
+        assertEquals(9, first.getEtaSeconds());
+
+        progress.accept(3000); // 2000 B/s in the second window
+        ProgressTracker.Snapshot second = tracker.snapshot(2 * SECOND);
+        assertEquals(0.3 * 2000 + 0.7 * 1000, second.getBytesPerSecond(), 1e-6);
+        assertEquals((long) Math.ceil(7000 / 1300.0), second.getEtaSeconds());
+
+        // Samples closer together than the window keep the last rate
+        progress.accept(3500);
+        assertEquals(1300, tracker.snapshot(2 * SECOND + 1000).getBytesPerSecond(), 1e-6);
+    }
+
+    @Test
+    @DisplayName("Unknown totals and rates should not produce an ETA")
+    void testUnknownEta() {
+        ProgressTracker tracker = new ProgressTracker(0, 0);
+        assertEquals(-1, tracker.snapshot(0).getEtaSeconds());
+        assertEquals(0, tracker.snapshot(0).getPercent());
+    }
+
+    @Test
+    @DisplayName("Cancelling should stop an import at its next progress report")
+    void testCancelImport() throws IOException {
+        Path source = Files.createTempFile("test_cancel_", ".bin");
+        try {
+            Files.write(source, new byte[4 << 20]);
+            ProgressTracker tracker = new ProgressTracker(Files.size(source));
+            tracker.beginItem("cancel.bin", Files.size(source));
+            tracker.cancel();
+
+            assertThrows(CancellationException.class, tracker::checkCancelled);
+            assertThrows(CancellationException.class,
+                    () -> new StoredFile("cancel.bin", "application/octet-stream", source, tracker.itemProgress()));
+        } finally {
+            Files.deleteIfExists(source);
+        }
+    }
+
+    @Test
+    @DisplayName("Byte counts should be formatted with binary units")
+    void testFormatBytes() {
+        assertEquals("512 B", ProgressTracker.formatBytes(512));
+        assertTrue(ProgressTracker.formatBytes(1536).matches("1[.,]5 KB"));
+        assertTrue(ProgressTracker.formatBytes(3L << 30).matches("3[.,]0 GB"));
+    }
+}
@@ -4,16 +4,16 @@ import static org.junit.jupiter.api.Assertions.*;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
-import java.util.function.Consumer;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import java.util.concurrent.atomic.AtomicLong;
 
 class StoredFileTest {
     private Path tempSourceFile;
     private static final String TEST_CONTENT = "This is test content that will be compressed. ".repeat(1000);
     private static final String TEST_FILENAME = "test.txt";
     private static final String TEST_TYPE = "text/plain";
-    private final AtomicInteger lastProgress = new AtomicInteger(0);
-    private final Consumer<Integer> progressConsumer = progress -> lastProgress.set(progress);
+    private final AtomicLong lastProgress = new AtomicLong(0);
+    private final LongConsumer progressConsumer = progress -> lastProgress.set(progress);
     
     @BeforeEach
     void setUp() throws IOException {
@@ -126,4 +126,20 @@ class StoredFileTest {
             new StoredFile(TEST_FILENAME, TEST_TYPE, nonExistentFile, progressConsumer)
         );
     }
-} 
\ No newline at end of file
+
+    @Test
+    @DisplayName("StoredFile should read from any position through its block index")
+    void testContentFromPosition() throws IOException {
+        byte[] data = "Seekable content across several compressed blocks. ".repeat(60000).getBytes();
+        Files.write(tempSourceFile, data);
+
+        try (StoredFile storedFile = new StoredFile(TEST_FILENAME, TEST_TYPE, tempSourceFile, progressConsumer)) {
+            assertTrue(storedFile.getBlocks().getBlockCount() > 1);
+            for (int position : new int[]{0, 1, 1 << 20, (1 << 20) + 123, data.length - 1, data.length}) {
+                try (InputStream in = storedFile.getContentStream(position)) {
+                    assertArrayEquals(Arrays.copyOfRange(data, position, data.length), in.readAllBytes());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+class TextIndexTest {
+    private static Set<String> terms(String text) throws IOException {
+        TextIndex.Terms terms = new TextIndex.Terms(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+        terms.readAllBytes();
+        return terms.get();
+    }
+
+    @Test
+    @DisplayName("Content should be split into lower-cased words, passing through unchanged")
+    void testTerms() throws IOException {
+        byte[] text = "Invoice CUST-10042, due 2024-05-01; Grüße a ".getBytes(StandardCharsets.UTF_8);
+        TextIndex.Terms terms = new TextIndex.Terms(new ByteArrayInputStream(text));
+        assertArrayEquals(text, terms.readAllBytes());
+        assertEquals(Set.of("invoice", "cust", "10042", "due", "2024", "05", "01", "grüße"), terms.get());
+
+        // Single letters and runs too long to be words are left out
+        assertEquals(Set.of("ok"), terms("x ok " + "f".repeat(TextIndex.MAX_TERM_LENGTH + 1)));
+        assertTrue(TextIndex.isIndexable("text/csv"));
+        assertTrue(TextIndex.isIndexable("application/ld+json"));
+        assertFalse(TextIndex.isIndexable("image/png"));
+    }
+
+    @Test
+    @DisplayName("Queries should return the entries holding every word")
+    void testSearch() throws IOException {
+        TextIndex index = new TextIndex();
+        index.add("2023/march.csv", terms("customer,amount\nCUST-10042,17.50\nCUST-20077,3.10"));
+        index.add("2023/april.csv", terms("customer,amount\nCUST-20077,8.00"));
+        index.add("notes.txt", terms("Call customer 10042 about the refund"));
+
+        assertEquals(List.of("2023/march.csv"), index.search("CUST-10042"));
+        assertEquals(List.of("2023/march.csv", "notes.txt"), index.search("10042"));
+        assertEquals(List.of("2023/april.csv", "2023/march.csv", "notes.txt"), index.search("Customer"));
+        assertEquals(List.of(), index.search("10042 april"));
+        assertEquals(List.of(), index.search("-- ,"));
+    }
+
+    @Test
+    @DisplayName("Replaced and removed entries should drop out of the results")
+    void testIncrementalUpdates() throws IOException {
+        TextIndex index = new TextIndex();
+        index.add("a.txt", terms("alpha beta"));
+        index.add("b.txt", terms("beta gamma"));
+        index.add("a.txt", terms("delta"));
+        assertEquals(List.of("b.txt"), index.search("beta"));
+        assertEquals(List.of("a.txt"), index.search("delta"));
+
+        assertTrue(index.remove("b.txt"));
+        assertFalse(index.remove("b.txt"));
+        assertEquals(List.of(), index.search("gamma"));
+        assertEquals(1, index.size());
+        assertTrue(index.contains("a.txt"));
+    }
+
+    @Test
+    @DisplayName("Encoding should round-trip and keep postings to about a byte per entry")
+    void testEncoding() throws IOException {
+        TextIndex index = new TextIndex();
+        for (int i = 0; i < 10_000; i++) {
+            index.add(String.format("log/%05d.txt", i), terms("common entry " + i + (i % 10 == 0 ? " rare" : "")));
+        }
+        index.remove("log/00000.txt");
+        index.add("log/00000.txt", terms("common replaced"));
+
+        TextIndex decoded = TextIndex.decode(index.encode());
+        assertEquals(10_000, decoded.size());
+        assertEquals(999, decoded.search("rare").size());
+        assertEquals(List.of("log/00000.txt"), decoded.search("replaced"));
+        assertEquals(List.of("log/04242.txt"), decoded.search("4242 common"));
+        assertEquals(10_000, decoded.search("common").size());
+
+        // Names take 15 bytes each; "common" and "entry" list every entry in gaps of one byte, and the
+        // numbers are mostly front-coded away. As plain ints the postings alone would add 12 bytes an entry.
+        byte[] encoded = decoded.encode();
+        assertTrue(encoded.length < 10_000 * 24, "Encoded to " + encoded.length + " bytes");
+        assertArrayEquals(encoded, TextIndex.decode(encoded).encode());
+    }
+
+    @Test
+    @DisplayName("Varints should take one byte below 128 and read back any value")
+    void testVarint() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int[] values = {0, 1, 127, 128, 16_383, 16_384, Integer.MAX_VALUE};
+        for (int value : values) {
+            TextIndex.writeVarint(out, value);
+        }
+        assertEquals(1 + 1 + 1 + 2 + 2 + 3 + 5, bytes.size());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (int value : values) {
+            assertEquals(value, TextIndex.readVarint(in));
+        }
+    }
+}
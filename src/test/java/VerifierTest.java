@@ -0,0 +1,150 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+class VerifierTest {
+    private static final String TEST_PASSWORD = "testPassword123";
+    private Path tempDir;
+    private Path container;
+    private ContainerKey key;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("test_verify_");
+        container = tempDir.resolve("test.box");
+
+        byte[] random = new byte[1536 * 1024 + 99];
+        new Random(4).nextBytes(random);
+        String shared = "shared line of a deduplicated entry\n".repeat(40000);
+        try (ContainerSession session = ContainerSession.create(container.toString(), TEST_PASSWORD)) {
+            session.put(new StoredFile("random.bin", "application/octet-stream",
+                    Files.write(tempDir.resolve("random.bin"), random), p -> {}));
+            session.put(new StoredFile("small.txt", "text/plain",
+                    Files.writeString(tempDir.resolve("small.txt"), "small"), p -> {}));
+            for (String name : List.of("dedup/a.txt", "dedup/b.txt")) {
+                Path source = Files.writeString(tempDir.resolve(name.replace('/', '_')), shared + name);
+                session.put(new StoredFile(name, "text/plain", source, p -> {}, session.getChunkStore()));
+            }
+            session.commit();
+        }
+        key = ContainerManager.unlock(container.toString(), TEST_PASSWORD);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private List<String> verify(String pattern) throws Exception {
+        return new Verifier(new ProgressTracker(0), 4, 2).verify(container.toString(), key, Extractor.matcher(pattern));
+    }
+
+    private ContainerEntry entry(String name) throws Exception {
+        return ContainerManager.listEntries(container.toString(), key).stream()
+                .filter(e -> e.getName().equals(name)).findFirst().orElseThrow();
+    }
+
+    private void flipByte(long position) throws IOException {
+        try (FileChannel channel = FileChannel.open(container, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, position);
+            b.put(0, (byte) (b.get(0) ^ 0x40));
+            channel.write(b.flip(), position);
+        }
+    }
+
+    @Test
+    @DisplayName("Trees built leaf by leaf should have the same root as trees built from all leaves")
+    void testIncrementalTree() {
+        List<byte[]> leaves = new ArrayList<>();
+        MerkleTree.Builder builder = new MerkleTree.Builder();
+        for (int i = 1; i <= 70; i++) {
+            byte[] leaf = MerkleTree.leaf(ByteBuffer.wrap(Integer.toString(i).getBytes(StandardCharsets.UTF_8)));
+            leaves.add(leaf);
+            builder.add(leaf);
+            assertArrayEquals(MerkleTree.root(leaves), builder.build(), "After " + i + " leaves");
+        }
+    }
+
+    @Test
+    @DisplayName("An intact container should verify clean, with every byte of its segments hashed")
+    void testIntact() throws Exception {
+        assertNotNull(entry("random.bin").getRoot());
+        ProgressTracker tracker = new ProgressTracker(0);
+        assertEquals(List.of(), new Verifier(tracker, 4, 2).verify(container.toString(), key, name -> true));
+        assertEquals(tracker.snapshot().getTotalBytes(), tracker.snapshot().getBytesDone());
+        assertTrue(tracker.snapshot().getBytesDone() > 1536 * 1024);
+        assertEquals(List.of(), new Verifier(new ProgressTracker(0)).verify(container.toString(), key, name -> true));
+    }
+
+    @Test
+    @DisplayName("A flipped byte should be pinned to its entry, and other entries should verify without it")
+    void testDamagedSegment() throws Exception {
+        ContainerEntry random = entry("random.bin");
+        flipByte(random.getOffset() + random.getLength() / 2);
+
+        assertEquals(List.of("random.bin"), verify("**"));
+        assertEquals(List.of(), verify("small.txt"));
+    }
+
+    @Test
+    @DisplayName("A damaged shared chunk should be reported for every entry using it")
+    void testDamagedChunk() throws Exception {
+        ContainerManager.Toc toc = ContainerManager.readToc(container.toString(), key);
+        String shared = entry("dedup/a.txt").getChunks().get(0);
+        assertTrue(entry("dedup/b.txt").getChunks().contains(shared));
+        ChunkRecord record = toc.chunks.get(shared);
+        assertNotNull(record.getRoot());
+        flipByte(record.getOffset() + 3);
+
+        assertEquals(List.of("dedup/a.txt", "dedup/b.txt"), verify("**"));
+        assertEquals(List.of(), verify("*.bin"));
+    }
+
+    @Test
+    @DisplayName("Roots should survive compaction, and a zeroed segment should fail verification")
+    void testCompactedAndZeroed() throws Exception {
+        try (ContainerSession session = ContainerSession.open(container.toString(), TEST_PASSWORD)) {
+            session.remove("small.txt");
+            session.commit();
+            assertTrue(session.compact(new ProgressTracker(0), Long.MAX_VALUE));
+        }
+        assertEquals(List.of(), verify("**"));
+
+        ContainerEntry last = ContainerManager.listEntries(container.toString(), key).stream()
+                .filter(e -> !e.isChunked()).max(Comparator.comparingLong(ContainerEntry::getOffset)).orElseThrow();
+        // Truncating the file would cut off the table of contents, so the segment is zeroed instead
+        try (FileChannel channel = FileChannel.open(container, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate((int) Math.min(last.getLength(), 100_000)), last.getOffset());
+        }
+        assertEquals(List.of(last.getName()), verify("**"));
+    }
+
+    @Test
+    @DisplayName("Combining aligned runs should give the same root as hashing all leaves at once")
+    void testRunsMatchWholeTree() {
+        List<byte[]> leaves = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            leaves.add(MerkleTree.leaf(ByteBuffer.wrap(("leaf " + i).getBytes(StandardCharsets.UTF_8))));
+        }
+        for (int run : new int[]{1, 2, 4, 8, 16}) {
+            List<byte[]> runRoots = new ArrayList<>();
+            for (int i = 0; i < leaves.size(); i += run) {
+                runRoots.add(MerkleTree.root(leaves.subList(i, Math.min(leaves.size(), i + run))));
+            }
+            assertArrayEquals(MerkleTree.root(leaves), MerkleTree.root(runRoots), "Runs of " + run);
+        }
+        assertFalse(Arrays.equals(MerkleTree.root(leaves), MerkleTree.root(leaves.subList(0, 10))));
+    }
+}
@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class WorkersTest {
+    @Test
+    @DisplayName("Items should be handed out in order and each run once")
+    void testForEach() throws IOException {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            items.add(i);
+        }
+        List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+        new Workers("Test").forEach(items, 4, "test-worker", seen::add);
+        assertEquals(1000, seen.size());
+        assertEquals(new HashSet<>(items), new HashSet<>(seen));
+
+        List<Integer> ordered = new ArrayList<>();
+        new Workers("Test").forEach(items, 1, "test-worker", ordered::add);
+        assertEquals(items, ordered);
+    }
+
+    @Test
+    @DisplayName("The first failure should stop the other workers and be thrown as it is")
+    void testFirstFailure() {
+        AtomicInteger started = new AtomicInteger();
+        IOException first = new IOException("first");
+        Workers workers = new Workers("Test");
+        IOException thrown = assertThrows(IOException.class, () ->
+                workers.forEach(Collections.nCopies(10_000, 0), 4, "test-worker", item -> {
+                    if (started.incrementAndGet() == 10) throw first;
+                    if (started.get() > 10) throw new IOException("later");
+                }));
+        assertSame(first, thrown);
+        assertTrue(workers.failed());
+        assertTrue(started.get() < 10_000, "Workers kept going after the failure");
+    }
+
+    @Test
+    @DisplayName("Failures that are not IOExceptions should be wrapped with the action")
+    void testRethrow() {
+        Workers workers = new Workers("Test");
+        assertDoesNotThrow(workers::rethrow);
+        assertTrue(workers.fail(new Exception("broken")));
+        assertFalse(workers.fail(new IOException("later")));
+        IOException e = assertThrows(IOException.class, workers::rethrow);
+        assertEquals("Test failed: broken", e.getMessage());
+
+        Workers cancelled = new Workers("Test");
+        cancelled.fail(new CancellationException("stopped"));
+        assertThrows(CancellationException.class, cancelled::rethrow);
+    }
+
+    @Test
+    @DisplayName("Shutting down should wait for running tasks without interrupting them")
+    void testShutdownAndAwait() throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor(Workers.daemon("test-worker"));
+        CountDownLatch running = new CountDownLatch(1);
+        Future<Boolean> task = pool.submit(() -> {
+            running.countDown();
+            Thread.sleep(200);
+            return Thread.currentThread().isInterrupted();
+        });
+        running.await();
+        Thread.currentThread().interrupt();
+        Workers.shutdownAndAwait(pool);
+        assertTrue(Thread.interrupted(), "The caller's interrupt should be kept");
+        assertTrue(pool.isTerminated());
+        assertFalse(task.get());
+    }
+}